@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.benchmarks;
+
+import com.vaadin.flow.shared.Registration;
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBus;
+import org.vaadin.spring.events.EventBusListener;
+import org.vaadin.spring.events.HierachyTopicFilter;
+import org.vaadin.spring.events.annotation.EventBusListenerMethod;
+import org.vaadin.spring.events.annotation.EventBusListenerTopic;
+
+import java.io.Serializable;
+
+/**
+ * Listeners used by the benchmarks. Every listener counts the events it receives, so that the JIT compiler cannot
+ * eliminate the delivery.
+ */
+public final class BenchmarkListeners {
+
+    private BenchmarkListeners() {
+    }
+
+    /**
+     * The kinds of listeners that can be subscribed to an event bus.
+     */
+    public enum Kind {
+        /**
+         * An object with a method annotated with {@link EventBusListenerMethod} that takes the payload.
+         */
+        METHOD {
+            @Override
+            Object subscribe(EventBus eventBus) {
+                final MethodListener listener = new MethodListener();
+                eventBus.subscribe(listener);
+                return listener;
+            }
+
+            @Override
+            Registration register(EventBus eventBus) {
+                return eventBus.subscribeWithRegistration(new MethodListener());
+            }
+
+            @Override
+            void unsubscribe(EventBus eventBus, Object listener) {
+                eventBus.unsubscribe(listener);
+            }
+        },
+        /**
+         * An {@link EventBusListener}, which receives the {@link Event}.
+         */
+        LISTENER {
+            @Override
+            Object subscribe(EventBus eventBus) {
+                final TypedListener listener = new TypedListener();
+                eventBus.subscribe(listener);
+                return listener;
+            }
+
+            @Override
+            Registration register(EventBus eventBus) {
+                return eventBus.subscribeWithRegistration(new TypedListener());
+            }
+
+            @Override
+            void unsubscribe(EventBus eventBus, Object listener) {
+                eventBus.unsubscribe((TypedListener) listener);
+            }
+        };
+
+        /**
+         * Subscribes a new listener of this kind to the specified event bus.
+         *
+         * @return the listener.
+         */
+        abstract Object subscribe(EventBus eventBus);
+
+        /**
+         * Subscribes a new listener of this kind to the specified event bus.
+         *
+         * @return the registration of the listener.
+         */
+        abstract Registration register(EventBus eventBus);
+
+        /**
+         * Unsubscribes a listener returned by {@link #subscribe(EventBus)} from the specified event bus.
+         */
+        abstract void unsubscribe(EventBus eventBus, Object listener);
+    }
+
+    public static class MethodListener implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        long received;
+
+        @EventBusListenerMethod
+        public void onPayload(String payload) {
+            received++;
+        }
+    }
+
+    public static class TypedListener implements EventBusListener<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        long received;
+
+        @Override
+        public void onEvent(Event<String> event) {
+            received++;
+        }
+    }
+
+    public static class ExactTopicListener {
+
+        long received;
+
+        @EventBusListenerMethod
+        @EventBusListenerTopic(topic = "orders.created")
+        public void onPayload(String payload) {
+            received++;
+        }
+    }
+
+    public static class HierarchyTopicListener {
+
+        long received;
+
+        @EventBusListenerMethod
+        @EventBusListenerTopic(topic = "orders", filter = HierachyTopicFilter.class)
+        public void onPayload(String payload) {
+            received++;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.spring.events.annotation.EventBusListenerMethod;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures publishing to a single application event bus from several threads at once, both on its own and while
+ * another thread keeps subscribing and unsubscribing listeners. The listeners do not write any shared state, so that
+ * only the contention within the event bus is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContendedPublishBenchmark {
+
+    @Param({"1", "100"})
+    public int listenerCount;
+
+    private final Object sender = new Object();
+    private final String payload = "payload";
+    private ScopedEventBus eventBus;
+
+    public static class StatelessListener {
+
+        @EventBusListenerMethod
+        public void onPayload(String payload) {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        for (int i = 0; i < listenerCount; i++) {
+            eventBus.subscribe(new StatelessListener());
+        }
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void publish() {
+        eventBus.publish(sender, payload);
+    }
+
+    @Benchmark
+    @Group("publishWhileSubscribing")
+    @GroupThreads(3)
+    public void publishers() {
+        eventBus.publish(sender, payload);
+    }
+
+    @Benchmark
+    @Group("publishWhileSubscribing")
+    @GroupThreads(1)
+    public Object subscriber() {
+        final StatelessListener listener = new StatelessListener();
+        eventBus.subscribe(listener);
+        eventBus.unsubscribe(listener);
+        return listener;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of broadcasting an event from the application event bus through the session event buses to the
+ * UI event buses, each of which has a single listener, with the propagation to the child event buses either serial
+ * or parallel.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PropagationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int sessionCount;
+
+    @Param({"1", "10"})
+    public int uisPerSession;
+
+    /**
+     * The number of child event buses from which on they are served in parallel. The default never propagates in
+     * parallel.
+     */
+    @Param({"2147483647", "16"})
+    public int parallelFanOutThreshold;
+
+    private final Object sender = new Object();
+    private final String payload = "payload";
+    private final List<ScopedEventBus> eventBuses = new ArrayList<ScopedEventBus>();
+    private ScopedEventBus.DefaultApplicationEventBus applicationEventBus;
+
+    @Setup
+    public void setUp() {
+        applicationEventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        applicationEventBus.setParallelFanOutThreshold(parallelFanOutThreshold);
+        for (int i = 0; i < sessionCount; i++) {
+            final ScopedEventBus.DefaultSessionEventBus sessionEventBus =
+                new ScopedEventBus.DefaultSessionEventBus(applicationEventBus);
+            sessionEventBus.setParallelFanOutThreshold(parallelFanOutThreshold);
+            eventBuses.add(sessionEventBus);
+            for (int j = 0; j < uisPerSession; j++) {
+                final ScopedEventBus.DefaultUIEventBus uiEventBus = new ScopedEventBus.DefaultUIEventBus(sessionEventBus);
+                uiEventBus.subscribe(new BenchmarkListeners.MethodListener());
+                eventBuses.add(uiEventBus);
+            }
+        }
+    }
+
+    @Benchmark
+    public void publish() {
+        applicationEventBus.publish(sender, payload);
+    }
+}
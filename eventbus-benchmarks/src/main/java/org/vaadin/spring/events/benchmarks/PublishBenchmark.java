@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and latency of publishing an event to an application event bus, depending on the number
+ * and kind of subscribed listeners. Every listener receives every event.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int listenerCount;
+
+    @Param({"METHOD", "LISTENER"})
+    public BenchmarkListeners.Kind listenerKind;
+
+    private final Object sender = new Object();
+    private final String payload = "payload";
+    private ScopedEventBus eventBus;
+
+    @Setup
+    public void setUp() {
+        eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        for (int i = 0; i < listenerCount; i++) {
+            listenerKind.subscribe(eventBus);
+        }
+    }
+
+    @Benchmark
+    public void publish() {
+        eventBus.publish(sender, payload);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing and deserializing a session event bus, as happens when a session is passivated or replicated,
+ * depending on the number of subscribed listeners. The serialized size of the event bus is printed when the trial
+ * ends, so that changes to the serialized form can be compared as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int listenerCount;
+
+    @Param({"METHOD", "LISTENER"})
+    public BenchmarkListeners.Kind listenerKind;
+
+    private ScopedEventBus.DefaultApplicationEventBus applicationEventBus;
+
+    private ScopedEventBus.DefaultSessionEventBus sessionEventBus;
+
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        applicationEventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        sessionEventBus = new ScopedEventBus.DefaultSessionEventBus(applicationEventBus);
+        // The listeners ignore propagated events, so that the deserialized copies do not attach to the application
+        // event bus and pile up as its children
+        for (int i = 0; i < listenerCount; i++) {
+            if (listenerKind == BenchmarkListeners.Kind.METHOD) {
+                sessionEventBus.subscribe(new BenchmarkListeners.MethodListener(), false);
+            } else {
+                sessionEventBus.subscribe(new BenchmarkListeners.TypedListener(), false);
+            }
+        }
+        serialized = serialize();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%nSerialized size of a session event bus with %d %s listener(s): %d bytes%n",
+            listenerCount, listenerKind, serialized.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(sessionEventBus);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return ois.readObject();
+        }
+    }
+}
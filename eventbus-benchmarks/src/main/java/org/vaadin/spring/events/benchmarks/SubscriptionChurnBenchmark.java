@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.benchmarks;
+
+import com.vaadin.flow.shared.Registration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of subscribing a listener and unsubscribing it again, as happens when views are attached and
+ * detached, depending on the number of listeners that remain subscribed. Listeners are either unsubscribed by their
+ * target or by removing the registration returned when subscribing them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubscriptionChurnBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int listenerCount;
+
+    @Param({"METHOD", "LISTENER"})
+    public BenchmarkListeners.Kind listenerKind;
+
+    private ScopedEventBus eventBus;
+
+    @Setup
+    public void setUp() {
+        eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        for (int i = 0; i < listenerCount; i++) {
+            listenerKind.subscribe(eventBus);
+        }
+    }
+
+    @Benchmark
+    public Object subscribeAndUnsubscribe() {
+        final Object listener = listenerKind.subscribe(eventBus);
+        listenerKind.unsubscribe(eventBus, listener);
+        return listener;
+    }
+
+    @Benchmark
+    public Registration subscribeAndRemoveRegistration() {
+        final Registration registration = listenerKind.register(eventBus);
+        registration.remove();
+        return registration;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for the dispatch of an event to the listeners of an event bus. The duration of the event
+ * covers the listeners of one event bus; an event that propagates to child event buses is recorded again for each
+ * child. Only dispatches that take longer than the threshold are recorded, 10 ms by default.
+ */
+@Name(EventDispatchEvent.NAME)
+@Label("Event Bus Dispatch")
+@Category({"Vaadin", "Event Bus"})
+@Description("Dispatch of an event to the listeners of an event bus")
+@Threshold("10 ms")
+public final class EventDispatchEvent extends Event {
+
+    public static final String NAME = "org.vaadin.spring.events.EventDispatch";
+
+    @Label("Scope")
+    String scope;
+
+    @Label("Topic")
+    String topic;
+
+    @Label("Payload Type")
+    Class<?> payloadType;
+
+    @Label("Propagated")
+    @Description("Whether the event was published on a parent event bus")
+    boolean propagated;
+
+    @Label("Listener Count")
+    int listenerCount;
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.jfr;
+
+import org.vaadin.spring.events.EventBusMetrics;
+import org.vaadin.spring.events.EventScope;
+
+/**
+ * {@link EventBusMetrics} that emits Java Flight Recorder events:
+ * <ul>
+ * <li>{@value EventDispatchEvent#NAME}: the dispatch of an event to the listeners of an event bus, with the scope,
+ * topic and payload type of the event.</li>
+ * <li>{@value ListenerInvocationEvent#NAME}: the invocation of a listener, with the scope, topic and payload type of
+ * the event and the class and method of the listener.</li>
+ * </ul>
+ * Nothing is recorded unless a recording with the events enabled is running. The thresholds of the events can be
+ * changed like those of any other flight recorder event, either in the settings of the recording or with
+ * {@link jdk.jfr.Recording#enable(String)}.
+ */
+public class FlightRecorderEventBusMetrics implements EventBusMetrics {
+
+    @Override
+    public Object dispatchStarted(EventScope scope, String topic, Class<?> payloadType, boolean propagated) {
+        final EventDispatchEvent event = new EventDispatchEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.scope = scope.name();
+        event.topic = topic;
+        event.payloadType = payloadType;
+        event.propagated = propagated;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void dispatchFinished(Object context, int listenerCount) {
+        if (context != null) {
+            final EventDispatchEvent event = (EventDispatchEvent) context;
+            event.end();
+            if (event.shouldCommit()) {
+                event.listenerCount = listenerCount;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public Object listenerInvocationStarted(EventScope scope, String topic, Class<?> payloadType,
+                                            Class<?> listenerClass, String listenerMethod) {
+        final ListenerInvocationEvent event = new ListenerInvocationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.scope = scope.name();
+        event.topic = topic;
+        event.payloadType = payloadType;
+        event.listenerClass = listenerClass;
+        event.listenerMethod = listenerMethod;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void listenerInvocationFinished(Object context) {
+        if (context != null) {
+            ((ListenerInvocationEvent) context).commit();
+        }
+    }
+}
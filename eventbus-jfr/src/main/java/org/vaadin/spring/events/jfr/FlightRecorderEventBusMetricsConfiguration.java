@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.jfr;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration that emits Java Flight Recorder events for the event buses. It is imported automatically by
+ * {@link org.vaadin.spring.events.config.EventBusConfiguration} when this module is on the classpath and the
+ * {@value org.vaadin.spring.events.config.EventBusConfiguration#FLIGHT_RECORDER_METRICS_PROPERTY} property is
+ * {@code true}.
+ */
+@Configuration
+public class FlightRecorderEventBusMetricsConfiguration {
+
+    @Bean
+    FlightRecorderEventBusMetrics flightRecorderEventBusMetrics() {
+        return new FlightRecorderEventBusMetrics();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for the invocation of a single listener. Only invocations that take longer than the
+ * threshold are recorded, 10 ms by default. The stack trace is not recorded, since it would only show the event bus.
+ */
+@Name(ListenerInvocationEvent.NAME)
+@Label("Event Bus Listener Invocation")
+@Category({"Vaadin", "Event Bus"})
+@Description("Invocation of an event bus listener")
+@Threshold("10 ms")
+@StackTrace(false)
+public final class ListenerInvocationEvent extends Event {
+
+    public static final String NAME = "org.vaadin.spring.events.ListenerInvocation";
+
+    @Label("Scope")
+    String scope;
+
+    @Label("Topic")
+    String topic;
+
+    @Label("Payload Type")
+    Class<?> payloadType;
+
+    @Label("Listener Class")
+    Class<?> listenerClass;
+
+    @Label("Listener Method")
+    String listenerMethod;
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBusListener;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test case for {@link org.vaadin.spring.events.jfr.FlightRecorderEventBusMetrics}.
+ */
+public class FlightRecorderEventBusMetricsTest {
+
+    public static class SlowListener implements EventBusListener<String> {
+
+        @Override
+        public void onEvent(Event<String> event) {
+            if (event.getPayload().equals("slow")) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOnlySlowDispatchesAreRecorded() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        eventBus.setMetrics(new FlightRecorderEventBusMetrics());
+        eventBus.subscribe(new SlowListener());
+        // Loads the classes of the dispatch, so that the first recorded dispatch is fast
+        eventBus.publish("news", this, "fast");
+        Path file = Files.createTempFile("eventbus", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable(EventDispatchEvent.NAME).withThreshold(Duration.ofMillis(20));
+                recording.enable(ListenerInvocationEvent.NAME).withThreshold(Duration.ofMillis(20));
+                recording.start();
+                eventBus.publish("news", this, "fast");
+                eventBus.publish("news", this, "slow");
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().startsWith("org.vaadin.spring.events."))
+                .collect(Collectors.toList());
+
+            assertEquals(2, events.size());
+            RecordedEvent invocation = events.stream()
+                .filter(e -> e.getEventType().getName().equals(ListenerInvocationEvent.NAME)).findFirst().get();
+            assertEquals("APPLICATION", invocation.getString("scope"));
+            assertEquals("news", invocation.getString("topic"));
+            assertEquals(String.class.getName(), invocation.getClass("payloadType").getName());
+            assertEquals(SlowListener.class.getName(), invocation.getClass("listenerClass").getName());
+            assertEquals("onEvent", invocation.getString("listenerMethod"));
+            assertTrue(invocation.getDuration().toMillis() >= 20);
+            RecordedEvent dispatch = events.stream()
+                .filter(e -> e.getEventType().getName().equals(EventDispatchEvent.NAME)).findFirst().get();
+            assertEquals(1, dispatch.getInt("listenerCount"));
+            assertEquals(false, dispatch.getBoolean("propagated"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.micrometer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.vaadin.spring.events.EventBusMetrics;
+import org.vaadin.spring.events.EventScope;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link EventBusMetrics} that records the metrics of the event buses with Micrometer:
+ * <ul>
+ * <li>{@value #EVENTS_PUBLISHED}: counter of published events, tagged by scope, topic and payload type.</li>
+ * <li>{@value #EVENTS_DISPATCH}: timer of the dispatch of events to the listeners of an event bus, tagged by scope,
+ * topic, payload type and whether the event was propagated from a parent event bus.</li>
+ * <li>{@value #EVENTS_LISTENERS}: distribution of the number of listeners that received an event, tagged by scope,
+ * topic, payload type and propagation.</li>
+ * <li>{@value #BATCHES_DISPATCH}: timer of the dispatch of batches of events, tagged by scope and propagation.</li>
+ * <li>{@value #BATCHES_SIZE}: distribution of the number of events in a batch, tagged by scope and propagation.</li>
+ * <li>{@value #LISTENERS}: gauge of the number of subscribed listeners, tagged by scope.</li>
+ * </ul>
+ * The meters are created when they are first recorded, in a {@link CompositeMeterRegistry} of their own to which the
+ * registries that the metrics are {@link #bindTo(MeterRegistry) bound to} are added. The gauges of the listeners are
+ * registered in every bound registry directly. Topics that are generated at runtime, such as topics that
+ * contain ids, can make the number of meters grow without bound; such applications should disable the topic tag.
+ */
+public class MicrometerEventBusMetrics implements EventBusMetrics, MeterBinder {
+
+    public static final String EVENTS_PUBLISHED = "vaadin.eventbus.events.published";
+
+    public static final String EVENTS_DISPATCH = "vaadin.eventbus.events.dispatch";
+
+    public static final String EVENTS_LISTENERS = "vaadin.eventbus.events.listeners";
+
+    public static final String BATCHES_DISPATCH = "vaadin.eventbus.batches.dispatch";
+
+    public static final String BATCHES_SIZE = "vaadin.eventbus.batches.size";
+
+    public static final String LISTENERS = "vaadin.eventbus.listeners";
+
+    private static final String NO_TOPIC = "none";
+
+    private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+
+    private final boolean topicTagged;
+
+    private final Map<EventKey, Counter> publishCounters = new ConcurrentHashMap<EventKey, Counter>();
+
+    private final Map<EventKey, DispatchMeters> dispatchMeters = new ConcurrentHashMap<EventKey, DispatchMeters>();
+
+    private final AtomicReferenceArray<BatchMeters> batchMeters =
+        new AtomicReferenceArray<BatchMeters>(EventScope.values().length * 2);
+
+    private final Map<EventScope, AtomicLong> listenerCounts = new EnumMap<EventScope, AtomicLong>(EventScope.class);
+
+    /**
+     * Creates metrics that tag the events with their topic.
+     */
+    public MicrometerEventBusMetrics() {
+        this(true);
+    }
+
+    /**
+     * @param topicTagged true to tag the events with their topic, false to omit the topic tag.
+     */
+    public MicrometerEventBusMetrics(boolean topicTagged) {
+        this.topicTagged = topicTagged;
+        for (EventScope scope : EventScope.values()) {
+            listenerCounts.put(scope, new AtomicLong());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry.add(registry);
+        for (Map.Entry<EventScope, AtomicLong> listenerCount : listenerCounts.entrySet()) {
+            Gauge.builder(LISTENERS, listenerCount.getValue(), AtomicLong::doubleValue)
+                .description("The number of listeners subscribed to the event buses")
+                .tags(Tags.of("scope", listenerCount.getKey().name()))
+                .register(registry);
+        }
+    }
+
+    @Override
+    public void eventPublished(EventScope scope, String topic, Class<?> payloadType) {
+        final EventKey key = new EventKey(scope, topicTagged ? topic : null, payloadType, false);
+        Counter counter = publishCounters.get(key);
+        if (counter == null) {
+            counter = publishCounters.computeIfAbsent(key, k -> Counter.builder(EVENTS_PUBLISHED)
+                .description("The number of events published on the event buses")
+                .tags(k.getPublishTags())
+                .register(registry));
+        }
+        counter.increment();
+    }
+
+    @Override
+    public void eventDispatched(EventScope scope, String topic, Class<?> payloadType, boolean propagated,
+                                int listenerCount, long durationNanos) {
+        final EventKey key = new EventKey(scope, topicTagged ? topic : null, payloadType, propagated);
+        DispatchMeters meters = dispatchMeters.get(key);
+        if (meters == null) {
+            meters = dispatchMeters.computeIfAbsent(key, DispatchMeters::new);
+        }
+        meters.duration.record(durationNanos, TimeUnit.NANOSECONDS);
+        meters.listeners.record(listenerCount);
+    }
+
+    @Override
+    public void batchDispatched(EventScope scope, int eventCount, boolean propagated, int deliveryCount,
+                                long durationNanos) {
+        final int index = scope.ordinal() * 2 + (propagated ? 1 : 0);
+        BatchMeters meters = batchMeters.get(index);
+        if (meters == null) {
+            // The registry returns the meters registered by a concurrent call, so both calls record in the same meters
+            meters = new BatchMeters(scope, propagated);
+            batchMeters.set(index, meters);
+        }
+        meters.duration.record(durationNanos, TimeUnit.NANOSECONDS);
+        meters.size.record(eventCount);
+    }
+
+    @Override
+    public void listenerCountChanged(EventScope scope, int delta) {
+        listenerCounts.get(scope).addAndGet(delta);
+    }
+
+    private final class DispatchMeters {
+
+        final Timer duration;
+        final DistributionSummary listeners;
+
+        DispatchMeters(EventKey key) {
+            duration = Timer.builder(EVENTS_DISPATCH)
+                .description("The time it takes to dispatch an event to the listeners of an event bus")
+                .tags(key.getDispatchTags())
+                .register(registry);
+            listeners = DistributionSummary.builder(EVENTS_LISTENERS)
+                .description("The number of listeners that receive an event")
+                .baseUnit("listeners")
+                .tags(key.getDispatchTags())
+                .register(registry);
+        }
+    }
+
+    private final class BatchMeters {
+
+        final Timer duration;
+        final DistributionSummary size;
+
+        BatchMeters(EventScope scope, boolean propagated) {
+            final Tags tags = Tags.of("scope", scope.name(), "propagated", Boolean.toString(propagated));
+            duration = Timer.builder(BATCHES_DISPATCH)
+                .description("The time it takes to dispatch a batch of events to the listeners of an event bus")
+                .tags(tags)
+                .register(registry);
+            size = DistributionSummary.builder(BATCHES_SIZE)
+                .description("The number of events in a batch")
+                .baseUnit("events")
+                .tags(tags)
+                .register(registry);
+        }
+    }
+
+    /**
+     * Key of the meters of the events with a particular scope, topic, payload type and propagation.
+     */
+    private static final class EventKey {
+
+        private final EventScope scope;
+        private final String topic;
+        private final Class<?> payloadType;
+        private final boolean propagated;
+
+        EventKey(EventScope scope, String topic, Class<?> payloadType, boolean propagated) {
+            this.scope = scope;
+            this.topic = topic;
+            this.payloadType = payloadType;
+            this.propagated = propagated;
+        }
+
+        Tags getPublishTags() {
+            final Tags tags = Tags.of("scope", scope.name(), "payload", payloadType.getName());
+            return topic == null ? tags : tags.and("topic", topic.isEmpty() ? NO_TOPIC : topic);
+        }
+
+        Tags getDispatchTags() {
+            return getPublishTags().and("propagated", Boolean.toString(propagated));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EventKey)) {
+                return false;
+            }
+            final EventKey other = (EventKey) obj;
+            return scope == other.scope && payloadType == other.payloadType && propagated == other.propagated
+                && Objects.equals(topic, other.topic);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scope, topic, payloadType, propagated);
+        }
+    }
+}
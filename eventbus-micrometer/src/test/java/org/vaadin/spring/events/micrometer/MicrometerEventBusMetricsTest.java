@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.micrometer;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBusListener;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test case for {@link org.vaadin.spring.events.micrometer.MicrometerEventBusMetrics}.
+ */
+public class MicrometerEventBusMetricsTest {
+
+    @Test
+    public void testMetricsAreRecordedInBoundRegistry() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerEventBusMetrics metrics = new MicrometerEventBusMetrics();
+        metrics.bindTo(registry);
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        eventBus.setMetrics(metrics);
+        eventBus.subscribe(new EventBusListener<String>() {
+            @Override
+            public void onEvent(Event<String> event) {
+            }
+        });
+
+        eventBus.publish(this, "Hello");
+        eventBus.publish("news", this, "World");
+        eventBus.publishAll(this, Arrays.asList("a", "b", "c"));
+
+        assertEquals(1.0, registry.get(MicrometerEventBusMetrics.EVENTS_PUBLISHED)
+            .tags("scope", "APPLICATION", "topic", "news", "payload", "java.lang.String").counter().count());
+        assertEquals(4.0, registry.get(MicrometerEventBusMetrics.EVENTS_PUBLISHED).tag("topic", "none")
+            .counter().count());
+        assertEquals(2, registry.get(MicrometerEventBusMetrics.EVENTS_DISPATCH).timers().stream()
+            .mapToLong(Timer::count).sum());
+        assertEquals(1, registry.get(MicrometerEventBusMetrics.BATCHES_DISPATCH).tag("propagated", "false")
+            .timer().count());
+        assertEquals(3.0, registry.get(MicrometerEventBusMetrics.BATCHES_SIZE).tag("propagated", "false")
+            .summary().totalAmount());
+        assertEquals(1.0, registry.get(MicrometerEventBusMetrics.LISTENERS).tag("scope", "APPLICATION")
+            .gauge().value());
+    }
+
+    @Test
+    public void testTopicTagCanBeOmitted() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerEventBusMetrics metrics = new MicrometerEventBusMetrics(false);
+        metrics.bindTo(registry);
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        eventBus.setMetrics(metrics);
+
+        eventBus.publish("news", this, "Hello");
+        eventBus.publish("weather", this, "World");
+
+        assertEquals(2.0, registry.get(MicrometerEventBusMetrics.EVENTS_PUBLISHED).counter().count());
+    }
+}
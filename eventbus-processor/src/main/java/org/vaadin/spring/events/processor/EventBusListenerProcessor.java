@@ -0,0 +1,404 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor that generates a listener adapter for every concrete class that has methods annotated with
+ * {@code @EventBusListenerMethod}, either declared by the class itself or inherited from its superclasses. The
+ * adapter extends {@code org.vaadin.spring.events.internal.GeneratedListenerAdapter}, carries the payload type,
+ * scope, sources, filter and topic of every listener method, and calls the methods directly. The adapters are
+ * registered in {@code META-INF/services}, where the event bus looks them up instead of scanning the listener classes
+ * and invoking their methods through reflection. This also makes the listeners work in a GraalVM native image without
+ * any reflection configuration.
+ * <p>
+ * The adapter is generated into the package of the listener class, so it can only refer to classes and call methods
+ * that are accessible from that package. Private listener methods are still looked up and invoked through reflection.
+ * If the adapter would have to refer to an inaccessible class, or a listener method does not have a valid signature,
+ * no adapter is generated for the class and the event bus falls back to reflection, which also reports invalid
+ * listener methods when the listener is subscribed.
+ */
+public class EventBusListenerProcessor extends AbstractProcessor {
+
+    static final String ADAPTER_SUFFIX = "_EventBusAdapter";
+
+    private static final String LISTENER_METHOD = "org.vaadin.spring.events.annotation.EventBusListenerMethod";
+    private static final String LISTENER_TOPIC = "org.vaadin.spring.events.annotation.EventBusListenerTopic";
+    private static final String ADAPTER = "org.vaadin.spring.events.internal.GeneratedListenerAdapter";
+    private static final String EVENT = "org.vaadin.spring.events.Event";
+    private static final String EVENT_SCOPE = "org.vaadin.spring.events.EventScope";
+    private static final String NO_FILTER = "org.vaadin.spring.events.NoEventBusListenerMethodFilter";
+    private static final String SERVICE_FILE = "META-INF/services/" + ADAPTER;
+
+    private final Set<String> adapters = new TreeSet<String>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        // Subclasses of listener classes have to be found as well, even if they have no annotations of their own
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServiceFile();
+        } else {
+            for (Element element : roundEnv.getRootElements()) {
+                visit(element);
+            }
+        }
+        return false;
+    }
+
+    private void visit(Element element) {
+        if (element instanceof TypeElement) {
+            final TypeElement type = (TypeElement) element;
+            if ((type.getKind() == ElementKind.CLASS || type.getKind() == ElementKind.ENUM)
+                && !type.getModifiers().contains(Modifier.ABSTRACT)) {
+                final List<ExecutableElement> methods = findListenerMethods(type);
+                if (!methods.isEmpty()) {
+                    generateAdapter(type, methods);
+                }
+            }
+            for (Element enclosed : type.getEnclosedElements()) {
+                visit(enclosed);
+            }
+        }
+    }
+
+    /**
+     * Finds the listener methods in the same order as the event bus does at runtime: first the methods of the class
+     * itself, then the methods of its superclasses.
+     */
+    private List<ExecutableElement> findListenerMethods(TypeElement type) {
+        final List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+        TypeElement visited = type;
+        while (visited != null && !visited.getQualifiedName().contentEquals(Object.class.getName())) {
+            for (Element member : visited.getEnclosedElements()) {
+                if (member.getKind() == ElementKind.METHOD && getAnnotation(member, LISTENER_METHOD) != null) {
+                    methods.add((ExecutableElement) member);
+                }
+            }
+            final TypeMirror superclass = visited.getSuperclass();
+            visited = superclass.getKind() == TypeKind.DECLARED
+                ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return methods;
+    }
+
+    private void generateAdapter(TypeElement type, List<ExecutableElement> methods) {
+        final Elements elements = processingEnv.getElementUtils();
+        final PackageElement packageElement = elements.getPackageOf(type);
+        final String packageName = packageElement.getQualifiedName().toString();
+        final String binaryName = elements.getBinaryName(type).toString();
+        final String adapterName = binaryName.substring(packageName.isEmpty() ? 0 : packageName.length() + 1)
+            .replace('$', '_') + ADAPTER_SUFFIX;
+        final String qualifiedAdapterName = packageName.isEmpty() ? adapterName : packageName + "." + adapterName;
+
+        final StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+            .append(" * Listener adapter for {@link ").append(type.getQualifiedName()).append("}, generated by {@link ")
+            .append(getClass().getName()).append("}.\n")
+            .append(" */\n")
+            .append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+            .append("public final class ").append(adapterName).append(" extends ").append(ADAPTER).append(" {\n\n")
+            .append("    public ").append(adapterName).append("() {\n")
+            .append("        super(").append(classLiteral(type.asType())).append(");\n");
+        try {
+            if (!isAccessible(type, packageElement)) {
+                throw new UnsupportedListenerException("the class is not accessible from its package");
+            }
+            for (ExecutableElement method : methods) {
+                appendMethod(source, method, packageElement);
+            }
+        } catch (UnsupportedListenerException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "No event bus listener adapter generated for "
+                + type.getQualifiedName() + " because " + e.getMessage() + ", falling back to reflection", type);
+            return;
+        }
+        source.append("    }\n")
+            .append("}\n");
+
+        try {
+            final JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedAdapterName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+            adapters.add(qualifiedAdapterName);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                "Could not write event bus listener adapter " + qualifiedAdapterName + ": " + e.getMessage(), type);
+        }
+    }
+
+    private void appendMethod(StringBuilder source, ExecutableElement method, PackageElement packageElement)
+        throws UnsupportedListenerException {
+        final Types types = processingEnv.getTypeUtils();
+        final Elements elements = processingEnv.getElementUtils();
+        final TypeElement declaringType = (TypeElement) method.getEnclosingElement();
+        final String name = method.getSimpleName().toString();
+        if (method.getParameters().size() != 1) {
+            throw new UnsupportedListenerException("listener method " + name + " does not have exactly one parameter");
+        }
+        final AnnotationMirror annotation = getAnnotation(method, LISTENER_METHOD);
+        final boolean batchMethod = (Boolean) getValue(annotation, "batch");
+        final TypeMirror parameterType = method.getParameters().get(0).asType();
+
+        TypeMirror argumentType = parameterType;
+        if (batchMethod) {
+            if (!isDeclaredType(parameterType, List.class.getName())
+                || ((DeclaredType) parameterType).getTypeArguments().size() != 1) {
+                throw new UnsupportedListenerException("batch listener method " + name + " does not take a List");
+            }
+            argumentType = ((DeclaredType) parameterType).getTypeArguments().get(0);
+        }
+        final TypeMirror payloadType;
+        final boolean payloadMethod;
+        if (isDeclaredType(argumentType, EVENT)) {
+            final List<? extends TypeMirror> typeArguments = ((DeclaredType) argumentType).getTypeArguments();
+            if (typeArguments.size() != 1 || !isClassType(typeArguments.get(0))) {
+                throw new UnsupportedListenerException("the payload type of listener method " + name
+                    + " cannot be resolved");
+            }
+            payloadType = typeArguments.get(0);
+            payloadMethod = false;
+        } else {
+            if (batchMethod && !isClassType(argumentType)) {
+                throw new UnsupportedListenerException("the payload type of listener method " + name
+                    + " cannot be resolved");
+            }
+            payloadType = argumentType;
+            payloadMethod = true;
+        }
+
+        final List<String> sources = new ArrayList<String>();
+        for (Object sourceValue : (List<?>) getValue(annotation, "source")) {
+            sources.add(classLiteral(requireAccessible((TypeMirror) ((AnnotationValue) sourceValue).getValue(),
+                packageElement)));
+        }
+        final TypeMirror filterType = (TypeMirror) getValue(annotation, "filter");
+        final String filter = isDeclaredType(filterType, NO_FILTER) ? "null"
+            : instantiation(filterType, packageElement);
+        final AnnotationMirror topicAnnotation = getAnnotation(method, LISTENER_TOPIC);
+        final String topicFilter = topicAnnotation == null ? "null"
+            : instantiation((TypeMirror) getValue(topicAnnotation, "filter"), packageElement);
+        final String topic = topicAnnotation == null ? "null"
+            : elements.getConstantExpression(getValue(topicAnnotation, "topic"));
+
+        requireAccessible(declaringType.asType(), packageElement);
+        requireAccessible(parameterType, packageElement);
+        requireAccessible(payloadType, packageElement);
+        final String invoker;
+        if (isAccessible(method, packageElement)) {
+            final String argument = "(" + typeName(parameterType.getKind().isPrimitive()
+                ? types.boxedClass(types.getPrimitiveType(parameterType.getKind())).asType() : parameterType)
+                + ") argument";
+            final String receiver = method.getModifiers().contains(Modifier.STATIC)
+                ? typeName(declaringType.asType()) : "((" + typeName(declaringType.asType()) + ") target)";
+            invoker = "(target, argument) -> " + receiver + "." + name + "(" + argument + ")";
+        } else {
+            invoker = "null";
+        }
+
+        source.append("        addMethod(").append(classLiteral(declaringType.asType())).append(", \"").append(name)
+            .append("\", ").append(classLiteral(parameterType)).append(", ").append(classLiteral(payloadType))
+            .append(", ").append(payloadMethod).append(", ").append(batchMethod).append(",\n")
+            .append("            ").append(EVENT_SCOPE).append('.').append(getValue(annotation, "scope"))
+            .append(", new Class<?>[]{").append(String.join(", ", sources)).append("}, ").append(filter)
+            .append(", ").append(topicFilter).append(", ").append(topic).append(",\n")
+            .append("            ").append(invoker).append(");\n");
+    }
+
+    private String instantiation(TypeMirror type, PackageElement packageElement) throws UnsupportedListenerException {
+        final TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        if (!isAccessible(element, packageElement) || element.getModifiers().contains(Modifier.ABSTRACT)
+            || (element.getNestingKind().isNested() && !element.getModifiers().contains(Modifier.STATIC))) {
+            throw new UnsupportedListenerException(element.getQualifiedName() + " cannot be instantiated");
+        }
+        for (Element member : element.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.CONSTRUCTOR && ((ExecutableElement) member).getParameters().isEmpty()
+                && isAccessible(member, packageElement)) {
+                return "new " + typeName(type) + "()";
+            }
+        }
+        throw new UnsupportedListenerException(element.getQualifiedName() + " has no accessible default constructor");
+    }
+
+    private TypeMirror requireAccessible(TypeMirror type, PackageElement packageElement)
+        throws UnsupportedListenerException {
+        final TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+        if (erasure.getKind() == TypeKind.ARRAY) {
+            requireAccessible(((ArrayType) erasure).getComponentType(), packageElement);
+        } else if (erasure.getKind() == TypeKind.DECLARED
+            && !isAccessible(((DeclaredType) erasure).asElement(), packageElement)) {
+            throw new UnsupportedListenerException(erasure + " is not accessible from its package");
+        }
+        return type;
+    }
+
+    /**
+     * Checks whether the specified element, and all the types that enclose it, are accessible from code in the
+     * specified package.
+     */
+    private boolean isAccessible(Element element, PackageElement packageElement) {
+        final boolean samePackage = processingEnv.getElementUtils().getPackageOf(element).equals(packageElement);
+        for (Element e = element; e != null && e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (!(e instanceof TypeElement) && e != element) {
+                // Local classes cannot be referred to
+                return false;
+            }
+            final Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || !(modifiers.contains(Modifier.PUBLIC) || samePackage)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDeclaredType(TypeMirror type, String qualifiedName) {
+        return type.getKind() == TypeKind.DECLARED
+            && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals(qualifiedName);
+    }
+
+    /**
+     * Checks whether the specified type argument is a class or a parameterized type at runtime, as opposed to a type
+     * variable or a wildcard.
+     */
+    private boolean isClassType(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED || type.getKind() == TypeKind.ARRAY;
+    }
+
+    private String typeName(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private String classLiteral(TypeMirror type) {
+        return typeName(type) + ".class";
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, String annotationType) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+                .contentEquals(annotationType)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    private Object getValue(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+            : processingEnv.getElementUtils().getElementValuesWithDefaults(annotation).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                final Object value = entry.getValue().getValue();
+                return value instanceof VariableElement ? ((VariableElement) value).getSimpleName().toString() : value;
+            }
+        }
+        throw new IllegalArgumentException("Annotation " + annotation + " has no value " + name);
+    }
+
+    /**
+     * Registers the generated adapters as services. Adapters registered by earlier, incremental compilations are kept.
+     */
+    private void writeServiceFile() {
+        if (adapters.isEmpty()) {
+            return;
+        }
+        final Filer filer = processingEnv.getFiler();
+        final Set<String> services = new TreeSet<String>(adapters);
+        try {
+            final FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        services.add(line.trim());
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // There is no service file yet
+        }
+        try {
+            final FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (String service : services) {
+                    writer.write(service);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                "Could not write " + SERVICE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Thrown when no adapter can be generated for a listener class.
+     */
+    private static final class UnsupportedListenerException extends Exception {
+
+        private static final long serialVersionUID = 5301784262148745296L;
+
+        UnsupportedListenerException(String message) {
+            super(message);
+        }
+    }
+}
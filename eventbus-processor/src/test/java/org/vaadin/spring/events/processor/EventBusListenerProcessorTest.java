@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test case for {@link EventBusListenerProcessor}.
+ */
+public class EventBusListenerProcessorTest {
+
+    private static final String LISTENER_SOURCE = String.join("\n",
+        "package sample;",
+        "",
+        "import org.vaadin.spring.events.Event;",
+        "import org.vaadin.spring.events.HierachyTopicFilter;",
+        "import org.vaadin.spring.events.annotation.EventBusListenerMethod;",
+        "import org.vaadin.spring.events.annotation.EventBusListenerTopic;",
+        "",
+        "import java.util.ArrayList;",
+        "import java.util.List;",
+        "",
+        "public class SampleListener {",
+        "",
+        "    public final List<String> received = new ArrayList<String>();",
+        "",
+        "    @EventBusListenerMethod",
+        "    void onPayload(String payload) {",
+        "        received.add(caller() + \":\" + payload);",
+        "    }",
+        "",
+        "    @EventBusListenerMethod",
+        "    @EventBusListenerTopic(topic = \"news\", filter = HierachyTopicFilter.class)",
+        "    public void onEvent(Event<Integer> event) {",
+        "        received.add(caller() + \":\" + event.getTopic() + \":\" + event.getPayload());",
+        "    }",
+        "",
+        "    @EventBusListenerMethod(batch = true)",
+        "    private void onPrivateBatch(List<Long> payloads) {",
+        "        received.add(caller() + \":\" + payloads);",
+        "    }",
+        "",
+        "    private static String caller() {",
+        "        for (StackTraceElement element : new Throwable().getStackTrace()) {",
+        "            if (element.getClassName().endsWith(\"_EventBusAdapter\")) {",
+        "                return \"adapter\";",
+        "            }",
+        "        }",
+        "        return \"reflection\";",
+        "    }",
+        "",
+        "    public static class Subclass extends SampleListener {",
+        "    }",
+        "",
+        "    public static class InvalidListener {",
+        "",
+        "        @EventBusListenerMethod",
+        "        void tooManyParameters(String parameter1, Integer parameter2) {",
+        "        }",
+        "    }",
+        "}",
+        "");
+
+    private static Path outputDirectory;
+    private static ClassLoader classLoader;
+
+    @BeforeAll
+    public static void compile() throws IOException {
+        final Path sourceDirectory = Files.createTempDirectory("eventbus-processor-source");
+        outputDirectory = Files.createTempDirectory("eventbus-processor-output");
+        final Path source = sourceDirectory.resolve("sample/SampleListener.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, LISTENER_SOURCE.getBytes(StandardCharsets.UTF_8));
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+        final int result = compiler.run(null, diagnostics, diagnostics,
+            "-classpath", System.getProperty("java.class.path"),
+            "-processor", EventBusListenerProcessor.class.getName(),
+            "-d", outputDirectory.toString(),
+            source.toString());
+        assertEquals(0, result, diagnostics.toString());
+        classLoader = new URLClassLoader(new URL[]{outputDirectory.toUri().toURL()},
+            EventBusListenerProcessorTest.class.getClassLoader());
+    }
+
+    @Test
+    public void testAdaptersAreGeneratedAndRegistered() throws IOException {
+        assertTrue(Files.exists(outputDirectory.resolve("sample/SampleListener_EventBusAdapter.class")));
+        assertTrue(Files.exists(outputDirectory.resolve("sample/SampleListener_Subclass_EventBusAdapter.class")));
+        assertFalse(Files.exists(outputDirectory.resolve("sample/SampleListener_InvalidListener_EventBusAdapter.class")));
+
+        final List<String> services = Files.readAllLines(outputDirectory.resolve(
+            "META-INF/services/org.vaadin.spring.events.internal.GeneratedListenerAdapter"));
+        assertEquals(Arrays.asList("sample.SampleListener_EventBusAdapter",
+            "sample.SampleListener_Subclass_EventBusAdapter"), services);
+    }
+
+    @Test
+    public void testEventBusUsesGeneratedAdapter() throws Exception {
+        assertReceivedThroughAdapter(classLoader.loadClass("sample.SampleListener"));
+    }
+
+    @Test
+    public void testEventBusUsesGeneratedAdapterOfSubclass() throws Exception {
+        assertReceivedThroughAdapter(classLoader.loadClass("sample.SampleListener$Subclass"));
+    }
+
+    @Test
+    public void testInvalidListenerIsStillReportedBySubscribe() throws Exception {
+        final Object listener = classLoader.loadClass("sample.SampleListener$InvalidListener").newInstance();
+        final ScopedEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+
+        assertThrows(IllegalArgumentException.class, () -> eventBus.subscribe(listener));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertReceivedThroughAdapter(Class<?> listenerClass) throws Exception {
+        final Object listener = listenerClass.newInstance();
+        final ScopedEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        eventBus.subscribe(listener);
+
+        eventBus.publish(this, "Hello World");
+        eventBus.publish("news.sports", this, 42);
+        eventBus.publish("weather", this, 43);
+        eventBus.publishAll(this, Arrays.asList(1L, 2L));
+
+        final List<String> received = (List<String>) listenerClass.getField("received").get(listener);
+        assertEquals(Arrays.asList("adapter:Hello World", "adapter:news.sports:42", "reflection:[1, 2]"), received);
+    }
+}
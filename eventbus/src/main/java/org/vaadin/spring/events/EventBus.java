@@ -15,6 +15,11 @@
  */
 package org.vaadin.spring.events;
 
+import com.vaadin.flow.shared.Registration;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Interface defining an event bus. This event bus infrastructure complements the
  * {@link org.springframework.context.ApplicationEventPublisher} in the following ways:
@@ -98,6 +103,109 @@ public interface EventBus {
      */
     <T> void publish(EventScope scope, String topic, Object sender, T payload) throws UnsupportedOperationException;
 
+    /**
+     * Publishes the specified payload on the event bus asynchronously, using the scope of this particular event bus.
+     * The listeners are invoked by the {@link java.util.concurrent.Executor} of the event bus instead of the calling
+     * thread. A listener that throws an exception does not prevent the event from being delivered to the other
+     * listeners.
+     * <p>
+     * The default implementation publishes the event with {@link #publish(Object, Object)} from the common fork-join
+     * pool; a failing listener then prevents the delivery to the remaining listeners and the future completes
+     * exceptionally with its exception.
+     *
+     * @param sender the object that published the event, never {@code null}.
+     * @param payload the payload of the event to publish, never {@code null}.
+     * @param <T> the type of the payload.
+     * @return a future that completes when the event has been delivered to all listeners, never {@code null}. If any
+     *         listener failed, the future completes exceptionally with an {@link EventDeliveryException}.
+     * @see #publish(Object, Object)
+     */
+    default <T> CompletableFuture<Void> publishAsync(Object sender, T payload) {
+        return CompletableFuture.runAsync(() -> publish(sender, payload));
+    }
+
+    /**
+     * Same as {@link #publishAsync(Object, Object)}, but publishes the event in the specified topic.
+     *
+     * @param topic the topic of the event to publish, never {@code null}.
+     * @param sender the object that published the event, never {@code null}.
+     * @param payload the payload of the event to publish, never {@code null}.
+     * @param <T> the type of the payload.
+     * @return a future that completes when the event has been delivered to all listeners, never {@code null}.
+     * @see #publish(String, Object, Object)
+     */
+    default <T> CompletableFuture<Void> publishAsync(String topic, Object sender, T payload) {
+        return CompletableFuture.runAsync(() -> publish(topic, sender, payload));
+    }
+
+    /**
+     * Same as {@link #publishAsync(Object, Object)}, but publishes the event on the event bus, or any of its parent
+     * buses, depending on the event scope.
+     *
+     * @param scope the scope of the event, never {@code null}.
+     * @param sender the object that published the event, never {@code null}.
+     * @param payload the payload of the event to publish, never {@code null}.
+     * @param <T> the type of the payload.
+     * @return a future that completes when the event has been delivered to all listeners, never {@code null}.
+     * @throws UnsupportedOperationException if the payload could not be published with the specified scope.
+     * @see #publish(EventScope, Object, Object)
+     */
+    default <T> CompletableFuture<Void> publishAsync(EventScope scope, Object sender, T payload)
+        throws UnsupportedOperationException {
+        return CompletableFuture.runAsync(() -> publish(scope, sender, payload));
+    }
+
+    /**
+     * Same as {@link #publishAsync(Object, Object)}, but publishes the event in the specified topic on the event bus,
+     * or any of its parent buses, depending on the event scope.
+     *
+     * @param scope the scope of the event, never {@code null}.
+     * @param topic the topic of the event to publish, never {@code null}.
+     * @param sender the object that published the event, never {@code null}.
+     * @param payload the payload of the event to publish, never {@code null}.
+     * @param <T> the type of the payload.
+     * @return a future that completes when the event has been delivered to all listeners, never {@code null}.
+     * @throws UnsupportedOperationException if the payload could not be published with the specified scope.
+     * @see #publish(EventScope, String, Object, Object)
+     */
+    default <T> CompletableFuture<Void> publishAsync(EventScope scope, String topic, Object sender, T payload)
+        throws UnsupportedOperationException {
+        return CompletableFuture.runAsync(() -> publish(scope, topic, sender, payload));
+    }
+
+    /**
+     * Publishes each of the specified payloads on the event bus as a separate event, using the scope of this
+     * particular event bus. This has the same effect as calling {@link #publish(Object, Object)} for each payload,
+     * except that the listeners are only looked up once per payload type and that listeners that receive events in
+     * batches, such as {@link EventBusBatchListener}s, receive all the events they are interested in with a single
+     * call.
+     * <p>
+     * The default implementation calls {@link #publish(Object, Object)} for each payload.
+     *
+     * @param sender the object that published the events, never {@code null}.
+     * @param payloads the payloads of the events to publish, never {@code null} and must not contain {@code null}.
+     * @see #publish(Object, Object)
+     */
+    default void publishAll(Object sender, Collection<?> payloads) {
+        for (Object payload : payloads) {
+            publish(sender, payload);
+        }
+    }
+
+    /**
+     * Same as {@link #publishAll(Object, Collection)}, but publishes the events in the specified topic.
+     *
+     * @param topic the topic of the events to publish, never {@code null}.
+     * @param sender the object that published the events, never {@code null}.
+     * @param payloads the payloads of the events to publish, never {@code null} and must not contain {@code null}.
+     * @see #publish(String, Object, Object)
+     */
+    default void publishAll(String topic, Object sender, Collection<?> payloads) {
+        for (Object payload : payloads) {
+            publish(topic, sender, payload);
+        }
+    }
+
     /**
      * Gets the scope of the events published on this event bus.
      *
@@ -226,6 +334,70 @@ public interface EventBus {
      */
     void subscribeWithWeakReference(Object listener, boolean includingPropagatingEvents);
 
+    /**
+     * Same as {@link #subscribe(EventBusListener)}, but returns a registration that unsubscribes exactly this
+     * subscription when removed. The default implementation removes the listener with
+     * {@link #unsubscribe(EventBusListener)}, which also cancels any other subscriptions of the same listener.
+     *
+     * @param listener the listener to subscribe, never {@code null}.
+     * @param <T> the type of payload the listener is interested in.
+     * @return a registration that unsubscribes the listener when removed, never {@code null}.
+     */
+    default <T> Registration subscribeWithRegistration(EventBusListener<T> listener) {
+        subscribe(listener);
+        return () -> unsubscribe(listener);
+    }
+
+    /**
+     * Same as {@link #subscribe(EventBusListener, String)}, but returns a registration, see
+     * {@link #subscribeWithRegistration(EventBusListener)}.
+     */
+    default <T> Registration subscribeWithRegistration(EventBusListener<T> listener, String topic) {
+        subscribe(listener, topic);
+        return () -> unsubscribe(listener);
+    }
+
+    /**
+     * Same as {@link #subscribe(EventBusListener, boolean)}, but returns a registration, see
+     * {@link #subscribeWithRegistration(EventBusListener)}.
+     */
+    default <T> Registration subscribeWithRegistration(EventBusListener<T> listener,
+                                                       boolean includingPropagatingEvents) {
+        subscribe(listener, includingPropagatingEvents);
+        return () -> unsubscribe(listener);
+    }
+
+    /**
+     * Same as {@link #subscribe(Object)}, but returns a registration that unsubscribes exactly this subscription
+     * when removed. The default implementation removes the listener with {@link #unsubscribe(Object)}, which also
+     * cancels any other subscriptions of the same listener.
+     *
+     * @param listener the listener to subscribe, never {@code null}.
+     * @return a registration that unsubscribes the listener when removed, never {@code null}.
+     */
+    default Registration subscribeWithRegistration(Object listener) {
+        subscribe(listener);
+        return () -> unsubscribe(listener);
+    }
+
+    /**
+     * Same as {@link #subscribe(Object, String)}, but returns a registration, see
+     * {@link #subscribeWithRegistration(Object)}.
+     */
+    default Registration subscribeWithRegistration(Object listener, String topic) {
+        subscribe(listener, topic);
+        return () -> unsubscribe(listener);
+    }
+
+    /**
+     * Same as {@link #subscribe(Object, boolean)}, but returns a registration, see
+     * {@link #subscribeWithRegistration(Object)}.
+     */
+    default Registration subscribeWithRegistration(Object listener, boolean includingPropagatingEvents) {
+        subscribe(listener, includingPropagatingEvents);
+        return () -> unsubscribe(listener);
+    }
+
     /**
      * Unsubscribes the specified listener from the event bus. Also works for listeners stored with weak references.
      *
@@ -238,7 +410,8 @@ public interface EventBus {
 
     /**
      * Unsubscribes the specified listener (and all its listener methods) from the event bus. Also works for listeners
-     * stored with weak references.
+     * stored with weak references. To only cancel a single subscription, remove the {@link Registration} returned
+     * by {@link #subscribeWithRegistration(Object)} instead.
      *
      * @param listener the listener to unsubscribe, never {@code null}.
      * @see #subscribe(Object)
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events;
+
+import java.util.List;
+
+/**
+ * Extension of {@link EventBusListener} for listeners that want to receive the events published together by
+ * {@link EventBus#publishAll(String, Object, java.util.Collection)} in a single call. Events published one at a time
+ * are still passed to {@link #onEvent(Event)}.
+ *
+ * @param <T> type of event payloads that the listener is interested in receiving.
+ */
+public interface EventBusBatchListener<T> extends EventBusListener<T> {
+
+    /**
+     * Called when a batch of events has been received.
+     *
+     * @param events the events in the order they were published, never {@code null} nor empty.
+     */
+    void onEvents(List<Event<T>> events);
+}
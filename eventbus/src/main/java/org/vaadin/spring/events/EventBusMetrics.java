@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events;
+
+/**
+ * Service provider interface for recording metrics of event buses. An implementation can be set on an event bus with
+ * {@link org.vaadin.spring.events.internal.ScopedEventBus#setMetrics(EventBusMetrics)}; when the application context
+ * contains a bean of this type, {@link org.vaadin.spring.events.config.EventBusConfiguration} sets it on all event
+ * buses. Event buses without metrics do not measure anything.
+ * <p>
+ * The methods are invoked by the threads that publish the events and subscribe the listeners, partly while holding
+ * the locks of the event buses, so they must return quickly and must not throw exceptions. All methods do nothing by
+ * default.
+ * <p>
+ * Implementations that need to measure the dispatch of an event or the invocation of a listener themselves, for
+ * example to emit profiling events with their own clock, can do so with the {@code ...Started} and
+ * {@code ...Finished} methods. The object returned by a {@code ...Started} method is passed to the matching
+ * {@code ...Finished} method, which is called by the same thread.
+ */
+public interface EventBusMetrics {
+
+    /**
+     * Records that an event was published on an event bus. Events that propagate from a parent event bus to its
+     * children are only recorded once, on the event bus they were published on.
+     *
+     * @param scope       the scope of the event bus, never {@code null}.
+     * @param topic       the topic of the event.
+     * @param payloadType the class of the payload of the event, never {@code null}.
+     */
+    default void eventPublished(EventScope scope, String topic, Class<?> payloadType) {
+    }
+
+    /**
+     * Records that an event was dispatched to the listeners of an event bus. This is recorded separately for every
+     * event bus that the event propagates to; the duration does not include the propagation to child event buses.
+     *
+     * @param scope         the scope of the event bus that dispatched the event, never {@code null}.
+     * @param topic         the topic of the event.
+     * @param payloadType   the class of the payload of the event, never {@code null}.
+     * @param propagated    true if the event was published on a parent event bus, false if it was published on this
+     *                      event bus.
+     * @param listenerCount the number of listeners that received the event.
+     * @param durationNanos the time it took to dispatch the event to the listeners, in nanoseconds.
+     */
+    default void eventDispatched(EventScope scope, String topic, Class<?> payloadType, boolean propagated,
+                                 int listenerCount, long durationNanos) {
+    }
+
+    /**
+     * Called before an event is dispatched to the listeners of an event bus.
+     *
+     * @param scope       the scope of the event bus that dispatches the event, never {@code null}.
+     * @param topic       the topic of the event.
+     * @param payloadType the class of the payload of the event, never {@code null}.
+     * @param propagated  true if the event was published on a parent event bus, false if it was published on this
+     *                    event bus.
+     * @return an object to pass to {@link #dispatchFinished(Object, int)}, may be {@code null}.
+     */
+    default Object dispatchStarted(EventScope scope, String topic, Class<?> payloadType, boolean propagated) {
+        return null;
+    }
+
+    /**
+     * Called after an event has been dispatched to the listeners of an event bus, right after
+     * {@link #eventDispatched(EventScope, String, Class, boolean, int, long)}, or after a listener has aborted the
+     * dispatch by throwing an exception.
+     *
+     * @param context       the object returned by {@link #dispatchStarted(EventScope, String, Class, boolean)}.
+     * @param listenerCount the number of listeners that received the event, or 0 if the dispatch was aborted by an
+     *                      exception.
+     */
+    default void dispatchFinished(Object context, int listenerCount) {
+    }
+
+    /**
+     * Called before a listener that was subscribed to an event bus is invoked with an event or, for batch listeners,
+     * a batch of events. Listeners that receive their events through a queue are invoked by the thread that drains
+     * the queue.
+     *
+     * @param scope          the scope of the event bus that the listener was subscribed to, never {@code null}.
+     * @param topic          the topic of the event, or of the first event of a batch.
+     * @param payloadType    the class of the payload of the event or, for batch listeners, the payload type of the
+     *                       listener, never {@code null}.
+     * @param listenerClass  the class of the listener object, never {@code null}.
+     * @param listenerMethod the name of the listener method, never {@code null}.
+     * @return an object to pass to {@link #listenerInvocationFinished(Object)}, may be {@code null}.
+     */
+    default Object listenerInvocationStarted(EventScope scope, String topic, Class<?> payloadType,
+                                             Class<?> listenerClass, String listenerMethod) {
+        return null;
+    }
+
+    /**
+     * Called after a listener has returned or thrown an exception.
+     *
+     * @param context the object returned by
+     *                {@link #listenerInvocationStarted(EventScope, String, Class, Class, String)}.
+     */
+    default void listenerInvocationFinished(Object context) {
+    }
+
+    /**
+     * Records that a batch of events, published with {@link EventBus#publishAll(Object, java.util.Collection)}, was
+     * dispatched to the listeners of an event bus.
+     *
+     * @param scope         the scope of the event bus that dispatched the events, never {@code null}.
+     * @param eventCount    the number of events in the batch.
+     * @param propagated    true if the events were published on a parent event bus, false if they were published on
+     *                      this event bus.
+     * @param deliveryCount the number of times a listener received an event of the batch.
+     * @param durationNanos the time it took to dispatch the events to the listeners, in nanoseconds.
+     */
+    default void batchDispatched(EventScope scope, int eventCount, boolean propagated, int deliveryCount,
+                                 long durationNanos) {
+    }
+
+    /**
+     * Records that the number of listeners subscribed to an event bus changed. A listener object with multiple
+     * listener methods counts as one listener per method.
+     *
+     * @param scope the scope of the event bus, never {@code null}.
+     * @param delta the number of listeners that were added, negative if listeners were removed.
+     */
+    default void listenerCountChanged(EventScope scope, int delta) {
+    }
+}
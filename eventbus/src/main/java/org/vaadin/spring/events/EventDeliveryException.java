@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exception that reports the listeners that failed to handle an event that was published asynchronously. The event
+ * is still delivered to all the other listeners; the exceptions thrown by the failing listeners are available from
+ * {@link #getFailures()} and are also added as {@link #getSuppressed() suppressed exceptions}.
+ *
+ * @see EventBus#publishAsync(String, Object, Object)
+ */
+public class EventDeliveryException extends RuntimeException {
+
+    private static final long serialVersionUID = -2950447245391618263L;
+
+    private final Event<?> event;
+
+    private final List<Throwable> failures;
+
+    public EventDeliveryException(Event<?> event, List<? extends Throwable> failures) {
+        super(String.format("%d listener(s) failed to handle event %s", failures.size(), event));
+        this.event = event;
+        this.failures = Collections.unmodifiableList(new ArrayList<Throwable>(failures));
+        for (Throwable failure : failures) {
+            addSuppressed(failure);
+        }
+    }
+
+    /**
+     * Gets the event that the listeners failed to handle.
+     *
+     * @return the event, never {@code null}.
+     */
+    public Event<?> getEvent() {
+        return event;
+    }
+
+    /**
+     * Gets the exceptions thrown by the failing listeners, in the order the listeners were invoked.
+     *
+     * @return an unmodifiable list of exceptions, never {@code null} nor empty.
+     */
+    public List<Throwable> getFailures() {
+        return failures;
+    }
+}
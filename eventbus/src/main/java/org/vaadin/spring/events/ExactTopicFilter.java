@@ -18,6 +18,8 @@ package org.vaadin.spring.events;
 /**
  * An implementation of {@link org.vaadin.spring.events.TopicFilter}
  * which validates the topics with an exact match (equals).
+ * The event bus recognizes this filter and looks up the listeners that use it by topic, so publishing an event
+ * only visits the listeners of that topic.
  * 
  * @author Marco Luthardt (marco.luthardt@iandme.net)
  */
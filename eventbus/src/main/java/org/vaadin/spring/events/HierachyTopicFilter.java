@@ -26,6 +26,8 @@ package org.vaadin.spring.events;
  *   <li>no match: <code>eventTopic = "foo"</code> and <code>listenerTopic = "foo.bar"</code></li>
  *   <li>no match: <code>eventTopic = "foo.bar"</code> and <code>listenerTopic = "foo.not"</code></li>
  * </ol>
+ * The event bus recognizes this filter and keeps the listeners that use it in a prefix trie, so publishing an event
+ * only visits the listeners whose topic is a prefix of the event topic.
  * 
  * @author Marco Luthardt (marco.luthardt@iandme.net)
  */
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, in the style of HdrHistogram: every power of two is divided into 16 linear
+ * buckets, so that a recorded value is reported with a relative error of at most 1/16, whatever its magnitude. The
+ * histogram covers values up to about 36 minutes in a fixed number of buckets; larger values are counted in the last
+ * bucket, but the {@link #getMaxValue() maximum} is exact. Values can be recorded concurrently by several threads.
+ *
+ * @see ListenerLatencyStatistics#getLatencyHistogram()
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (MAX_EXPONENT - SUB_BUCKET_BITS + 2);
+
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value in nanoseconds, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(v));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(v);
+        long max = maxValue.get();
+        while (v > max && !maxValue.compareAndSet(max, v)) {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Gets the number of recorded values.
+     */
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Gets the largest recorded value, or 0 if no values have been recorded.
+     */
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    /**
+     * Gets the mean of the recorded values, or 0 if no values have been recorded.
+     */
+    public double getMean() {
+        final long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    /**
+     * Gets the value that the specified percentage of the recorded values are less than or equal to, within the
+     * precision of the histogram.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the value, or 0 if no values have been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts.get(i);
+            if (count >= target) {
+                return Math.min(highestValueOf(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Creates a copy of this histogram, for example to take a snapshot while values are still being recorded.
+     *
+     * @return a new histogram, never {@code null}.
+     */
+    public LatencyHistogram copy() {
+        final LatencyHistogram copy = new LatencyHistogram();
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long count = counts.get(i);
+            copy.counts.set(i, count);
+            total += count;
+        }
+        copy.totalCount.set(total);
+        copy.totalValue.set(totalValue.get());
+        copy.maxValue.set(maxValue.get());
+        return copy;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT * (shift + 1) + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKET_COUNT - 1;
+        final long lowest = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[count=%d, mean=%.0f, p50=%d, p99=%d, max=%d]", getClass().getSimpleName(),
+            getTotalCount(), getMean(), getValueAtPercentile(50), getValueAtPercentile(99), getMaxValue());
+    }
+}
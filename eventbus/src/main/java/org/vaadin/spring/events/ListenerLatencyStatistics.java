@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events;
+
+/**
+ * Snapshot of the latencies of a single listener, for finding the listeners that slow down the publishers. A listener
+ * object with multiple listener methods has separate statistics for every method.
+ *
+ * @see org.vaadin.spring.events.internal.ScopedEventBus#getListenerLatencyStatistics()
+ */
+public final class ListenerLatencyStatistics {
+
+    private final Object listener;
+    private final Class<?> payloadType;
+    private final String listenerMethod;
+    private final LatencyHistogram latencyHistogram;
+    private final long slowInvocationCount;
+    private final long totalCpuTime;
+
+    public ListenerLatencyStatistics(Object listener, Class<?> payloadType, String listenerMethod,
+                                     LatencyHistogram latencyHistogram, long slowInvocationCount, long totalCpuTime) {
+        this.listener = listener;
+        this.payloadType = payloadType;
+        this.listenerMethod = listenerMethod;
+        this.latencyHistogram = latencyHistogram;
+        this.slowInvocationCount = slowInvocationCount;
+        this.totalCpuTime = totalCpuTime;
+    }
+
+    /**
+     * Gets the listener object.
+     *
+     * @return the listener, or {@code null} if it was subscribed with a weak reference and has been garbage collected.
+     */
+    public Object getListener() {
+        return listener;
+    }
+
+    /**
+     * Gets the payload type of the listener method or {@link EventBusListener}.
+     *
+     * @return the payload type, never {@code null}.
+     */
+    public Class<?> getPayloadType() {
+        return payloadType;
+    }
+
+    /**
+     * Gets the name of the listener method.
+     *
+     * @return the method name, never {@code null}.
+     */
+    public String getListenerMethod() {
+        return listenerMethod;
+    }
+
+    /**
+     * Gets the number of times the listener has been invoked while latency tracking was enabled. A batch listener
+     * that receives a batch of events is invoked once.
+     */
+    public long getInvocationCount() {
+        return latencyHistogram.getTotalCount();
+    }
+
+    /**
+     * Gets the histogram of the wall clock time of the invocations of the listener, in nanoseconds.
+     *
+     * @return a snapshot of the histogram, never {@code null}.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    /**
+     * Gets the number of invocations that took longer than the slow listener threshold of the event bus.
+     */
+    public long getSlowInvocationCount() {
+        return slowInvocationCount;
+    }
+
+    /**
+     * Gets the CPU time spent by the invocations of the listener, in nanoseconds. The CPU time is measured with the
+     * {@link java.lang.management.ThreadMXBean}; it is 0 if the virtual machine does not support measuring the CPU
+     * time of the current thread or measuring it has been disabled. A latency that is much larger than the CPU time
+     * means that the listener spends most of its time waiting, for example for I/O or locks.
+     */
+    public long getTotalCpuTime() {
+        return totalCpuTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[listener=%s, payloadType=%s, listenerMethod=%s, latency=%s, slow=%d, cpuTime=%d]",
+            getClass().getSimpleName(), listener, payloadType.getName(), listenerMethod, latencyHistogram,
+            slowInvocationCount, totalCpuTime);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events;
+
+/**
+ * Snapshot of the state of the queue of a single listener, for sizing the listener queues of an event bus. A listener
+ * object with multiple listener methods has a separate queue for every method.
+ *
+ * @see org.vaadin.spring.events.internal.ScopedEventBus#getListenerQueueStatistics()
+ */
+public final class ListenerQueueStatistics {
+
+    private final Object listener;
+    private final Class<?> payloadType;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int depth;
+    private final long deliveredCount;
+    private final long droppedCount;
+
+    public ListenerQueueStatistics(Object listener, Class<?> payloadType, int capacity, OverflowPolicy overflowPolicy,
+                                   int depth, long deliveredCount, long droppedCount) {
+        this.listener = listener;
+        this.payloadType = payloadType;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.depth = depth;
+        this.deliveredCount = deliveredCount;
+        this.droppedCount = droppedCount;
+    }
+
+    /**
+     * Gets the listener object that the queue delivers events to.
+     *
+     * @return the listener, or {@code null} if it was subscribed with a weak reference and has been garbage collected.
+     */
+    public Object getListener() {
+        return listener;
+    }
+
+    /**
+     * Gets the payload type of the listener method or {@link EventBusListener} that the queue delivers events to.
+     *
+     * @return the payload type, never {@code null}.
+     */
+    public Class<?> getPayloadType() {
+        return payloadType;
+    }
+
+    /**
+     * Gets the maximum number of events in the queue.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the policy that applies when the queue is full.
+     *
+     * @return the overflow policy, never {@code null}.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Gets the number of events in the queue that the listener has not received yet.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the number of events that have been taken from the queue and delivered to the listener.
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * Gets the number of events that have been dropped by the {@link #getOverflowPolicy() overflow policy}.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[listener=%s, payloadType=%s, capacity=%d, overflowPolicy=%s, depth=%d, delivered=%d, dropped=%d]",
+            getClass().getSimpleName(), listener, payloadType.getName(), capacity, overflowPolicy, depth,
+            deliveredCount, droppedCount);
+    }
+}
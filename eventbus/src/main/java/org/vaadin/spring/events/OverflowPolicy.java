@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events;
+
+/**
+ * Enumeration of the policies that decide what happens to an event when the queue of a listener is full.
+ *
+ * @see org.vaadin.spring.events.internal.ScopedEventBus#setListenerQueues(int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+    /**
+     * The publishing thread waits until the listener has taken an event from its queue. No events are dropped, but a
+     * slow listener slows down the publishers.
+     */
+    BLOCK,
+
+    /**
+     * The oldest event in the queue is dropped to make room for the new event.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new event is dropped.
+     */
+    DROP_NEWEST,
+
+    /**
+     * A queued event with the same topic and payload class as the new event is dropped, even if the queue is not
+     * full, and the new event is queued at the end. The listener therefore only receives the latest event of each
+     * topic and payload class, which suits events where only the latest value matters, such as progress updates.
+     * If the queue is full and contains no such event, this policy falls back to {@link #DROP_OLDEST}: the oldest
+     * event is dropped, whatever its topic and payload class, and counted as dropped. Size the queue to hold at least
+     * one event of every topic and payload class that the listener receives if no event should be lost that way.
+     */
+    COALESCE_LATEST
+}
@@ -24,6 +24,11 @@ import java.lang.annotation.Target;
 import org.springframework.context.annotation.Import;
 import org.vaadin.spring.events.config.EventBusConfiguration;
 
+/**
+ * Enables the Vaadin4Spring event bus by importing {@link EventBusConfiguration}. The executor used for asynchronously
+ * published events can be configured by defining an {@link java.util.concurrent.Executor} bean qualified with
+ * {@link EventBusExecutor}.
+ */
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
@@ -33,6 +33,11 @@ import org.vaadin.spring.events.NoEventBusListenerMethodFilter;
  *   <li><code>myMethodName({@link org.vaadin.spring.events.Event Event}&lt;MyPayloadType&gt;)</code></li>
  *   <li><code>myMethodName(MyPayloadType)</code></li>
  * </ol>
+ * If {@link #batch()} is true, the listener method must instead conform to one of the following method signatures:
+ * <ol>
+ *   <li><code>myMethodName(List&lt;{@link org.vaadin.spring.events.Event Event}&lt;MyPayloadType&gt;&gt;)</code></li>
+ *   <li><code>myMethodName(List&lt;MyPayloadType&gt;)</code></li>
+ * </ol>
  * A listener method can have any visibility and any return type.
  *
  * @author Petter Holmström (petter@vaadin.com)
@@ -57,4 +62,11 @@ public @interface EventBusListenerMethod {
      * Filter by source class 
      */
     Class<?>[] source() default {};
+
+    /**
+     * Whether the listener method receives events in batches. The events published together by
+     * {@link EventBus#publishAll(String, Object, java.util.Collection)} are then passed to the method in a single
+     * list, whereas events published one at a time are passed in a list of one element.
+     */
+    boolean batch() default false;
 }
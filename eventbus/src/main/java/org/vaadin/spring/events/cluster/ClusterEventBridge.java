@@ -0,0 +1,546 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.cluster;
+
+import com.vaadin.flow.shared.Registration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventScope;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Bridges the application event bus of this node to the application event buses of the other nodes of a cluster.
+ * Every event that is published on the application event bus with a {@link Serializable} payload is forwarded to the
+ * other nodes through a {@link ClusterTransport}, where it is published on their application event buses with a
+ * {@link RemoteNode} as its source. Events received from other nodes are not forwarded again, so that events never
+ * echo back to the node that published them.
+ * <p>
+ * The events are forwarded by the {@link ScopedEventBus#getExecutor() executor} of the event bus, so publishing an
+ * event does not wait for the network. The events that pile up while a batch is being sent, or during the
+ * {@link #setFlushDelay(long, TimeUnit) flush delay}, are encoded into a single frame: the payloads are serialized
+ * once per batch, not once per peer, and large frames are compressed.
+ * <p>
+ * Every node advertises the payload types and topics that the listeners of its application event bus, and of the
+ * session and UI event buses attached to it, are interested in. The advertisement is sent again whenever listeners
+ * are subscribed or unsubscribed and the interests have changed, and periodically to cover lost advertisements.
+ * Collecting the interests visits every listener, so the interests are collected at most once per
+ * {@link #setMinAdvertisementInterval(long, TimeUnit) minimum advertisement interval}, however often listeners are
+ * subscribed or unsubscribed.
+ * A node only forwards the events that another node is interested in, and addresses every frame to the interested
+ * nodes. The transport only sends the frame to the peers of those nodes, if it knows them, and the other nodes can
+ * discard the frame without deserializing it. Events published before the
+ * advertisement of a new listener has reached the publishing node are not delivered to that listener.
+ * <p>
+ * Payloads are deserialized from the frames received from the peers, so the transport must only accept connections
+ * from trusted nodes. In addition, only the classes accepted by the {@link #setClassFilter(Predicate) class filter}
+ * are deserialized, which by default accepts none, so that only events with {@link String} payloads are received
+ * until an allowlist of the payload classes has been set. The depth of the deserialized object graphs and the length
+ * of their arrays are limited as well.
+ * <p>
+ * Example:
+ * <pre>
+ * &#64;Bean(destroyMethod = "close")
+ * ClusterEventBridge clusterEventBridge(EventBus.ApplicationEventBus eventBus) throws IOException {
+ *     TcpTransport transport = new TcpTransport(9701);
+ *     transport.addPeer(new InetSocketAddress("node2", 9701));
+ *     ClusterEventBridge bridge = new ClusterEventBridge((ScopedEventBus) eventBus, transport);
+ *     bridge.setClassFilter(className -&gt; className.startsWith("com.example.events."));
+ *     bridge.start();
+ *     return bridge;
+ * }
+ * </pre>
+ */
+public class ClusterEventBridge {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterEventBridge.class);
+
+    /**
+     * The number of refresh intervals after which the interests of a node that has not advertised them again expire.
+     */
+    private static final int MISSED_REFRESHES = 3;
+
+    private final UUID nodeId = UUID.randomUUID();
+
+    private final ScopedEventBus eventBus;
+
+    private final ClusterTransport transport;
+
+    private final Queue<Event<?>> pendingEvents = new ConcurrentLinkedQueue<Event<?>>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final Map<UUID, RemoteNode> remoteNodes = new ConcurrentHashMap<UUID, RemoteNode>();
+
+    private final Map<UUID, RemoteInterests> remoteInterests = new ConcurrentHashMap<UUID, RemoteInterests>();
+
+    private volatile InterestSet combinedRemoteInterests = InterestSet.EMPTY;
+
+    private final AtomicBoolean advertisementScheduled = new AtomicBoolean();
+
+    private volatile boolean advertisementForced;
+
+    private final Object advertisementLock = new Object();
+
+    private InterestSet advertisedInterests;
+
+    private volatile long interestRefreshIntervalNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private volatile long minAdvertisementIntervalNanos = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private volatile long nextCollectionAt = System.nanoTime();
+
+    private volatile int maxBatchSize = 256;
+
+    private volatile long flushDelayNanos;
+
+    private volatile int compressionThreshold = 1024;
+
+    private volatile Predicate<String> classFilter = className -> false;
+
+    private volatile FrameCodec codec;
+
+    private Registration observerRegistration;
+
+    private Registration listenerRegistration;
+
+    private ScheduledFuture<?> interestRefresh;
+
+    /**
+     * @param eventBus  the application event bus to bridge, never {@code null}.
+     * @param transport the transport to send and receive events with, never {@code null}.
+     * @throws IllegalArgumentException if the event bus is not an application event bus.
+     */
+    public ClusterEventBridge(ScopedEventBus eventBus, ClusterTransport transport) {
+        if (eventBus.getScope() != EventScope.APPLICATION) {
+            throw new IllegalArgumentException("Only application event buses can be bridged, got " + eventBus);
+        }
+        this.eventBus = eventBus;
+        this.transport = transport;
+    }
+
+    /**
+     * Gets the id of this node, which is the {@link RemoteNode#getNodeId() node id} of the events that the other
+     * nodes receive from it.
+     *
+     * @return the node id, never {@code null}.
+     */
+    public UUID getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Sets the maximum number of events in a single frame. Defaults to 256.
+     *
+     * @param maxBatchSize the maximum number of events, must be positive.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets for how long the bridge waits for more events after the first event of a batch has been published.
+     * A longer delay makes the batches larger at the expense of latency. Defaults to zero, which sends the events as
+     * soon as the executor gets to it.
+     *
+     * @param delay the delay, must not be negative.
+     * @param unit  the unit of {@code delay}, never {@code null}.
+     */
+    public void setFlushDelay(long delay, TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Flush delay must not be negative");
+        }
+        this.flushDelayNanos = unit.toNanos(delay);
+    }
+
+    /**
+     * Sets the number of bytes from which on the frames are compressed. Defaults to 1024.
+     *
+     * @param compressionThreshold the threshold in bytes, or {@link Integer#MAX_VALUE} to never compress frames.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Sets the filter that decides which classes may be deserialized from the frames received from other nodes.
+     * The filter is given the name of every class in the deserialized object graphs, including the classes of arrays,
+     * such as {@code [Ljava.lang.Integer;}, and the interfaces of proxies. It should be an allowlist of the payload
+     * classes and the classes they refer to, as accepting arbitrary classes lets the other nodes instantiate any
+     * serializable class on the classpath. Strings are not classes in this sense and are always accepted. By default,
+     * no classes are accepted. Must be set before the bridge is {@link #start() started}.
+     *
+     * @param classFilter the filter that is given the names of the classes, never {@code null}.
+     */
+    public void setClassFilter(Predicate<String> classFilter) {
+        this.classFilter = classFilter;
+    }
+
+    /**
+     * Sets how often the interests of this node are advertised to the other nodes even if they have not changed.
+     * The interests of another node expire, and no more events are sent to it, if the node has not advertised them
+     * for three intervals, so all the nodes of a cluster should use the same interval. Defaults to 30 seconds.
+     *
+     * @param interval the interval, must be positive.
+     * @param unit     the unit of {@code interval}, never {@code null}.
+     */
+    public void setInterestRefreshInterval(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interest refresh interval must be positive");
+        }
+        this.interestRefreshIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Sets how long the bridge waits at least after collecting the interests of this node before it collects them
+     * again. Collecting the interests visits all the listeners of the application event bus and of the session and
+     * UI event buses attached to it, so the collections that subscriptions and unsubscriptions trigger within the
+     * interval are combined into one. A longer interval makes the other nodes learn of new listeners later. Defaults
+     * to 200 milliseconds.
+     *
+     * @param interval the interval, must not be negative.
+     * @param unit     the unit of {@code interval}, never {@code null}.
+     */
+    public void setMinAdvertisementInterval(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Minimum advertisement interval must not be negative");
+        }
+        this.minAdvertisementIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Starts the transport and starts forwarding the events of the event bus to the other nodes.
+     *
+     * @throws IOException if the transport could not be started.
+     */
+    public synchronized void start() throws IOException {
+        if (observerRegistration != null) {
+            throw new IllegalStateException("The bridge has already been started");
+        }
+        logger.debug("Starting cluster event bridge for event bus [{}] as node [{}]", eventBus, nodeId);
+        codec = new FrameCodec(compressionThreshold, getClassLoader(), classFilter);
+        transport.start(this::receive);
+        observerRegistration = eventBus.observePublishedEvents(this::onPublished);
+        listenerRegistration = eventBus.observeListeners(() -> scheduleAdvertisement(false));
+        scheduleAdvertisement(true);
+        final long interval = interestRefreshIntervalNanos;
+        interestRefresh = eventBus.getScheduler().scheduleWithFixedDelay(() -> {
+            expireRemoteInterests();
+            scheduleAdvertisement(true);
+        }, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops forwarding events, sends the events that are still pending and closes the transport.
+     */
+    public synchronized void close() {
+        if (observerRegistration == null) {
+            return;
+        }
+        logger.debug("Closing cluster event bridge of node [{}]", nodeId);
+        observerRegistration.remove();
+        observerRegistration = null;
+        listenerRegistration.remove();
+        listenerRegistration = null;
+        interestRefresh.cancel(false);
+        interestRefresh = null;
+        if (flushScheduled.compareAndSet(false, true)) {
+            flush();
+        }
+        transport.close();
+    }
+
+    private ClassLoader getClassLoader() {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader == null ? ClusterEventBridge.class.getClassLoader() : classLoader;
+    }
+
+    private void onPublished(Event<?> event) {
+        if (event.getSource() instanceof RemoteNode) {
+            // Events received from other nodes are only published locally
+            return;
+        }
+        if (!(event.getPayload() instanceof Serializable)) {
+            logger.trace("Not forwarding event [{}] with a payload that is not serializable", event);
+            return;
+        }
+        if (!combinedRemoteInterests.matches(event.getPayload().getClass(), event.getTopic())) {
+            logger.trace("Not forwarding event [{}] that no other node is interested in", event);
+            return;
+        }
+        pendingEvents.add(event);
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        try {
+            final long delay = flushDelayNanos;
+            if (delay > 0) {
+                eventBus.getScheduler().schedule(this::executeFlush, delay, TimeUnit.NANOSECONDS);
+            } else {
+                executeFlush();
+            }
+        } catch (RejectedExecutionException e) {
+            logger.warn("Could not schedule forwarding of events to the cluster, forwarding them synchronously", e);
+            flush();
+        }
+    }
+
+    private void executeFlush() {
+        try {
+            eventBus.getExecutor().execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Could not schedule forwarding of events to the cluster, forwarding them synchronously", e);
+            flush();
+        }
+    }
+
+    private void flush() {
+        // Events added after the queue was found empty but before the flag was cleared would otherwise be stranded.
+        do {
+            try {
+                final List<Event<?>> batch = new ArrayList<Event<?>>();
+                Event<?> event;
+                while ((event = pendingEvents.poll()) != null) {
+                    batch.add(event);
+                    if (batch.size() >= maxBatchSize) {
+                        send(batch);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    send(batch);
+                }
+            } finally {
+                flushScheduled.set(false);
+            }
+        } while (!pendingEvents.isEmpty() && flushScheduled.compareAndSet(false, true));
+    }
+
+    private void send(List<Event<?>> batch) {
+        final List<UUID> recipients = getInterestedNodes(batch);
+        if (recipients.isEmpty()) {
+            // The interested nodes have unsubscribed their listeners after the events were published
+            return;
+        }
+        try {
+            final byte[] frame = codec.encode(nodeId, recipients, batch);
+            logger.trace("Sending {} events in a frame of {} bytes to {} nodes", batch.size(), frame.length,
+                recipients.size());
+            transport.send(frame, recipients);
+        } catch (IOException e) {
+            if (batch.size() == 1) {
+                logger.error("Could not forward event [{}] to the cluster", batch.get(0), e);
+            } else {
+                // Send the events one by one, so that only the events that cannot be serialized are lost
+                for (Event<?> event : batch) {
+                    send(Collections.<Event<?>>singletonList(event));
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Could not forward {} events to the cluster", batch.size(), e);
+        }
+    }
+
+    private List<UUID> getInterestedNodes(List<Event<?>> batch) {
+        final List<UUID> nodes = new ArrayList<UUID>();
+        for (Map.Entry<UUID, RemoteInterests> node : remoteInterests.entrySet()) {
+            for (Event<?> event : batch) {
+                if (node.getValue().interests.matches(event.getPayload().getClass(), event.getTopic())) {
+                    nodes.add(node.getKey());
+                    break;
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private void scheduleAdvertisement(boolean force) {
+        if (force) {
+            advertisementForced = true;
+        }
+        if (advertisementScheduled.compareAndSet(false, true)) {
+            try {
+                final long delay = nextCollectionAt - System.nanoTime();
+                if (delay > 0) {
+                    eventBus.getScheduler().schedule(this::executeAdvertisement, delay, TimeUnit.NANOSECONDS);
+                } else {
+                    executeAdvertisement();
+                }
+            } catch (RejectedExecutionException e) {
+                advertisementScheduled.set(false);
+                logger.warn("Could not schedule advertisement of the interests of node [{}]", nodeId, e);
+            }
+        }
+    }
+
+    private void executeAdvertisement() {
+        try {
+            eventBus.getExecutor().execute(this::advertise);
+        } catch (RejectedExecutionException e) {
+            advertisementScheduled.set(false);
+            logger.warn("Could not schedule advertisement of the interests of node [{}]", nodeId, e);
+        }
+    }
+
+    private void advertise() {
+        // Cleared before collecting the interests, so that later changes schedule another advertisement
+        advertisementScheduled.set(false);
+        final boolean force = advertisementForced;
+        advertisementForced = false;
+        nextCollectionAt = System.nanoTime() + minAdvertisementIntervalNanos;
+        final InterestSet interests = InterestSet.of(eventBus);
+        synchronized (advertisementLock) {
+            if (!force && interests.equals(advertisedInterests)) {
+                return;
+            }
+            advertisedInterests = interests;
+            try {
+                logger.trace("Advertising interests {} of node [{}]", interests, nodeId);
+                transport.send(codec.encodeInterests(nodeId, interests), Collections.<UUID>emptyList());
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not advertise the interests of node [{}]", nodeId, e);
+            }
+        }
+    }
+
+    private void onInterests(UUID node, InterestSet interests) {
+        logger.trace("Received interests {} of node [{}]", interests, node);
+        final RemoteInterests previous = remoteInterests.put(node, new RemoteInterests(interests, System.nanoTime()));
+        updateCombinedRemoteInterests();
+        if (previous == null) {
+            // A node that has just joined does not know the interests of this node yet
+            scheduleAdvertisement(true);
+        }
+    }
+
+    private void updateCombinedRemoteInterests() {
+        synchronized (remoteInterests) {
+            InterestSet combined = InterestSet.EMPTY;
+            for (RemoteInterests nodeInterests : remoteInterests.values()) {
+                combined = combined.union(nodeInterests.interests);
+            }
+            combinedRemoteInterests = combined;
+        }
+    }
+
+    /**
+     * Forgets the interests of the nodes that have not advertised them for {@link #MISSED_REFRESHES} refresh
+     * intervals, as these nodes have most likely left the cluster.
+     */
+    private void expireRemoteInterests() {
+        final long expiredBefore = System.nanoTime() - MISSED_REFRESHES * interestRefreshIntervalNanos;
+        boolean expired = false;
+        for (Map.Entry<UUID, RemoteInterests> node : remoteInterests.entrySet()) {
+            if (node.getValue().receivedAt - expiredBefore < 0
+                && remoteInterests.remove(node.getKey(), node.getValue())) {
+                logger.debug("Node [{}] has not advertised its interests for {} refresh intervals, forgetting it",
+                    node.getKey(), MISSED_REFRESHES);
+                remoteNodes.remove(node.getKey());
+                expired = true;
+            }
+        }
+        if (expired) {
+            updateCombinedRemoteInterests();
+        }
+    }
+
+    /**
+     * Checks whether any other node is interested in events with the specified payload class and topic.
+     */
+    boolean isAnyNodeInterested(Class<?> payloadClass, String topic) {
+        return combinedRemoteInterests.matches(payloadClass, topic);
+    }
+
+    private void receive(byte[] bytes) {
+        try {
+            final FrameCodec.Frame frame = codec.decode(bytes);
+            if (nodeId.equals(frame.getOrigin()) || !frame.isAddressedTo(nodeId)) {
+                return;
+            }
+            if (frame.isInterestFrame()) {
+                onInterests(frame.getOrigin(), frame.decodeInterests());
+                return;
+            }
+            final RemoteNode sender = remoteNodes.computeIfAbsent(frame.getOrigin(), RemoteNode::new);
+            logger.trace("Received {} events from node [{}]", frame.getEntryCount(), sender.getNodeId());
+            final List<FrameCodec.RemoteEvent> events = frame.decodeEvents();
+            int start = 0;
+            while (start < events.size()) {
+                // Consecutive events in the same topic are published as one batch
+                final String topic = events.get(start).getTopic();
+                final List<Object> payloads = new ArrayList<Object>();
+                int end = start;
+                while (end < events.size() && Objects.equals(topic, events.get(end).getTopic())) {
+                    payloads.add(events.get(end).getPayload());
+                    end++;
+                }
+                if (payloads.size() == 1) {
+                    eventBus.publish(topic, sender, payloads.get(0));
+                } else {
+                    eventBus.publishAll(topic, sender, payloads);
+                }
+                start = end;
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            logger.error("Could not decode frame of {} bytes received from the cluster", bytes.length, e);
+        } catch (RuntimeException e) {
+            logger.error("Could not publish events received from the cluster", e);
+        }
+    }
+
+    /**
+     * The interests of another node and when they were last received.
+     */
+    private static final class RemoteInterests {
+
+        private final InterestSet interests;
+        private final long receivedAt;
+
+        RemoteInterests(InterestSet interests, long receivedAt) {
+            this.interests = interests;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[nodeId=%s, eventBus=%s, transport=%s]", getClass().getSimpleName(), nodeId,
+            eventBus, transport);
+    }
+}
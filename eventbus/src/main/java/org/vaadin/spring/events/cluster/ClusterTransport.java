@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.cluster;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Service provider interface for the transports that carry the frames of a {@link ClusterEventBridge} between the
+ * nodes of a cluster. A frame is an opaque array of bytes that contains a batch of events; the bridge encodes every
+ * batch only once, and the transport sends the same frame to every recipient. Transports need not guarantee delivery,
+ * but should preserve the order of the frames sent to a particular peer.
+ * <p>
+ * Every frame is addressed to the ids of the nodes that are interested in it. A transport that knows which of its
+ * peers runs which node should only send the frame to the peers of the recipients; the others would discard the frame
+ * anyway. The ids of the nodes are the origins of the frames they send, see
+ * {@link ClusterEventBridge#getNodeId()}.
+ *
+ * @see TcpTransport
+ */
+public interface ClusterTransport {
+
+    /**
+     * Starts the transport. From now on, the frames received from the peers are passed to the specified receiver.
+     *
+     * @param receiver the receiver of incoming frames, never {@code null}.
+     * @throws IOException if the transport could not be started.
+     */
+    void start(Receiver receiver) throws IOException;
+
+    /**
+     * Sends a frame to the peers of the specified nodes. The transport must not modify the frame. A transport that
+     * does not know the peer of a recipient must send the frame to every peer that it may be.
+     *
+     * @param frame      the frame to send, never {@code null}.
+     * @param recipients the ids of the nodes to send the frame to, or an empty collection to send the frame to all
+     *                   the peers of this node.
+     */
+    void send(byte[] frame, Collection<UUID> recipients);
+
+    /**
+     * Stops the transport and releases its resources.
+     */
+    void close();
+
+    /**
+     * Receiver of the frames sent by the peers.
+     */
+    @FunctionalInterface
+    interface Receiver {
+
+        /**
+         * Receives a frame sent by a peer. The transport invokes this method by one of its own threads.
+         *
+         * @param frame the received frame, never {@code null}.
+         */
+        void receive(byte[] frame);
+    }
+}
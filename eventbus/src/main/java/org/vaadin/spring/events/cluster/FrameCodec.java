@@ -0,0 +1,444 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.spring.events.Event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes batches of events into the frames that a {@link ClusterEventBridge} sends through its
+ * {@link ClusterTransport}, and decodes them again. A frame consists of a header and a body:
+ * <ul>
+ * <li>The header contains a magic number, the format version, flags, the id of the node that encoded the frame,
+ * the number of entries in the frame and the ids of the nodes the frame is addressed to.</li>
+ * <li>The body of an event frame contains the topic and the payload of every event, written by a single
+ * {@link ObjectOutputStream}, so that class descriptors and repeated objects, such as topics, are written only once
+ * per frame. The body of an interest frame contains the {@link InterestSet} of the node that encoded the frame.
+ * Bodies that are larger than the compression threshold are compressed with a {@link Deflater}.</li>
+ * </ul>
+ * The nodes that a frame is not addressed to can discard it without deserializing the body.
+ * <p>
+ * Every class that is deserialized from an event body, including the interfaces of proxy classes, must be accepted
+ * by the class filter. The body is also read with an {@code ObjectInputFilter} that limits the depth of the object
+ * graph, the length of arrays, the number of references and the number of bytes read, so that a frame cannot make
+ * a node exhaust its stack or heap. The filter is installed through {@code java.io.ObjectInputFilter} on Java 9 and
+ * later, and through {@code sun.misc.ObjectInputFilter} on Java 8 update 121 and later; on older Java 8 versions only
+ * the class filter applies.
+ * Intended only for internal use by the framework.
+ */
+final class FrameCodec {
+
+    static final int MAGIC = 0x56454246;
+
+    static final byte VERSION = 1;
+
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte COMPRESSED = 0x01;
+
+    private static final byte INTEREST = 0x02;
+
+    private static final int HEADER_LENGTH = 4 + 1 + 1 + 8 + 8 + 4 + 4;
+
+    static final int MAX_DEPTH = 64;
+
+    static final int MAX_ARRAY_LENGTH = 1 << 20;
+
+    static final int MAX_REFERENCES = 1 << 20;
+
+    static final long MAX_BODY_LENGTH = 4L * MAX_FRAME_LENGTH;
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameCodec.class);
+
+    private static final LimitsFilter LIMITS_FILTER = LimitsFilter.create("maxdepth=" + MAX_DEPTH + ";maxarray="
+        + MAX_ARRAY_LENGTH + ";maxrefs=" + MAX_REFERENCES + ";maxbytes=" + MAX_BODY_LENGTH);
+
+    private final int compressionThreshold;
+
+    private final ClassLoader classLoader;
+
+    private final Predicate<String> classFilter;
+
+    /**
+     * @param compressionThreshold the body length in bytes from which on bodies are compressed.
+     * @param classLoader          the class loader to resolve the classes of decoded payloads with, never
+     *                             {@code null}.
+     * @param classFilter          the filter that decides which classes may be decoded, never {@code null}.
+     */
+    FrameCodec(int compressionThreshold, ClassLoader classLoader, Predicate<String> classFilter) {
+        this.compressionThreshold = compressionThreshold;
+        this.classLoader = classLoader;
+        this.classFilter = classFilter;
+    }
+
+    /**
+     * Encodes a batch of events into a frame.
+     *
+     * @param origin     the id of the node that encodes the frame, never {@code null}.
+     * @param recipients the ids of the nodes that the frame is addressed to, or an empty collection to address the
+     *                   frame to all nodes.
+     * @param events     the events to encode, never {@code null} nor empty.
+     * @return the frame, never {@code null}.
+     * @throws IOException if any of the payloads could not be serialized.
+     */
+    byte[] encode(UUID origin, Collection<UUID> recipients, List<Event<?>> events) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(256 * events.size());
+        final ObjectOutputStream out = new ObjectOutputStream(body);
+        for (Event<?> event : events) {
+            out.writeObject(event.getTopic());
+            out.writeObject(event.getPayload());
+        }
+        out.close();
+        return frame(origin, (byte) 0, recipients, events.size(), body.toByteArray());
+    }
+
+    /**
+     * Encodes the interests of a node into a frame that is addressed to all nodes.
+     *
+     * @param origin    the id of the node that encodes the frame, never {@code null}.
+     * @param interests the interests of the node, never {@code null}.
+     * @return the frame, never {@code null}.
+     */
+    byte[] encodeInterests(UUID origin, InterestSet interests) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+        interests.writeTo(out);
+        out.close();
+        return frame(origin, INTEREST, Collections.<UUID>emptyList(), interests.getEntryCount(), body.toByteArray());
+    }
+
+    private byte[] frame(UUID origin, byte flags, Collection<UUID> recipients, int count, byte[] bodyBytes)
+        throws IOException {
+        if (bodyBytes.length >= compressionThreshold) {
+            final byte[] compressed = compress(bodyBytes);
+            if (compressed.length < bodyBytes.length) {
+                bodyBytes = compressed;
+                flags |= COMPRESSED;
+            }
+        }
+
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream(
+            HEADER_LENGTH + 16 * recipients.size() + bodyBytes.length);
+        final DataOutputStream header = new DataOutputStream(frame);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(flags);
+        header.writeLong(origin.getMostSignificantBits());
+        header.writeLong(origin.getLeastSignificantBits());
+        header.writeInt(count);
+        header.writeInt(recipients.size());
+        for (UUID recipient : recipients) {
+            header.writeLong(recipient.getMostSignificantBits());
+            header.writeLong(recipient.getLeastSignificantBits());
+        }
+        header.write(bodyBytes);
+        header.flush();
+        return frame.toByteArray();
+    }
+
+    /**
+     * Decodes the header of a frame. The body is decoded with {@link Frame#decodeEvents()}, so that the frames of
+     * the node itself can be discarded without deserializing their payloads.
+     *
+     * @param frame the frame to decode, never {@code null}.
+     * @return the decoded frame, never {@code null}.
+     * @throws IOException if the frame is not valid.
+     */
+    Frame decode(byte[] frame) throws IOException {
+        if (frame.length < HEADER_LENGTH || frame.length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length " + frame.length);
+        }
+        final DataInputStream header = new DataInputStream(new ByteArrayInputStream(frame));
+        if (header.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Invalid frame magic number");
+        }
+        final byte version = header.readByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported frame version " + version);
+        }
+        final byte flags = header.readByte();
+        final UUID origin = new UUID(header.readLong(), header.readLong());
+        final int count = header.readInt();
+        if (count < 0) {
+            throw new StreamCorruptedException("Invalid entry count " + count);
+        }
+        final int recipientCount = header.readInt();
+        if (recipientCount < 0 || recipientCount > (frame.length - HEADER_LENGTH) / 16) {
+            throw new StreamCorruptedException("Invalid recipient count " + recipientCount);
+        }
+        final List<UUID> recipients = new ArrayList<UUID>(recipientCount);
+        for (int i = 0; i < recipientCount; i++) {
+            recipients.add(new UUID(header.readLong(), header.readLong()));
+        }
+        return new Frame(frame, flags, origin, count, recipients, HEADER_LENGTH + 16 * recipientCount);
+    }
+
+    /**
+     * Reads the origin of an interest frame, without decoding the rest of the frame.
+     *
+     * @param frame the frame, never {@code null}.
+     * @return the id of the node that encoded the frame, or {@code null} if the frame is not a valid interest frame.
+     */
+    static UUID getInterestOrigin(byte[] frame) {
+        if (frame.length < HEADER_LENGTH) {
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.wrap(frame);
+        if (header.getInt() != MAGIC || header.get() != VERSION || (header.get() & INTEREST) == 0) {
+            return null;
+        }
+        return new UUID(header.getLong(), header.getLong());
+    }
+
+    private static byte[] compress(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+            out.write(bytes);
+            out.close();
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * A decoded frame.
+     */
+    final class Frame {
+
+        private final byte[] frame;
+        private final byte flags;
+        private final UUID origin;
+        private final int count;
+        private final List<UUID> recipients;
+        private final int bodyOffset;
+
+        private Frame(byte[] frame, byte flags, UUID origin, int count, List<UUID> recipients, int bodyOffset) {
+            this.frame = frame;
+            this.flags = flags;
+            this.origin = origin;
+            this.count = count;
+            this.recipients = recipients;
+            this.bodyOffset = bodyOffset;
+        }
+
+        /**
+         * Gets the id of the node that encoded the frame.
+         */
+        UUID getOrigin() {
+            return origin;
+        }
+
+        /**
+         * Gets the number of events or interest entries in the frame.
+         */
+        int getEntryCount() {
+            return count;
+        }
+
+        /**
+         * Checks whether the frame contains the interests of a node rather than events.
+         */
+        boolean isInterestFrame() {
+            return (flags & INTEREST) != 0;
+        }
+
+        /**
+         * Checks whether the frame is addressed to the specified node.
+         */
+        boolean isAddressedTo(UUID nodeId) {
+            return recipients.isEmpty() || recipients.contains(nodeId);
+        }
+
+        /**
+         * Decodes the interests of an interest frame.
+         *
+         * @throws IOException if the body is not valid.
+         */
+        InterestSet decodeInterests() throws IOException {
+            try (DataInputStream in = new DataInputStream(openBody())) {
+                return InterestSet.readFrom(in, count);
+            }
+        }
+
+        private InputStream openBody() {
+            final InputStream body = new ByteArrayInputStream(frame, bodyOffset, frame.length - bodyOffset);
+            return (flags & COMPRESSED) != 0 ? new InflaterInputStream(body) : body;
+        }
+
+        /**
+         * Decodes the events of the frame.
+         *
+         * @return the topics and payloads of the events, in the order they were encoded.
+         * @throws IOException            if the body is not valid.
+         * @throws ClassNotFoundException if the class of a payload could not be found.
+         */
+        List<RemoteEvent> decodeEvents() throws IOException, ClassNotFoundException {
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+            final List<RemoteEvent> events = new ArrayList<RemoteEvent>(Math.min(count, 1024));
+            try (ObjectInputStream in = new FilteringObjectInputStream(openBody())) {
+                LIMITS_FILTER.install(in);
+                for (int i = 0; i < count; i++) {
+                    events.add(new RemoteEvent((String) in.readObject(), in.readObject()));
+                }
+            } catch (ClassCastException e) {
+                throw new StreamCorruptedException("Invalid event topic");
+            }
+            return events;
+        }
+    }
+
+    /**
+     * The topic and payload of an event decoded from a frame.
+     */
+    static final class RemoteEvent {
+
+        private final String topic;
+        private final Object payload;
+
+        RemoteEvent(String topic, Object payload) {
+            this.topic = topic;
+            this.payload = payload;
+        }
+
+        String getTopic() {
+            return topic;
+        }
+
+        Object getPayload() {
+            return payload;
+        }
+    }
+
+    private final class FilteringObjectInputStream extends ObjectInputStream {
+
+        FilteringObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            checkAccepted(desc.getName());
+            try {
+                return Class.forName(desc.getName(), false, classLoader);
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            for (String name : interfaces) {
+                checkAccepted(name);
+            }
+            return super.resolveProxyClass(interfaces);
+        }
+
+        private void checkAccepted(String className) throws InvalidClassException {
+            if (!classFilter.test(className)) {
+                throw new InvalidClassException(className, "Class is not accepted in event bus frames");
+            }
+        }
+    }
+
+    /**
+     * Installs an {@code ObjectInputFilter} with the specified limits on object input streams, using the API of the
+     * running Java version.
+     */
+    private static final class LimitsFilter {
+
+        private final Object filter;
+        private final Method setter;
+        private final boolean staticSetter;
+
+        private LimitsFilter(Object filter, Method setter, boolean staticSetter) {
+            this.filter = filter;
+            this.setter = setter;
+            this.staticSetter = staticSetter;
+        }
+
+        static LimitsFilter create(String pattern) {
+            try {
+                // Java 9 and later
+                final Class<?> filterClass = Class.forName("java.io.ObjectInputFilter");
+                final Object filter = Class.forName("java.io.ObjectInputFilter$Config")
+                    .getMethod("createFilter", String.class).invoke(null, pattern);
+                return new LimitsFilter(filter, ObjectInputStream.class.getMethod("setObjectInputFilter",
+                    filterClass), false);
+            } catch (ReflectiveOperationException e) {
+                // Not available, try the backport
+            }
+            try {
+                // Java 8 update 121 and later
+                final Class<?> filterClass = Class.forName("sun.misc.ObjectInputFilter");
+                final Class<?> configClass = Class.forName("sun.misc.ObjectInputFilter$Config");
+                final Object filter = configClass.getMethod("createFilter", String.class).invoke(null, pattern);
+                return new LimitsFilter(filter, configClass.getMethod("setObjectInputFilter",
+                    ObjectInputStream.class, filterClass), true);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("ObjectInputFilter is not available, event bus frames are only protected by the class "
+                    + "filter");
+                return new LimitsFilter(null, null, false);
+            }
+        }
+
+        void install(ObjectInputStream in) throws IOException {
+            if (filter == null) {
+                return;
+            }
+            try {
+                if (staticSetter) {
+                    setter.invoke(null, in, filter);
+                } else {
+                    setter.invoke(in, filter);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException("Could not install ObjectInputFilter", e);
+            } catch (InvocationTargetException e) {
+                throw new IOException("Could not install ObjectInputFilter", e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.cluster;
+
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable summary of the payload types and topics that the listeners of a node are interested in. The payload
+ * types are identified by their class names, so that a node can check whether another node is interested in an
+ * event without loading any of the classes of the other node.
+ * Intended only for internal use by the framework.
+ *
+ * @see ScopedEventBus#collectListenerInterests(ScopedEventBus.InterestCollector)
+ */
+final class InterestSet {
+
+    static final InterestSet EMPTY = new InterestSet(Collections.<String, TopicInterest>emptyMap());
+
+    private static final byte ANY_TOPIC = 0;
+    private static final byte EXACT_TOPIC = 1;
+    private static final byte TOPIC_PREFIX = 2;
+
+    private static final ClassValue<String[]> TYPE_NAMES = new ClassValue<String[]>() {
+        @Override
+        protected String[] computeValue(Class<?> type) {
+            final Set<String> names = new LinkedHashSet<String>();
+            addTypeNames(type, names);
+            return names.toArray(new String[0]);
+        }
+    };
+
+    private final Map<String, TopicInterest> interests;
+
+    private InterestSet(Map<String, TopicInterest> interests) {
+        this.interests = interests;
+    }
+
+    /**
+     * Collects the interests of the listeners of the specified event bus.
+     *
+     * @param eventBus the event bus to collect the interests of, never {@code null}.
+     * @return the interests, never {@code null}.
+     */
+    static InterestSet of(ScopedEventBus eventBus) {
+        final Builder builder = new Builder();
+        eventBus.collectListenerInterests((payloadType, topic, prefix) ->
+            builder.add(payloadType.getName(), topic == null ? ANY_TOPIC : prefix ? TOPIC_PREFIX : EXACT_TOPIC, topic));
+        return builder.build();
+    }
+
+    /**
+     * Checks whether there are no interests at all.
+     */
+    boolean isEmpty() {
+        return interests.isEmpty();
+    }
+
+    /**
+     * Checks whether any listener is interested in events with the specified payload class and topic. A listener
+     * is interested in an event if its payload type is the payload class itself or any of its superclasses or
+     * interfaces, and if its topic matches the topic of the event.
+     */
+    boolean matches(Class<?> payloadClass, String topic) {
+        if (interests.isEmpty()) {
+            return false;
+        }
+        for (String typeName : TYPE_NAMES.get(payloadClass)) {
+            final TopicInterest interest = interests.get(typeName);
+            if (interest != null && interest.matches(topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the union of this and the specified interests.
+     */
+    InterestSet union(InterestSet other) {
+        if (other.isEmpty()) {
+            return this;
+        } else if (isEmpty()) {
+            return other;
+        }
+        final Builder builder = new Builder();
+        builder.addAll(this);
+        builder.addAll(other);
+        return builder.build();
+    }
+
+    /**
+     * Gets the number of entries that {@link #writeTo(DataOutputStream)} writes.
+     */
+    int getEntryCount() {
+        int count = 0;
+        for (TopicInterest interest : interests.values()) {
+            count += interest.getEntryCount();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the interests as a sequence of {@link #getEntryCount()} entries.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        for (Map.Entry<String, TopicInterest> entry : interests.entrySet()) {
+            final TopicInterest interest = entry.getValue();
+            if (interest.anyTopic) {
+                writeEntry(out, entry.getKey(), ANY_TOPIC, null);
+            }
+            for (String topic : interest.exactTopics) {
+                writeEntry(out, entry.getKey(), EXACT_TOPIC, topic);
+            }
+            for (String prefix : interest.topicPrefixes) {
+                writeEntry(out, entry.getKey(), TOPIC_PREFIX, prefix);
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, String typeName, byte kind, String topic)
+        throws IOException {
+        out.writeUTF(typeName);
+        out.writeByte(kind);
+        if (kind != ANY_TOPIC) {
+            out.writeUTF(topic);
+        }
+    }
+
+    /**
+     * Reads interests written by {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in    the stream to read from, never {@code null}.
+     * @param count the number of entries to read.
+     */
+    static InterestSet readFrom(DataInputStream in, int count) throws IOException {
+        final Builder builder = new Builder();
+        for (int i = 0; i < count; i++) {
+            final String typeName = in.readUTF();
+            final byte kind = in.readByte();
+            if (kind < ANY_TOPIC || kind > TOPIC_PREFIX) {
+                throw new StreamCorruptedException("Invalid topic kind " + kind);
+            }
+            builder.add(typeName, kind, kind == ANY_TOPIC ? null : in.readUTF());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof InterestSet && interests.equals(((InterestSet) obj).interests);
+    }
+
+    @Override
+    public int hashCode() {
+        return interests.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s", getClass().getSimpleName(), interests);
+    }
+
+    private static void addTypeNames(Class<?> type, Set<String> names) {
+        while (type != null) {
+            names.add(type.getName());
+            for (Class<?> interfaceType : type.getInterfaces()) {
+                addTypeNames(interfaceType, names);
+            }
+            type = type.getSuperclass();
+        }
+    }
+
+    /**
+     * The topics that the listeners of a single payload type are interested in. Listeners that are interested in any
+     * topic make the exact topics and topic prefixes redundant, so they are not kept.
+     */
+    private static final class TopicInterest {
+
+        private final boolean anyTopic;
+        private final Set<String> exactTopics;
+        private final List<String> topicPrefixes;
+
+        TopicInterest(boolean anyTopic, Set<String> exactTopics, List<String> topicPrefixes) {
+            this.anyTopic = anyTopic;
+            this.exactTopics = anyTopic ? Collections.<String>emptySet() : exactTopics;
+            this.topicPrefixes = anyTopic ? Collections.<String>emptyList() : topicPrefixes;
+        }
+
+        boolean matches(String topic) {
+            if (anyTopic) {
+                return true;
+            } else if (topic == null) {
+                return false;
+            } else if (exactTopics.contains(topic)) {
+                return true;
+            }
+            for (String prefix : topicPrefixes) {
+                if (topic.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int getEntryCount() {
+            return anyTopic ? 1 : exactTopics.size() + topicPrefixes.size();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TopicInterest)) {
+                return false;
+            }
+            final TopicInterest other = (TopicInterest) obj;
+            return anyTopic == other.anyTopic && exactTopics.equals(other.exactTopics)
+                && topicPrefixes.equals(other.topicPrefixes);
+        }
+
+        @Override
+        public int hashCode() {
+            return (anyTopic ? 1 : 0) + 31 * exactTopics.hashCode() + 961 * topicPrefixes.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return anyTopic ? "*" : exactTopics + "+" + topicPrefixes + "*";
+        }
+    }
+
+    private static final class Builder {
+
+        private final Map<String, Boolean> anyTopic = new HashMap<String, Boolean>();
+        private final Map<String, Set<String>> exactTopics = new HashMap<String, Set<String>>();
+        private final Map<String, Set<String>> topicPrefixes = new HashMap<String, Set<String>>();
+        private final Set<String> typeNames = new TreeSet<String>();
+
+        void add(String typeName, byte kind, String topic) {
+            typeNames.add(typeName);
+            if (kind == ANY_TOPIC) {
+                anyTopic.put(typeName, Boolean.TRUE);
+            } else {
+                final Map<String, Set<String>> topics = kind == TOPIC_PREFIX ? topicPrefixes : exactTopics;
+                Set<String> set = topics.get(typeName);
+                if (set == null) {
+                    set = new TreeSet<String>();
+                    topics.put(typeName, set);
+                }
+                set.add(topic);
+            }
+        }
+
+        void addAll(InterestSet interests) {
+            for (Map.Entry<String, TopicInterest> entry : interests.interests.entrySet()) {
+                final TopicInterest interest = entry.getValue();
+                if (interest.anyTopic) {
+                    add(entry.getKey(), ANY_TOPIC, null);
+                }
+                for (String topic : interest.exactTopics) {
+                    add(entry.getKey(), EXACT_TOPIC, topic);
+                }
+                for (String prefix : interest.topicPrefixes) {
+                    add(entry.getKey(), TOPIC_PREFIX, prefix);
+                }
+            }
+        }
+
+        InterestSet build() {
+            if (typeNames.isEmpty()) {
+                return EMPTY;
+            }
+            final Map<String, TopicInterest> interests = new TreeMap<String, TopicInterest>();
+            for (String typeName : typeNames) {
+                final Set<String> exact = exactTopics.get(typeName);
+                final Set<String> prefixes = topicPrefixes.get(typeName);
+                interests.put(typeName, new TopicInterest(anyTopic.containsKey(typeName),
+                    exact == null ? Collections.<String>emptySet() : exact,
+                    prefixes == null ? Collections.<String>emptyList() : new ArrayList<String>(prefixes)));
+            }
+            return new InterestSet(interests);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.cluster;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * The {@link org.vaadin.spring.events.Event#getSource() source} of the events that a {@link ClusterEventBridge} has
+ * received from another node of the cluster. The original sender of a remote event is not transferred.
+ */
+public final class RemoteNode implements Serializable {
+
+    private static final long serialVersionUID = -6153408291720384531L;
+
+    private final UUID nodeId;
+
+    RemoteNode(UUID nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Gets the id of the node that published the event.
+     *
+     * @return the node id, never {@code null}.
+     * @see ClusterEventBridge#getNodeId()
+     */
+    public UUID getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof RemoteNode && nodeId.equals(((RemoteNode) obj).nodeId);
+    }
+
+    @Override
+    public int hashCode() {
+        return nodeId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[nodeId=%s]", getClass().getSimpleName(), nodeId);
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ClusterTransport} that sends the frames over TCP connections. Every node listens on a server socket for
+ * the connections of its peers, and opens one connection of its own to every {@link #addPeer(InetSocketAddress)
+ * peer} when it first sends a frame to it. Frames are written with a length prefix. A peer that cannot be reached
+ * misses the frames that are sent while it is down; the connection is retried after a second.
+ * <p>
+ * Sending a frame never blocks: the frame is added to the send buffer of every peer, and every peer has a thread of
+ * its own that connects to the peer and writes the buffered frames. If the buffer of a peer is full, because the peer
+ * cannot keep up or the network is slow, new frames to that peer are dropped, see
+ * {@link #setMaxBufferedBytes(int)}. A write that does not complete within the {@link #setWriteTimeout(long, TimeUnit)
+ * write timeout} closes the connection, which is then reopened for the following frames.
+ * <p>
+ * A connection starts with the port that the connecting node listens on, so that the receiving node can tell which
+ * of its peers has connected. The receiving node learns the node id of that peer from the interest frames it receives
+ * on the connection, and from then on only sends a frame to that peer if the node id is one of the recipients of the
+ * frame. Frames are sent to the peers whose node id is not known yet regardless of their recipients.
+ * <p>
+ * The transport does not authenticate its peers, so it must only be reachable from the trusted nodes of the
+ * cluster. By default, it listens on the loopback address, which makes it possible to run several nodes on a single
+ * machine, for example in tests.
+ */
+public class TcpTransport implements ClusterTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(TcpTransport.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private static final long RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long WATCHDOG_INTERVAL_MILLIS = 100;
+
+    /**
+     * Starts a connection, followed by the port that the connecting node listens on. Larger than any frame length.
+     */
+    private static final int HELLO = 0x56454248;
+
+    private final InetSocketAddress bindAddress;
+
+    private final List<Peer> peers = new CopyOnWriteArrayList<Peer>();
+
+    private final List<Socket> inboundConnections = new CopyOnWriteArrayList<Socket>();
+
+    private volatile ServerSocket serverSocket;
+
+    private volatile boolean closed;
+
+    private volatile int maxBufferedBytes = 16 * 1024 * 1024;
+
+    private volatile long writeTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Creates a transport that listens on the specified port of the loopback address.
+     *
+     * @param port the port to listen on, or {@code 0} to use any free port.
+     */
+    public TcpTransport(int port) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Creates a transport that listens on the specified address. The address must not be reachable from outside the
+     * cluster, such as a public interface or the wildcard address on a machine with a public interface, as the
+     * transport accepts frames from anyone who can connect to it. Bind it to a private network, and restrict the
+     * classes that the {@link ClusterEventBridge#setClassFilter(java.util.function.Predicate) bridge deserializes} to
+     * an allowlist of the payload classes.
+     *
+     * @param bindAddress the address to listen on, never {@code null}.
+     */
+    public TcpTransport(InetSocketAddress bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Adds a peer to send the frames to. Peers can be added before or after the transport has been started.
+     *
+     * @param address the address the peer listens on, never {@code null}.
+     */
+    public void addPeer(InetSocketAddress address) {
+        peers.add(new Peer(address));
+    }
+
+    /**
+     * Sets the maximum number of bytes of the frames that are buffered for a peer while they wait to be written to it.
+     * A frame that does not fit into the buffer is dropped, unless the buffer is empty. Defaults to 16 MB.
+     *
+     * @param maxBufferedBytes the maximum number of bytes, must be positive.
+     */
+    public void setMaxBufferedBytes(int maxBufferedBytes) {
+        if (maxBufferedBytes < 1) {
+            throw new IllegalArgumentException("Maximum buffered bytes must be positive");
+        }
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Sets for how long writing a frame to a peer may take before the connection is closed. Defaults to 10 seconds.
+     *
+     * @param timeout the timeout, must be positive.
+     * @param unit    the unit of {@code timeout}, never {@code null}.
+     */
+    public void setWriteTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Write timeout must be positive");
+        }
+        this.writeTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Gets the port that the transport listens on.
+     *
+     * @return the port, or {@code -1} if the transport has not been started.
+     */
+    public int getLocalPort() {
+        final ServerSocket serverSocket = this.serverSocket;
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    @Override
+    public synchronized void start(Receiver receiver) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("The transport has already been started");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+        logger.debug("Listening for cluster peers on [{}]", serverSocket.getLocalSocketAddress());
+        startThread("event-bus-cluster-acceptor-" + getLocalPort(), () -> accept(receiver));
+        startThread("event-bus-cluster-watchdog-" + getLocalPort(), this::watchWrites);
+    }
+
+    private void accept(Receiver receiver) {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                inboundConnections.add(socket);
+                startThread("event-bus-cluster-reader-" + socket.getRemoteSocketAddress(), () -> read(socket, receiver));
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.error("Could not accept connection from cluster peer", e);
+                }
+            }
+        }
+    }
+
+    private void read(Socket socket, Receiver receiver) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            Peer peer = null;
+            while (!closed) {
+                final int length = in.readInt();
+                if (length == HELLO) {
+                    peer = findPeer(socket.getInetAddress(), in.readInt());
+                    continue;
+                }
+                if (length < 0 || length > FrameCodec.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                final byte[] frame = new byte[length];
+                in.readFully(frame);
+                if (peer != null) {
+                    learnNodeId(peer, frame);
+                }
+                receiver.receive(frame);
+            }
+        } catch (EOFException e) {
+            logger.debug("Cluster peer [{}] closed the connection", socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            if (!closed) {
+                logger.warn("Lost connection from cluster peer [{}]", socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            inboundConnections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private Peer findPeer(InetAddress address, int port) {
+        for (Peer peer : peers) {
+            if (peer.address.getPort() == port && address.equals(peer.address.getAddress())) {
+                return peer;
+            }
+        }
+        logger.debug("Cluster node [{}:{}] is not a peer of this node", address, port);
+        return null;
+    }
+
+    private static void learnNodeId(Peer peer, byte[] frame) {
+        final UUID nodeId = FrameCodec.getInterestOrigin(frame);
+        if (nodeId != null && !nodeId.equals(peer.nodeId)) {
+            logger.debug("Cluster peer [{}] runs node [{}]", peer.address, nodeId);
+            peer.nodeId = nodeId;
+        }
+    }
+
+    @Override
+    public void send(byte[] frame, Collection<UUID> recipients) {
+        if (closed) {
+            return;
+        }
+        for (Peer peer : peers) {
+            final UUID nodeId = peer.nodeId;
+            // A peer whose node id is not known yet may be any of the recipients
+            if (recipients.isEmpty() || nodeId == null || recipients.contains(nodeId)) {
+                peer.enqueue(frame);
+            }
+        }
+    }
+
+    private void watchWrites() {
+        while (!closed) {
+            try {
+                Thread.sleep(WATCHDOG_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            final long now = System.nanoTime();
+            for (Peer peer : peers) {
+                peer.checkWriteTimeout(now);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        final ServerSocket serverSocket = this.serverSocket;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                logger.debug("Could not close server socket", e);
+            }
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+        for (Socket socket : inboundConnections) {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void startThread(String name, Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Could not close socket", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[bindAddress=%s, peers=%s]", getClass().getSimpleName(), bindAddress, peers);
+    }
+
+    /**
+     * The outbound connection to a peer, with the buffer of the frames to write to it and the thread that writes them.
+     */
+    private final class Peer {
+
+        private final InetSocketAddress address;
+        // The following fields are guarded by this
+        private final ArrayDeque<byte[]> buffer = new ArrayDeque<byte[]>();
+        private long bufferedBytes;
+        private long droppedFrames;
+        private boolean senderStarted;
+        private boolean peerClosed;
+        // The following fields are only accessed by the sender thread
+        private DataOutputStream out;
+        private long retryAt;
+        // The node id is learned by the reader of the inbound connection from the peer
+        private volatile UUID nodeId;
+        // The following fields are also accessed by the watchdog
+        private volatile Socket socket;
+        private volatile long writeDeadline;
+        private volatile boolean writing;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        synchronized void enqueue(byte[] frame) {
+            if (peerClosed) {
+                return;
+            }
+            if (!buffer.isEmpty() && bufferedBytes + frame.length > maxBufferedBytes) {
+                if (droppedFrames++ == 0) {
+                    logger.warn("Send buffer of cluster peer [{}] is full, dropping frames", address);
+                }
+                return;
+            }
+            buffer.add(frame);
+            bufferedBytes += frame.length;
+            if (!senderStarted) {
+                senderStarted = true;
+                startThread("event-bus-cluster-sender-" + address, this::sendBufferedFrames);
+            }
+            notifyAll();
+        }
+
+        private void sendBufferedFrames() {
+            try {
+                while (true) {
+                    final byte[] frame;
+                    synchronized (this) {
+                        while (buffer.isEmpty() && !peerClosed) {
+                            wait();
+                        }
+                        if (peerClosed) {
+                            return;
+                        }
+                        frame = buffer.poll();
+                        bufferedBytes -= frame.length;
+                        if (droppedFrames > 0) {
+                            logger.warn("Dropped {} frames to cluster peer [{}]", droppedFrames, address);
+                            droppedFrames = 0;
+                        }
+                    }
+                    write(frame);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("Sender of cluster peer [{}] was interrupted", address);
+            } finally {
+                // The peer may have been closed while connecting
+                closeSocket();
+            }
+        }
+
+        private void write(byte[] frame) {
+            try {
+                if (socket == null) {
+                    if (retryAt != 0 && System.nanoTime() - retryAt < 0) {
+                        return;
+                    }
+                    final Socket socket = new Socket();
+                    // Assigned before connecting, so that a failed connection is closed as well
+                    this.socket = socket;
+                    socket.setTcpNoDelay(true);
+                    socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out.writeInt(HELLO);
+                    out.writeInt(getLocalPort());
+                    logger.debug("Connected to cluster peer [{}]", address);
+                }
+                writeDeadline = System.nanoTime() + writeTimeoutNanos;
+                writing = true;
+                try {
+                    out.writeInt(frame.length);
+                    out.write(frame);
+                    out.flush();
+                } finally {
+                    writing = false;
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warn("Could not send frame to cluster peer [{}]", address, e);
+                }
+                closeSocket();
+                retryAt = System.nanoTime() + RETRY_DELAY_NANOS;
+            }
+        }
+
+        /**
+         * Closes the connection if the current write has exceeded the write timeout, which makes the write fail.
+         */
+        void checkWriteTimeout(long now) {
+            if (writing && now - writeDeadline > 0) {
+                final Socket socket = this.socket;
+                if (socket != null) {
+                    logger.warn("Writing to cluster peer [{}] timed out, closing the connection", address);
+                    closeQuietly(socket);
+                }
+            }
+        }
+
+        private void closeSocket() {
+            final Socket socket = this.socket;
+            if (socket != null) {
+                closeQuietly(socket);
+                this.socket = null;
+                out = null;
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                peerClosed = true;
+                buffer.clear();
+                bufferedBytes = 0;
+                notifyAll();
+            }
+            // Also interrupts a blocked write; the sender thread discards the socket
+            final Socket socket = this.socket;
+            if (socket != null) {
+                closeQuietly(socket);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return address.toString();
+        }
+    }
+}
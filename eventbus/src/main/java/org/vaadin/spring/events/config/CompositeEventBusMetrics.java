@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.config;
+
+import org.vaadin.spring.events.EventBusMetrics;
+import org.vaadin.spring.events.EventScope;
+
+import java.util.List;
+
+/**
+ * {@link EventBusMetrics} that passes the metrics on to several other metrics. The contexts of the delegates are
+ * only collected into an array if any delegate returns a context, so that delegates that do not use contexts cost
+ * no allocations.
+ */
+class CompositeEventBusMetrics implements EventBusMetrics {
+
+    private final EventBusMetrics[] metrics;
+
+    CompositeEventBusMetrics(List<EventBusMetrics> metrics) {
+        this.metrics = metrics.toArray(new EventBusMetrics[0]);
+    }
+
+    @Override
+    public void eventPublished(EventScope scope, String topic, Class<?> payloadType) {
+        for (EventBusMetrics m : metrics) {
+            m.eventPublished(scope, topic, payloadType);
+        }
+    }
+
+    @Override
+    public void eventDispatched(EventScope scope, String topic, Class<?> payloadType, boolean propagated,
+                                int listenerCount, long durationNanos) {
+        for (EventBusMetrics m : metrics) {
+            m.eventDispatched(scope, topic, payloadType, propagated, listenerCount, durationNanos);
+        }
+    }
+
+    @Override
+    public Object dispatchStarted(EventScope scope, String topic, Class<?> payloadType, boolean propagated) {
+        Object[] contexts = null;
+        for (int i = 0; i < metrics.length; i++) {
+            contexts = withContext(contexts, i, metrics[i].dispatchStarted(scope, topic, payloadType, propagated));
+        }
+        return contexts;
+    }
+
+    @Override
+    public void dispatchFinished(Object context, int listenerCount) {
+        final Object[] contexts = (Object[]) context;
+        for (int i = metrics.length - 1; i >= 0; i--) {
+            metrics[i].dispatchFinished(contexts == null ? null : contexts[i], listenerCount);
+        }
+    }
+
+    @Override
+    public Object listenerInvocationStarted(EventScope scope, String topic, Class<?> payloadType,
+                                            Class<?> listenerClass, String listenerMethod) {
+        Object[] contexts = null;
+        for (int i = 0; i < metrics.length; i++) {
+            contexts = withContext(contexts, i, metrics[i].listenerInvocationStarted(scope, topic, payloadType,
+                listenerClass, listenerMethod));
+        }
+        return contexts;
+    }
+
+    @Override
+    public void listenerInvocationFinished(Object context) {
+        final Object[] contexts = (Object[]) context;
+        for (int i = metrics.length - 1; i >= 0; i--) {
+            metrics[i].listenerInvocationFinished(contexts == null ? null : contexts[i]);
+        }
+    }
+
+    private Object[] withContext(Object[] contexts, int index, Object context) {
+        if (context == null) {
+            return contexts;
+        }
+        if (contexts == null) {
+            contexts = new Object[metrics.length];
+        }
+        contexts[index] = context;
+        return contexts;
+    }
+
+    @Override
+    public void batchDispatched(EventScope scope, int eventCount, boolean propagated, int deliveryCount,
+                                long durationNanos) {
+        for (EventBusMetrics m : metrics) {
+            m.batchDispatched(scope, eventCount, propagated, deliveryCount, durationNanos);
+        }
+    }
+
+    @Override
+    public void listenerCountChanged(EventScope scope, int delta) {
+        for (EventBusMetrics m : metrics) {
+            m.listenerCountChanged(scope, delta);
+        }
+    }
+}
@@ -15,26 +15,106 @@
  */
 package org.vaadin.spring.events.config;
 
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.VaadinSession;
 import com.vaadin.flow.spring.scopes.VaadinSessionScope;
 import com.vaadin.flow.spring.scopes.VaadinUIScope;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
+import org.springframework.core.env.Environment;
 import org.vaadin.spring.events.EventBus;
+import org.vaadin.spring.events.EventBusMetrics;
+import org.vaadin.spring.events.OverflowPolicy;
+import org.vaadin.spring.events.annotation.EventBusExecutor;
 import org.vaadin.spring.events.annotation.EventBusProxy;
 import org.vaadin.spring.events.internal.ScopedEventBus;
 import org.vaadin.spring.events.support.VaadinEventBusAwareProcessor;
 
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
 /**
- * Configuration class to configure the Spring Vaadin Eventbus
+ * Configuration class to configure the Spring Vaadin Eventbus.
+ * <p>
+ * If the application context contains an {@link Executor} bean qualified with {@link EventBusExecutor}, the event
+ * buses use it to invoke the listeners of asynchronously published events. If the executor is a
+ * {@link ScheduledExecutorService}, it also times the windows of coalesced events.
+ * <p>
+ * If the {@value #ACCESS_DELIVERY_PROPERTY} property is {@code true}, the session and UI event buses deliver their
+ * events while holding the session lock, batching the events published by background threads into single
+ * {@link VaadinSession#access(com.vaadin.flow.server.Command)} and {@link UI#access(com.vaadin.flow.server.Command)}
+ * calls.
+ * <p>
+ * The {@value #PARALLEL_FAN_OUT_THRESHOLD_PROPERTY} property sets the number of child event buses from which on the
+ * event buses propagate their events to their children in parallel.
+ * <p>
+ * If the {@value #LISTENER_QUEUE_CAPACITY_PROPERTY} property is positive, every listener gets a bounded queue of
+ * its own, and the {@value #LISTENER_QUEUE_OVERFLOW_POLICY_PROPERTY} property decides what happens to an event when
+ * the queue is full.
+ * <p>
+ * If the application context contains {@link EventBusMetrics} beans, the event buses report their metrics to them.
+ * If the {@code vaadin-spring-addon-eventbus-micrometer} module is on the classpath, its configuration is imported
+ * automatically, which records the metrics with Micrometer. If the {@code vaadin-spring-addon-eventbus-jfr} module is
+ * on the classpath and the {@value #FLIGHT_RECORDER_METRICS_PROPERTY} property is {@code true}, its configuration is
+ * imported as well, which emits Java Flight Recorder events.
  *
  * @author Gert-Jan Timmer (gjr.timmer@gmail.com)
  */
 @Configuration
+@Import(EventBusMetricsImportSelector.class)
 public class EventBusConfiguration {
 
+    /**
+     * Name of the property that makes the session and UI event buses deliver their events while holding the session
+     * lock. Defaults to {@code false}.
+     */
+    public static final String ACCESS_DELIVERY_PROPERTY = "vaadin4spring.event-bus.access-delivery";
+
+    /**
+     * Name of the property that sets the {@link ScopedEventBus#setParallelFanOutThreshold(int) parallel fan-out
+     * threshold} of the event buses. By default, events are never propagated in parallel.
+     */
+    public static final String PARALLEL_FAN_OUT_THRESHOLD_PROPERTY = "vaadin4spring.event-bus.parallel-fan-out-threshold";
+
+    /**
+     * Name of the property that sets the {@link ScopedEventBus#setListenerQueues(int, OverflowPolicy) capacity of the
+     * listener queues} of the event buses. Defaults to {@code 0}, which delivers the events to the listeners directly.
+     */
+    public static final String LISTENER_QUEUE_CAPACITY_PROPERTY = "vaadin4spring.event-bus.listener-queue-capacity";
+
+    /**
+     * Name of the property that sets the {@link OverflowPolicy} of the listener queues of the event buses. Defaults to
+     * {@link OverflowPolicy#BLOCK}.
+     */
+    public static final String LISTENER_QUEUE_OVERFLOW_POLICY_PROPERTY = "vaadin4spring.event-bus.listener-queue-overflow-policy";
+
+    /**
+     * Name of the property that enables the Java Flight Recorder metrics of the
+     * {@code vaadin-spring-addon-eventbus-jfr} module. Defaults to {@code false}.
+     */
+    public static final String FLIGHT_RECORDER_METRICS_PROPERTY = "vaadin4spring.event-bus.flight-recorder-metrics";
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired(required = false)
+    @EventBusExecutor
+    private Executor eventBusExecutor;
+
+    private EventBusMetrics eventBusMetrics;
+
+    @Autowired(required = false)
+    void setEventBusMetrics(List<EventBusMetrics> eventBusMetrics) {
+        this.eventBusMetrics = eventBusMetrics.size() == 1 ? eventBusMetrics.get(0)
+            : new CompositeEventBusMetrics(eventBusMetrics);
+    }
+
     @Bean
     VaadinEventBusAwareProcessor vaadinEventBusProcessor() {
         return new VaadinEventBusAwareProcessor();
@@ -42,7 +122,7 @@ public class EventBusConfiguration {
 
     @Bean
     EventBus.ApplicationEventBus applicationEventBus() {
-        return new ScopedEventBus.DefaultApplicationEventBus();
+        return configure(new ScopedEventBus.DefaultApplicationEventBus());
     }
 
     @Bean
@@ -56,7 +136,11 @@ public class EventBusConfiguration {
     @Scope(value = VaadinSessionScope.VAADIN_SESSION_SCOPE_NAME, proxyMode = ScopedProxyMode.NO)
     @Primary
     EventBus.SessionEventBus sessionEventBus() {
-        return new ScopedEventBus.DefaultSessionEventBus(applicationEventBus());
+        ScopedEventBus.DefaultSessionEventBus eventBus = new ScopedEventBus.DefaultSessionEventBus(applicationEventBus());
+        if (isAccessDeliveryEnabled()) {
+            eventBus.setAccessSession(VaadinSession.getCurrent());
+        }
+        return configure(eventBus);
     }
 
     @Bean
@@ -70,6 +154,27 @@ public class EventBusConfiguration {
     @Scope(value = VaadinUIScope.VAADIN_UI_SCOPE_NAME, proxyMode = ScopedProxyMode.NO)
     @Primary
     EventBus.UIEventBus uiEventBus() {
-        return new ScopedEventBus.DefaultUIEventBus(sessionEventBus());
+        ScopedEventBus.DefaultUIEventBus eventBus = new ScopedEventBus.DefaultUIEventBus(sessionEventBus());
+        if (isAccessDeliveryEnabled()) {
+            eventBus.setAccessUI(UI.getCurrent());
+        }
+        return configure(eventBus);
+    }
+
+    private boolean isAccessDeliveryEnabled() {
+        return environment.getProperty(ACCESS_DELIVERY_PROPERTY, Boolean.class, Boolean.FALSE);
+    }
+
+    private <T extends ScopedEventBus> T configure(T eventBus) {
+        eventBus.setExecutor(eventBusExecutor);
+        if (eventBusExecutor instanceof ScheduledExecutorService) {
+            eventBus.setScheduler((ScheduledExecutorService) eventBusExecutor);
+        }
+        eventBus.setParallelFanOutThreshold(
+            environment.getProperty(PARALLEL_FAN_OUT_THRESHOLD_PROPERTY, Integer.class, Integer.MAX_VALUE));
+        eventBus.setListenerQueues(environment.getProperty(LISTENER_QUEUE_CAPACITY_PROPERTY, Integer.class, 0),
+            environment.getProperty(LISTENER_QUEUE_OVERFLOW_POLICY_PROPERTY, OverflowPolicy.class, OverflowPolicy.BLOCK));
+        eventBus.setMetrics(eventBusMetrics);
+        return eventBus;
     }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.config;
+
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.ImportSelector;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports the configurations of the optional event bus metrics modules that are on the classpath. The Java Flight
+ * Recorder configuration is only imported if the {@value EventBusConfiguration#FLIGHT_RECORDER_METRICS_PROPERTY}
+ * property is {@code true}, as its metrics make every event bus instrument its listener invocations.
+ */
+class EventBusMetricsImportSelector implements ImportSelector, EnvironmentAware {
+
+    static final String MICROMETER_CONFIGURATION =
+        "org.vaadin.spring.events.micrometer.MicrometerEventBusMetricsConfiguration";
+
+    static final String MICROMETER_REGISTRY = "io.micrometer.core.instrument.MeterRegistry";
+
+    static final String FLIGHT_RECORDER_CONFIGURATION =
+        "org.vaadin.spring.events.jfr.FlightRecorderEventBusMetricsConfiguration";
+
+    static final String FLIGHT_RECORDER = "jdk.jfr.FlightRecorder";
+
+    private Environment environment;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public String[] selectImports(AnnotationMetadata importingClassMetadata) {
+        final ClassLoader classLoader = EventBusMetricsImportSelector.class.getClassLoader();
+        final List<String> imports = new ArrayList<String>();
+        if (ClassUtils.isPresent(MICROMETER_CONFIGURATION, classLoader)
+            && ClassUtils.isPresent(MICROMETER_REGISTRY, classLoader)) {
+            imports.add(MICROMETER_CONFIGURATION);
+        }
+        if (environment.getProperty(EventBusConfiguration.FLIGHT_RECORDER_METRICS_PROPERTY, Boolean.class, Boolean.FALSE)
+            && ClassUtils.isPresent(FLIGHT_RECORDER_CONFIGURATION, classLoader)
+            && ClassUtils.isPresent(FLIGHT_RECORDER, classLoader)) {
+            imports.add(FLIGHT_RECORDER_CONFIGURATION);
+        }
+        return imports.toArray(new String[0]);
+    }
+}
@@ -15,16 +15,40 @@
  */
 package org.vaadin.spring.events.internal;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.vaadin.spring.events.Event;
 import org.vaadin.spring.events.EventBus;
+import org.vaadin.spring.events.EventBusMetrics;
+import org.vaadin.spring.events.ListenerLatencyStatistics;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base implementation of {@link org.vaadin.spring.events.internal.ListenerCollection.Listener} that implements
- * the {@link #supports(org.vaadin.spring.events.Event)}  method. An event is supported if:
+ * the {@link #supports(LazyEvent)}  method. An event is supported if:
  * <ul>
  * <li>The payload type of the listener is either the same type as, or a supertype of, the payload type of the event</li>
  * <li>The listener allows propagating events, or the event was originally published on event bus that the listener was subscribed to</li>
  * </ul>
+ * Once the listener has been {@link #markRemoved() removed}, it does not support any events.
+ * The target of the listener is either strongly referenced, or weakly referenced through a
+ * {@link ListenerCollection.TargetReference}, in which case the listener stops supporting any events once the target
+ * has been garbage collected.
+ * <p>
+ * The topic is interned when the listener is deserialized, so that the listeners of all the deserialized sessions
+ * share the same topic strings instead of holding a copy each.
+ * <p>
+ * When the owning event bus has {@link ScopedEventBus#getMetrics() metrics}, every invocation of the target is
+ * reported to them, see {@link EventBusMetrics#listenerInvocationStarted(org.vaadin.spring.events.EventScope, String,
+ * Class, Class, String)}. When the owning event bus
+ * {@link ScopedEventBus#setListenerLatencyTracking(boolean) tracks listener latencies}, the latency and CPU time of
+ * every invocation are recorded by the listener itself, and invocations that exceed the
+ * {@link ScopedEventBus#setSlowListenerThreshold(long, TimeUnit) slow listener threshold} are logged.
  *
  * @author Petter Holmström (petter@vaadin.com)
  */
@@ -32,37 +56,248 @@ abstract class AbstractListenerWrapper implements ListenerCollection.Listener {
 
     private static final long serialVersionUID = 6211420845165980671L;
 
+    private static final Logger logger = LoggerFactory.getLogger(AbstractListenerWrapper.class);
+
     private final EventBus owningEventBus;
 
-    private final Object listenerTarget;
+    private transient Object listenerTarget;
+
+    private transient ListenerCollection.TargetReference targetReference;
+
+    private final boolean weakReference;
 
     private final boolean includingPropagatingEvents;
 
-    private final String topic;
+    private transient String topic;
+
+    private transient volatile boolean removed;
 
-    AbstractListenerWrapper(EventBus owningEventBus, Object listenerTarget, String topic, boolean includingPropagatingEvents) {
+    private transient volatile ListenerLatency latency;
+
+    /**
+     * @param owningEventBus             the event bus that the listener is subscribed to.
+     * @param listenerTarget             the target object of the listener.
+     * @param targetReference            a weak reference to the target object, or {@code null} to reference the target
+     *                                   strongly.
+     * @param topic                      the topic that the listener is subscribed to, may be {@code null}.
+     * @param includingPropagatingEvents whether the listener is interested in propagated events.
+     */
+    AbstractListenerWrapper(EventBus owningEventBus, Object listenerTarget,
+                            ListenerCollection.TargetReference targetReference, String topic,
+                            boolean includingPropagatingEvents) {
         this.owningEventBus = owningEventBus;
         this.topic = topic;
-        this.listenerTarget = listenerTarget;
+        this.targetReference = targetReference;
+        this.weakReference = targetReference != null;
+        this.listenerTarget = weakReference ? null : listenerTarget;
         this.includingPropagatingEvents = includingPropagatingEvents;
     }
 
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        final String topic = (String) ois.readObject();
+        this.topic = topic == null ? null : topic.intern();
+        final Object target = ois.readObject();
+        if (!weakReference) {
+            listenerTarget = target;
+        } else if (target != null) {
+            targetReference = new ListenerCollection.TargetReference(target);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.defaultWriteObject();
+        oos.writeObject(topic);
+        oos.writeObject(getListenerTarget());
+    }
+
     /**
      * Gets the payload type of the listener.
      */
-    protected abstract Class<?> getPayloadType();
+    @Override
+    public abstract Class<?> getPayloadType();
 
     /**
      * Gets the target object that this listener is wrapping.
+     *
+     * @return the target, or {@code null} if the target was weakly referenced and has been garbage collected.
      */
+    @Override
     public Object getListenerTarget() {
+        if (weakReference) {
+            return targetReference == null ? null : targetReference.get();
+        }
         return listenerTarget;
     }
 
+    /**
+     * Marks the listener as removed, after which it does not support any events.
+     */
+    @Override
+    public boolean markRemoved() {
+        removed = true;
+        return true;
+    }
+
+    @Override
+    public ListenerCollection.TargetReference getTargetReference() {
+        return targetReference;
+    }
+
+    @Override
+    public void setTargetReference(ListenerCollection.TargetReference targetReference) {
+        if (weakReference) {
+            this.targetReference = targetReference;
+        }
+    }
+
+    /**
+     * Gets the topic that the listener was subscribed to, or {@code null} if it was subscribed without a topic.
+     */
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Returns {@link ListenerCollection.TopicMatching#EXACT} if the listener was subscribed to a topic, and
+     * {@link ListenerCollection.TopicMatching#ANY} otherwise.
+     */
+    @Override
+    public ListenerCollection.TopicMatching getTopicMatching() {
+        return topic == null ? ListenerCollection.TopicMatching.ANY : ListenerCollection.TopicMatching.EXACT;
+    }
+
+    /**
+     * Checks whether the listener was subscribed to events that have propagated from a parent event bus.
+     */
+    @Override
+    public boolean isIncludingPropagatingEvents() {
+        return includingPropagatingEvents;
+    }
+
+    /**
+     * Publishes the event to the target of the listener, unless the target has been garbage collected.
+     */
+    @Override
+    public void publish(LazyEvent event) {
+        final Object target = getListenerTarget();
+        if (target == null) {
+            return;
+        }
+        final ScopedEventBus eventBus = getScopedEventBus();
+        if (eventBus == null || !eventBus.isInstrumentingListeners()) {
+            invoke(target, event);
+            return;
+        }
+        invokeInstrumented(eventBus, target, event.getTopic(), event.getPayload().getClass(), event,
+            () -> invoke(target, event));
+    }
+
+    /**
+     * Publishes the batch of events to the target of the listener, unless the target has been garbage collected.
+     */
+    @Override
+    public void publishBatch(List<Event<?>> events, ListenerCollection.FailureHandler failureHandler) {
+        final Object target = getListenerTarget();
+        if (target == null) {
+            return;
+        }
+        final ScopedEventBus eventBus = getScopedEventBus();
+        if (eventBus == null || !eventBus.isInstrumentingListeners()) {
+            invokeBatch(target, events);
+            return;
+        }
+        invokeInstrumented(eventBus, target, events.get(0).getTopic(), getPayloadType(), events.get(0),
+            () -> invokeBatch(target, events));
+    }
+
+    private ScopedEventBus getScopedEventBus() {
+        return owningEventBus instanceof ScopedEventBus ? (ScopedEventBus) owningEventBus : null;
+    }
+
+    private void invokeInstrumented(ScopedEventBus eventBus, Object target, String topic, Class<?> payloadType,
+                                    Object event, Runnable invocation) {
+        final EventBusMetrics metrics = eventBus.getMetrics();
+        final ListenerLatency latency = eventBus.isListenerLatencyTracking() ? getLatency() : null;
+        final Object context = metrics == null ? null
+            : metrics.listenerInvocationStarted(eventBus.getScope(), topic, payloadType, target.getClass(),
+            getListenerMethodName());
+        final long cpuTimeStart = latency == null ? -1 : ListenerLatency.currentThreadCpuTime();
+        final long start = System.nanoTime();
+        try {
+            invocation.run();
+        } finally {
+            if (latency != null) {
+                final long elapsed = System.nanoTime() - start;
+                final long cpuTimeEnd = cpuTimeStart < 0 ? -1 : ListenerLatency.currentThreadCpuTime();
+                final long slowThreshold = eventBus.getSlowListenerThreshold(TimeUnit.NANOSECONDS);
+                if (latency.record(elapsed, cpuTimeStart, cpuTimeEnd, slowThreshold)) {
+                    logger.warn("Listener [{}.{}] took {} ms ({} ms CPU) to handle event [{}] on event bus [{}]",
+                        target.getClass().getName(), getListenerMethodName(),
+                        TimeUnit.NANOSECONDS.toMillis(elapsed),
+                        cpuTimeEnd < 0 ? "unknown" : TimeUnit.NANOSECONDS.toMillis(cpuTimeEnd - cpuTimeStart),
+                        event, eventBus);
+                }
+            }
+            if (metrics != null) {
+                metrics.listenerInvocationFinished(context);
+            }
+        }
+    }
+
+    private ListenerLatency getLatency() {
+        ListenerLatency latency = this.latency;
+        if (latency == null) {
+            synchronized (this) {
+                latency = this.latency;
+                if (latency == null) {
+                    latency = new ListenerLatency();
+                    this.latency = latency;
+                }
+            }
+        }
+        return latency;
+    }
+
+    /**
+     * Takes a snapshot of the latencies of this listener.
+     *
+     * @return the statistics, or {@code null} if no latencies have been recorded.
+     * @see ScopedEventBus#setListenerLatencyTracking(boolean)
+     */
+    ListenerLatencyStatistics getLatencyStatistics() {
+        final ListenerLatency latency = this.latency;
+        return latency == null ? null : latency.getStatistics(getListenerTarget(), getPayloadType(),
+            getListenerMethodName());
+    }
+
+    /**
+     * Invokes the target of the listener with the event.
+     *
+     * @param target the target, never {@code null}.
+     * @param event  the event, never {@code null}.
+     */
+    abstract void invoke(Object target, LazyEvent event);
+
+    /**
+     * Invokes the target of a {@link #isBatchListener() batch listener} with the events.
+     *
+     * @param target the target, never {@code null}.
+     * @param events the events, never {@code null} nor empty.
+     */
+    abstract void invokeBatch(Object target, List<Event<?>> events);
+
+    /**
+     * Gets the name of the method of the target that the listener invokes.
+     */
+    abstract String getListenerMethodName();
+
     @Override
-    public boolean supports(Event<?> event) {
+    public boolean supports(LazyEvent event) {
         final Class<?> eventPayloadType = event.getPayload().getClass();
-        return (event.getTopic().equals(topic) || topic == null) &&
+        return !removed && (!weakReference || getListenerTarget() != null) &&
+                (event.getTopic().equals(topic) || topic == null) &&
                 getPayloadType().isAssignableFrom(eventPayloadType) &&
                 (includingPropagatingEvents || event.getEventBus().equals(owningEventBus));
     }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import com.vaadin.flow.server.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.spring.events.Event;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the events of an event bus while holding the lock of a Vaadin session, typically by means of
+ * {@link com.vaadin.flow.component.UI#access(Command)} or
+ * {@link com.vaadin.flow.server.VaadinSession#access(Command)}.
+ * <p>
+ * Events published by a thread that already holds the lock are delivered immediately. Events published by other
+ * threads are queued, and all the events that are queued before the access command gets to run are delivered by that
+ * single command. This means that a burst of events from a background thread results in one lock acquisition and one
+ * push round-trip instead of one per event and listener. The order of the events is preserved.
+ * <p>
+ * Queued events are delivered after the publishing method has returned. A listener that fails to handle a queued event
+ * does not prevent the other listeners from receiving it; the failure is logged instead.
+ * Intended only for internal use by the framework.
+ */
+final class AccessDelivery {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessDelivery.class);
+
+    private static final ListenerCollection.FailureHandler LOGGING_FAILURE_HANDLER = (listener, event, exception) ->
+        logger.error("Listener [{}] failed to handle event [{}]", listener, event, exception);
+
+    private final BiConsumer<LazyEvent, ListenerCollection.FailureHandler> publisher;
+    private final BiConsumer<List<Event<?>>, ListenerCollection.FailureHandler> batchPublisher;
+    private final Consumer<Command> access;
+    private final BooleanSupplier hasLock;
+    private final Queue<List<Event<?>>> pending = new ConcurrentLinkedQueue<List<Event<?>>>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param publisher      publishes a single event to the listeners, never {@code null}.
+     * @param batchPublisher publishes a list of events to the listeners, never {@code null}.
+     * @param access         runs a command while holding the lock, never {@code null}.
+     * @param hasLock        checks whether the current thread holds the lock, never {@code null}.
+     */
+    AccessDelivery(BiConsumer<LazyEvent, ListenerCollection.FailureHandler> publisher,
+                   BiConsumer<List<Event<?>>, ListenerCollection.FailureHandler> batchPublisher,
+                   Consumer<Command> access, BooleanSupplier hasLock) {
+        this.publisher = publisher;
+        this.batchPublisher = batchPublisher;
+        this.access = access;
+        this.hasLock = hasLock;
+    }
+
+    /**
+     * Delivers the specified event immediately if the current thread holds the lock, otherwise queues it for delivery
+     * by an access command. The event is only materialized if it has to be queued.
+     *
+     * @param event          the event to deliver, never {@code null}.
+     * @param failureHandler the handler to report failing listeners to if the event is delivered immediately, may be
+     *                       {@code null}.
+     */
+    void deliver(LazyEvent event, ListenerCollection.FailureHandler failureHandler) {
+        if (hasLock.getAsBoolean()) {
+            deliverPending();
+            publisher.accept(event, failureHandler);
+        } else {
+            enqueue(Collections.<Event<?>>singletonList(event.getEvent()));
+        }
+    }
+
+    /**
+     * Delivers the specified events immediately if the current thread holds the lock, otherwise queues them for
+     * delivery by an access command.
+     *
+     * @param events         the events to deliver, never {@code null}.
+     * @param failureHandler the handler to report failing listeners to if the events are delivered immediately, may
+     *                       be {@code null}.
+     */
+    void deliverAll(List<Event<?>> events, ListenerCollection.FailureHandler failureHandler) {
+        if (hasLock.getAsBoolean()) {
+            // Events queued earlier must not be overtaken by these
+            deliverPending();
+            batchPublisher.accept(events, failureHandler);
+        } else {
+            enqueue(events);
+        }
+    }
+
+    /**
+     * Runs the specified command right away if the current thread holds the lock, otherwise by an access command.
+     *
+     * @throws RuntimeException if the access command could not be scheduled.
+     */
+    void run(Command command) {
+        if (hasLock.getAsBoolean()) {
+            command.execute();
+        } else {
+            access.accept(command);
+        }
+    }
+
+    /**
+     * Checks whether the current thread holds the lock.
+     */
+    boolean holdsLock() {
+        return hasLock.getAsBoolean();
+    }
+
+    private void enqueue(List<Event<?>> events) {
+        pending.add(events);
+        if (scheduled.compareAndSet(false, true)) {
+            logger.trace("Scheduling access command to deliver pending events");
+            try {
+                access.accept(this::deliverPending);
+            } catch (RuntimeException e) {
+                logger.debug("Could not schedule access command, discarding pending events", e);
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Discards all the events that have not been delivered yet.
+     */
+    void clear() {
+        pending.clear();
+        scheduled.set(false);
+    }
+
+    private void deliverPending() {
+        // Reset the flag before draining, so that an event queued after the last poll schedules a new command
+        scheduled.set(false);
+        List<Event<?>> events;
+        while ((events = pending.poll()) != null) {
+            batchPublisher.accept(events, LOGGING_FAILURE_HANDLER);
+        }
+    }
+}
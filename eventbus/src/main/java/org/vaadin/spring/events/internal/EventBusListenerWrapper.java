@@ -19,8 +19,11 @@ import org.springframework.core.GenericTypeResolver;
 import org.springframework.util.Assert;
 import org.vaadin.spring.events.Event;
 import org.vaadin.spring.events.EventBus;
+import org.vaadin.spring.events.EventBusBatchListener;
 import org.vaadin.spring.events.EventBusListener;
 
+import java.util.List;
+
 /**
  * Implementation of {@link org.vaadin.spring.events.internal.AbstractListenerWrapper} that wraps a single
  * {@link org.vaadin.spring.events.EventBusListener} instance.
@@ -31,11 +34,14 @@ class EventBusListenerWrapper extends AbstractListenerWrapper {
 
     private static final long serialVersionUID = 8964309195124823892L;
     private final Class<?> payloadType;
+    private final boolean batchListener;
 
-    EventBusListenerWrapper(EventBus owningEventBus, EventBusListener<?> listenerTarget, String topic, boolean includingPropagatingEvents) {
-        super(owningEventBus, listenerTarget, topic, includingPropagatingEvents);
-        payloadType = GenericTypeResolver.resolveTypeArgument(listenerTarget.getClass(), EventBusListener.class);
+    EventBusListenerWrapper(EventBus owningEventBus, EventBusListener<?> listenerTarget, ListenerCollection.TargetReference targetReference, String topic, boolean includingPropagatingEvents) {
+        super(owningEventBus, listenerTarget, targetReference, topic, includingPropagatingEvents);
+        payloadType = GenericTypeResolver.resolveTypeArgument(listenerTarget.getClass(),
+                listenerTarget instanceof EventBusBatchListener ? EventBusBatchListener.class : EventBusListener.class);
         Assert.notNull(payloadType, "Could not resolve payload type");
+        batchListener = listenerTarget instanceof EventBusBatchListener;
     }
 
     @Override
@@ -45,13 +51,29 @@ class EventBusListenerWrapper extends AbstractListenerWrapper {
     }
 
     @Override
-    protected Class<?> getPayloadType() {
+    public Class<?> getPayloadType() {
         return payloadType;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public void publish(Event<?> event) {
-        getListenerTarget().onEvent(event);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void invoke(Object target, LazyEvent event) {
+        ((EventBusListener) target).onEvent(event.getEvent());
+    }
+
+    @Override
+    public boolean isBatchListener() {
+        return batchListener;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void invokeBatch(Object target, List<Event<?>> events) {
+        ((EventBusBatchListener) target).onEvents((List) events);
+    }
+
+    @Override
+    String getListenerMethodName() {
+        return batchListener ? "onEvents" : "onEvent";
     }
 }
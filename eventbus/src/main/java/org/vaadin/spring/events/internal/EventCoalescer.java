@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.spring.events.Event;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collapses high-frequency events into the latest event per key within a time window. Intended only for internal
+ * use by the framework.
+ * <p>
+ * Events are matched against a set of {@link Rule}s. The first event that matches a rule opens a window for the rule
+ * and the topic of the event; every further event for the same rule and topic replaces the pending one. When the
+ * window closes, only the latest event is delivered. A listener therefore receives at most one event per key and
+ * window, and the latest value is never lost.
+ * <p>
+ * The windows are timed by a {@link ScheduledExecutorService}, but the pending events are delivered by the executor
+ * of the event bus so that slow listeners cannot hold up the timer. At most one delivery per key is in flight; a
+ * window that closes while the previous event of its key is still being delivered is delivered after it, so that an
+ * older event can never overtake a newer one on a multi-threaded executor.
+ */
+final class EventCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventCoalescer.class);
+
+    private static final Rule[] NO_RULES = new Rule[0];
+
+    private volatile Rule[] rules = NO_RULES;
+    private final Map<Map.Entry<Rule, String>, Event<?>> pending = new HashMap<Map.Entry<Rule, String>, Event<?>>();
+    private final Map<Map.Entry<Rule, String>, Event<?>> ready = new HashMap<Map.Entry<Rule, String>, Event<?>>();
+    private final Set<Map.Entry<Rule, String>> draining = new HashSet<Map.Entry<Rule, String>>();
+    private final Consumer<Event<?>> delivery;
+
+    /**
+     * @param delivery delivers an event when its window closes, never {@code null}.
+     */
+    EventCoalescer(Consumer<Event<?>> delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * Rule that selects the events to coalesce. Rules are compared by identity.
+     */
+    static final class Rule implements Serializable {
+
+        private static final long serialVersionUID = 4417658227893263178L;
+
+        private final String topic;
+        private final Class<?> payloadType;
+        private final long windowNanos;
+
+        /**
+         * @param topic       the topic of the events to coalesce, or {@code null} to coalesce events of any topic.
+         * @param payloadType the payload type of the events to coalesce, never {@code null}.
+         * @param window      the length of the window, must be positive.
+         * @param unit        the unit of {@code window}, never {@code null}.
+         */
+        Rule(String topic, Class<?> payloadType, long window, TimeUnit unit) {
+            if (window <= 0) {
+                throw new IllegalArgumentException("The coalescing window must be positive");
+            }
+            this.topic = topic;
+            this.payloadType = payloadType;
+            this.windowNanos = unit.toNanos(window);
+        }
+
+        boolean matches(LazyEvent event) {
+            return (topic == null || topic.equals(event.getTopic())) && payloadType.isInstance(event.getPayload());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[topic=%s, payloadType=%s, window=%dms]", getClass().getSimpleName(), topic,
+                payloadType.getName(), TimeUnit.NANOSECONDS.toMillis(windowNanos));
+        }
+    }
+
+    /**
+     * Adds the specified rule.
+     */
+    synchronized void addRule(Rule rule) {
+        final Rule[] newRules = Arrays.copyOf(rules, rules.length + 1);
+        newRules[rules.length] = rule;
+        rules = newRules;
+    }
+
+    /**
+     * Removes the specified rule. Events that are already pending for the rule are still delivered.
+     */
+    synchronized void removeRule(Rule rule) {
+        final Rule[] newRules = new Rule[rules.length];
+        int size = 0;
+        for (Rule existing : rules) {
+            if (existing != rule) {
+                newRules[size++] = existing;
+            }
+        }
+        rules = size == 0 ? NO_RULES : Arrays.copyOf(newRules, size);
+    }
+
+    /**
+     * Checks whether there are any rules, i.e. whether any events may be coalesced.
+     */
+    boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * Offers the specified event for coalescing. The event is only materialized if it matches a rule.
+     *
+     * @param event     the event, never {@code null}.
+     * @param scheduler the scheduler that times the windows, never {@code null}.
+     * @param executor  the executor that delivers the event when the window closes, never {@code null}.
+     * @return true if the event matched a rule and will be delivered later, false if the event should be delivered
+     * right away.
+     */
+    boolean offer(LazyEvent event, ScheduledExecutorService scheduler, Executor executor) {
+        for (Rule rule : rules) {
+            if (rule.matches(event)) {
+                final Map.Entry<Rule, String> key = new AbstractMap.SimpleImmutableEntry<Rule, String>(rule,
+                    event.getTopic());
+                final boolean opened;
+                synchronized (pending) {
+                    opened = pending.put(key, event.getEvent()) == null;
+                }
+                if (opened) {
+                    logger.trace("Opening coalescing window for rule [{}] and topic [{}]", rule, event.getTopic());
+                    try {
+                        scheduler.schedule(() -> flush(key, executor), rule.windowNanos, TimeUnit.NANOSECONDS);
+                    } catch (RejectedExecutionException e) {
+                        logger.warn("Could not schedule coalescing window for rule [{}], delivering immediately", rule, e);
+                        flush(key, Runnable::run);
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discards all pending events, including the events of closed windows that have not been delivered yet.
+     */
+    void clear() {
+        synchronized (pending) {
+            pending.clear();
+            ready.clear();
+        }
+    }
+
+    private void flush(Map.Entry<Rule, String> key, Executor executor) {
+        final Event<?> event;
+        synchronized (pending) {
+            event = pending.remove(key);
+            if (event == null) {
+                return;
+            }
+            // A newer event replaces an older one that is still waiting for the drain of its key
+            ready.put(key, event);
+            if (!draining.add(key)) {
+                return;
+            }
+        }
+        try {
+            executor.execute(() -> drain(key));
+        } catch (RejectedExecutionException e) {
+            synchronized (pending) {
+                ready.remove(key);
+                draining.remove(key);
+            }
+            logger.error("Could not deliver coalesced event [{}]", event, e);
+        }
+    }
+
+    private void drain(Map.Entry<Rule, String> key) {
+        while (true) {
+            final Event<?> event;
+            synchronized (pending) {
+                event = ready.remove(key);
+                if (event == null) {
+                    draining.remove(key);
+                    return;
+                }
+            }
+            try {
+                delivery.accept(event);
+            } catch (RuntimeException e) {
+                logger.error("Could not deliver coalesced event [{}]", event, e);
+            }
+        }
+    }
+
+    /**
+     * Gets the scheduler that is used if the event bus has not been configured with one. The scheduler is created
+     * on first use and its single daemon thread only times the windows.
+     */
+    static ScheduledExecutorService getDefaultScheduler() {
+        return DefaultScheduler.INSTANCE;
+    }
+
+    private static final class DefaultScheduler {
+
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "event-bus-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
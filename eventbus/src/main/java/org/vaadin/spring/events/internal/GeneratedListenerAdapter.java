@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.vaadin.spring.events.EventBusListenerMethodFilter;
+import org.vaadin.spring.events.EventScope;
+import org.vaadin.spring.events.TopicFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class of the listener adapters that are generated at compile time by the event bus annotation processor, one
+ * for every class that has methods annotated with {@link org.vaadin.spring.events.annotation.EventBusListenerMethod}.
+ * An adapter describes the listener methods of its class, including the inherited ones, with everything that would
+ * otherwise be resolved from the annotations at runtime, and calls the methods directly. When an object of the class is
+ * subscribed, the event bus uses the adapter instead of scanning the class and invoking the methods through reflection.
+ * <p>
+ * Adapters are registered as {@link java.util.ServiceLoader services} and looked up once per class loader. The
+ * adapter that is used for a listener class is cached with that class, so it does not keep the class loader of the
+ * listener from being garbage collected. Intended only for use by the generated code.
+ */
+public abstract class GeneratedListenerAdapter {
+
+    private final Class<?> listenerClass;
+    private final List<ListenerMethodDescriptor> descriptors = new ArrayList<ListenerMethodDescriptor>();
+
+    /**
+     * @param listenerClass the class whose listener methods the adapter describes, never {@code null}.
+     */
+    protected GeneratedListenerAdapter(Class<?> listenerClass) {
+        this.listenerClass = listenerClass;
+    }
+
+    /**
+     * Calls a listener method directly.
+     */
+    @FunctionalInterface
+    public interface Invoker {
+        /**
+         * Calls the listener method.
+         *
+         * @param target   the object to call the method on, never {@code null}.
+         * @param argument the single argument of the method.
+         * @throws Throwable any exception thrown by the listener method.
+         */
+        void invoke(Object target, Object argument) throws Throwable;
+    }
+
+    /**
+     * Adds a listener method. Must only be called by the constructor of the generated adapter.
+     *
+     * @param declaringClass the class that declares the method, never {@code null}.
+     * @param name           the name of the method, never {@code null}.
+     * @param parameterType  the type of the single parameter of the method, never {@code null}.
+     * @param payloadType    the payload type of the events the method is interested in, never {@code null}.
+     * @param payloadMethod  true if the method takes the payload, false if it takes the event.
+     * @param batchMethod    true if the method takes a list of payloads or events.
+     * @param scope          the scope declared by the annotation, never {@code null}.
+     * @param sources        the sources declared by the annotation, never {@code null}.
+     * @param filter         an instance of the filter declared by the annotation, or {@code null} if there is none.
+     * @param topicFilter    an instance of the topic filter declared by the topic annotation, or {@code null} if the
+     *                       method has no topic annotation.
+     * @param topic          the topic declared by the topic annotation, or {@code null} if the method has no topic
+     *                       annotation.
+     * @param invoker        calls the method, or {@code null} if the method is not accessible to the adapter, in which
+     *                       case it is looked up and invoked like a method without an adapter.
+     */
+    protected final void addMethod(Class<?> declaringClass, String name, Class<?> parameterType, Class<?> payloadType,
+                                   boolean payloadMethod, boolean batchMethod, EventScope scope, Class<?>[] sources,
+                                   EventBusListenerMethodFilter filter, TopicFilter topicFilter, String topic,
+                                   Invoker invoker) {
+        descriptors.add(new ListenerMethodDescriptor(declaringClass, name, parameterType, payloadType, payloadMethod,
+            batchMethod, scope, sources, filter, topicFilter, topic, invoker));
+    }
+
+    /**
+     * Gets the class whose listener methods the adapter describes.
+     */
+    public final Class<?> getListenerClass() {
+        return listenerClass;
+    }
+
+    /**
+     * Gets the descriptors of the listener methods.
+     */
+    ListenerMethodDescriptor[] getDescriptors() {
+        return descriptors.toArray(new ListenerMethodDescriptor[descriptors.size()]);
+    }
+}
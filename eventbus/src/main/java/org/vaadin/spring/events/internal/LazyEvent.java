@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBus;
+import org.vaadin.spring.events.EventScope;
+
+/**
+ * Stand-in for an {@link Event} that is being published, which only creates the {@code Event} when a listener
+ * actually needs it. Deciding whether a listener supports an event, and invoking listener methods that take the
+ * payload, only requires the properties of the event, so publishing to such listeners allocates nothing.
+ * Intended only for internal use by the framework.
+ * <p>
+ * Instances created by {@link #acquire(EventBus, Object, Object, String)} are reused by the same thread and must be
+ * {@link #release() released} when the event has been published. They must therefore never be retained beyond the
+ * publishing call; anything that delivers the event later must retain the {@link #getEvent() Event} instead.
+ * Instances created by {@link #of(Event)} wrap an existing event and need not be released.
+ */
+final class LazyEvent {
+
+    private static final ThreadLocal<LazyEvent> CACHE = new ThreadLocal<LazyEvent>();
+
+    private EventBus eventBus;
+    private Object source;
+    private Object payload;
+    private String topic;
+    private Event<?> event;
+    private boolean inUse;
+
+    private LazyEvent() {
+    }
+
+    /**
+     * Gets an instance for publishing the specified event, reusing the instance of the current thread unless it is
+     * already in use, e.g. because a listener publishes another event.
+     */
+    static LazyEvent acquire(EventBus eventBus, Object source, Object payload, String topic) {
+        LazyEvent lazyEvent = CACHE.get();
+        if (lazyEvent == null) {
+            lazyEvent = new LazyEvent();
+            CACHE.set(lazyEvent);
+        } else if (lazyEvent.inUse) {
+            lazyEvent = new LazyEvent();
+        }
+        lazyEvent.eventBus = eventBus;
+        lazyEvent.source = source;
+        lazyEvent.payload = payload;
+        lazyEvent.topic = topic != null ? topic : "";
+        lazyEvent.inUse = true;
+        return lazyEvent;
+    }
+
+    /**
+     * Creates an instance that wraps an existing event.
+     */
+    static LazyEvent of(Event<?> event) {
+        final LazyEvent lazyEvent = new LazyEvent();
+        lazyEvent.eventBus = event.getEventBus();
+        lazyEvent.source = event.getSource();
+        lazyEvent.payload = event.getPayload();
+        lazyEvent.topic = event.getTopic();
+        lazyEvent.event = event;
+        return lazyEvent;
+    }
+
+    /**
+     * Clears this instance so that the thread can reuse it, and so that it does not keep the payload reachable.
+     */
+    void release() {
+        eventBus = null;
+        source = null;
+        payload = null;
+        topic = null;
+        event = null;
+        inUse = false;
+    }
+
+    /**
+     * @see Event#getEventBus()
+     */
+    EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * @see Event#getScope()
+     */
+    EventScope getScope() {
+        return eventBus.getScope();
+    }
+
+    /**
+     * @see Event#getSource()
+     */
+    Object getSource() {
+        return source;
+    }
+
+    /**
+     * @see Event#getPayload()
+     */
+    Object getPayload() {
+        return payload;
+    }
+
+    /**
+     * @see Event#getTopic()
+     */
+    String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Gets the event, creating it the first time it is needed. Its timestamp is the time it is created, which for
+     * events that are delivered synchronously is during the publishing call.
+     */
+    Event<?> getEvent() {
+        if (event == null) {
+            event = new Event<Object>(eventBus, source, payload, topic);
+        }
+        return event;
+    }
+
+    @Override
+    public String toString() {
+        return event != null ? event.toString() : String.format("%s[eventBus=%s, source=[%s], payload=[%s], topic=%s]",
+            getClass().getSimpleName(), eventBus, source, payload, topic);
+    }
+}
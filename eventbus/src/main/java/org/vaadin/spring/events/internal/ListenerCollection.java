@@ -15,24 +15,88 @@
  */
 package org.vaadin.spring.events.internal;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBusMetrics;
+import org.vaadin.spring.events.EventScope;
 
 /**
  * A collection of listeners. Intended only for internal use by the framework.
+ * <p>
+ * The listeners are stored in an immutable {@link Registry} snapshot. Publishing an event reads the current snapshot
+ * without any locking and without allocating any collections, whereas adding and removing listeners copies the
+ * snapshot and swaps in the new one. Within a snapshot, listeners are grouped by their payload type so that only
+ * the groups whose payload type accepts the payload of the event are visited. Which groups those are is resolved
+ * once per payload class and cached until a payload type is added to or removed from the collection. Within a
+ * group, the listeners are further indexed by topic in a {@link TopicIndex}, so that only the listeners whose
+ * topic can match the topic of the event are visited.
+ * <p>
+ * Listeners whose target is only {@link Listener#getTargetReference() weakly referenced} are removed once the target
+ * has been garbage collected.
+ * <p>
+ * Listeners are also indexed by the identity of their {@link Listener#getListenerTarget() target}, so that removing
+ * a listener does not have to scan the collection. A removed listener is {@link Listener#markRemoved() marked} so
+ * that it stops supporting events, and stays in the snapshot until enough listeners have been removed to make
+ * rebuilding the snapshot worthwhile. Removing a listener is therefore O(1), amortized over the rebuilds.
  *
  * @author Petter Holmström (petter@vaadin.com)
  */
 class ListenerCollection implements Serializable {
 
     private static final long serialVersionUID = -6237902400879667320L;
-    private final Logger logger = LoggerFactory.getLogger(getClass());
-    private final Set<Listener> listeners = new HashSet<Listener>();
-    private final Set<Listener> weakListeners = Collections.newSetFromMap(new WeakHashMap<Listener, Boolean>());
+    private static final ReferenceQueue<Object> REFERENCE_QUEUE = new ReferenceQueue<Object>();
+    private static final int MIN_REMOVED_LISTENERS_TO_REBUILD = 16;
+    private static final Logger logger = LoggerFactory.getLogger(ListenerCollection.class);
+    private transient volatile Registry registry = Registry.EMPTY;
+    private transient AtomicInteger reclaimedTargets = new AtomicInteger();
+    private transient AtomicLong reclaimedListenerCount = new AtomicLong();
+    // The following fields are guarded by this
+    private transient Map<Integer, Listener[]> targetIndex = new HashMap<Integer, Listener[]>();
+    private transient Set<Listener> removedListeners = Collections.newSetFromMap(new IdentityHashMap<Listener, Boolean>());
+    private transient int removedPropagatingListenerCount;
+    private transient EventScope metricsScope;
+    private transient EventBusMetrics metrics;
+    private transient int reportedListenerCount;
+
+    /**
+     * Enumeration of the ways a listener can match the topic of an event.
+     */
+    public enum TopicMatching {
+        /**
+         * The listener is interested in events of any topic.
+         */
+        ANY,
+
+        /**
+         * The listener is only interested in events whose topic equals {@link Listener#getTopic()}.
+         */
+        EXACT,
+
+        /**
+         * The listener is only interested in events whose topic starts with {@link Listener#getTopic()}.
+         */
+        PREFIX,
+
+        /**
+         * The listener decides in {@link Listener#supports(LazyEvent)} which topics it is interested in.
+         */
+        CUSTOM
+    }
 
     /**
      * Interface defining a listener.
@@ -40,19 +104,147 @@ class ListenerCollection implements Serializable {
     public interface Listener extends Serializable {
 
         /**
-         * Checks if this listener supports the specified event.
+         * Gets the payload type of the listener. The listener will only be asked to {@link #supports(LazyEvent) support}
+         * events whose payload is an instance of this type.
+         *
+         * @return the payload type, never {@code null}.
+         */
+        Class<?> getPayloadType();
+
+        /**
+         * Gets how this listener matches the topic of an event. The listener will only be asked to
+         * {@link #supports(LazyEvent) support} events whose topic can match.
+         *
+         * @return the topic matching, never {@code null}.
+         */
+        TopicMatching getTopicMatching();
+
+        /**
+         * Gets the topic of the listener.
+         *
+         * @return the topic, never {@code null} if the {@link #getTopicMatching() topic matching} is
+         * {@link TopicMatching#EXACT} or {@link TopicMatching#PREFIX}.
+         */
+        String getTopic();
+
+        /**
+         * Checks if this listener supports the specified event. Listeners should not
+         * {@link LazyEvent#getEvent() materialize} the event just to check it.
          *
          * @param event the event to check, never {@code null}.
          * @return true if the event is supported, false otherwise.
          */
-        boolean supports(Event<?> event);
+        boolean supports(LazyEvent event);
 
         /**
-         * Publishes the event to the listener.
+         * Publishes the event to the listener. The event must not be retained after this method returns; listeners
+         * that need to keep it should retain the {@link LazyEvent#getEvent() materialized} event instead.
          *
          * @param event the event to publish, never {@code null}.
          */
-        void publish(Event<?> event);
+        void publish(LazyEvent event);
+
+        /**
+         * Publishes the event to the listener. Listeners that pass the event on to other listeners should report
+         * the failures of those listeners to the specified handler and carry on, instead of throwing an exception.
+         * By default, this method calls {@link #publish(LazyEvent)}.
+         *
+         * @param event          the event to publish, never {@code null}.
+         * @param failureHandler the handler to report failures to, never {@code null}.
+         */
+        default void publish(LazyEvent event, FailureHandler failureHandler) {
+            publish(event);
+        }
+
+        /**
+         * Gets the object that this listener delivers events to. The collection indexes listeners by the identity of
+         * their target, see {@link ListenerCollection#removeByTarget(Object)}. By default, this method returns
+         * {@code null}, in which case the listener is its own target.
+         *
+         * @return the target, or {@code null} if the listener has no separate target or its weakly referenced target
+         * has been garbage collected.
+         */
+        default Object getListenerTarget() {
+            return null;
+        }
+
+        /**
+         * Marks this listener as removed from the collection. A marked listener must no longer
+         * {@link #supports(LazyEvent) support} any events, which lets the collection leave it in the current snapshot
+         * instead of rebuilding the snapshot right away. By default, this method returns false, in which case the
+         * snapshot is rebuilt immediately.
+         *
+         * @return true if the listener has been marked, false if it cannot be marked.
+         */
+        default boolean markRemoved() {
+            return false;
+        }
+
+        /**
+         * Gets the weak reference to the target of this listener, if the listener should not prevent its target from
+         * being garbage collected. The listener is removed from the collection once the target has been collected.
+         * By default, this method returns {@code null}.
+         *
+         * @return the target reference, or {@code null} if the target is strongly referenced.
+         */
+        default TargetReference getTargetReference() {
+            return null;
+        }
+
+        /**
+         * Replaces the weak reference to the target of this listener with an equivalent reference to the same target.
+         * A deserialized collection uses this to let all the listeners of one target share one reference, so that the
+         * target is indexed and counted once when it is collected. By default, this method does nothing.
+         *
+         * @param targetReference a reference to the {@link #getListenerTarget() target} of this listener.
+         */
+        default void setTargetReference(TargetReference targetReference) {
+        }
+
+        /**
+         * Checks whether this listener is interested in events that have propagated from a parent event bus. By
+         * default, this method returns true.
+         */
+        default boolean isIncludingPropagatingEvents() {
+            return true;
+        }
+
+        /**
+         * Checks whether this listener wants to receive the events published by
+         * {@link ListenerCollection#publishAll(List, FailureHandler)} in a single call of
+         * {@link #publishBatch(List, FailureHandler)}. By default, this method returns false.
+         */
+        default boolean isBatchListener() {
+            return false;
+        }
+
+        /**
+         * Publishes a batch of events to the listener. This method is only called if {@link #isBatchListener()}
+         * returns true, and only with events that the listener {@link #supports(LazyEvent) supports}. By default, this
+         * method calls {@link #publish(LazyEvent, FailureHandler)} for each event.
+         *
+         * @param events         the events to publish in the order they were published, never {@code null} nor empty.
+         * @param failureHandler the handler to report failures to, may be {@code null}.
+         */
+        default void publishBatch(List<Event<?>> events, FailureHandler failureHandler) {
+            for (Event<?> event : events) {
+                publish(LazyEvent.of(event), failureHandler);
+            }
+        }
+    }
+
+    /**
+     * Interface defining a handler for listeners that fail to handle an event.
+     */
+    public interface FailureHandler {
+        /**
+         * Called when a listener has thrown an exception while handling an event.
+         *
+         * @param listener  the listener that failed, never {@code null}.
+         * @param event     the event that the listener failed to handle, never {@code null}.
+         * @param exception the exception thrown by the listener, never {@code null}.
+         */
+        void onFailure(Listener listener, Event<?> event, RuntimeException exception);
     }
 
     /**
@@ -69,77 +261,277 @@ class ListenerCollection implements Serializable {
     }
 
     /**
-     * Adds the specified {@link org.vaadin.spring.events.internal.ListenerCollection.Listener} to the listener
-     * collection.
+     * Sets the metrics that the number of listeners in the collection is reported to.
      *
-     * @param listener the listener to add, never {@code null}.
-     * @see #remove(org.vaadin.spring.events.internal.ListenerCollection.Listener)
+     * @param scope   the scope of the event bus that owns the collection, never {@code null}.
+     * @param metrics the metrics, or {@code null} to not report the number of listeners.
      */
-    void add(Listener listener) {
-        logger.trace("Adding listener [{}]", listener);
-        synchronized (listeners) {
-            listeners.add(listener);
+    void setMetrics(EventScope scope, EventBusMetrics metrics) {
+        synchronized (this) {
+            if (this.metrics != null && reportedListenerCount != 0) {
+                this.metrics.listenerCountChanged(metricsScope, -reportedListenerCount);
+            }
+            this.metricsScope = scope;
+            this.metrics = metrics;
+            reportedListenerCount = 0;
+            reportListenerCount();
+        }
+    }
+
+    /**
+     * Reports the change in the number of listeners since the last report to the metrics. Must be called while
+     * holding the lock of the collection whenever listeners have been added or removed.
+     */
+    private void reportListenerCount() {
+        if (metrics != null) {
+            final int listenerCount = registry.size - removedListeners.size();
+            if (listenerCount != reportedListenerCount) {
+                metrics.listenerCountChanged(metricsScope, listenerCount - reportedListenerCount);
+                reportedListenerCount = listenerCount;
+            }
         }
     }
 
     /**
      * Adds the specified {@link org.vaadin.spring.events.internal.ListenerCollection.Listener} to the listener
-     * collection,
-     * using a weak reference. This means the listener does not need to be removed to be eligible for garbage
      * collection.
      *
      * @param listener the listener to add, never {@code null}.
+     * @see #remove(org.vaadin.spring.events.internal.ListenerCollection.Listener)
      */
-    void addWithWeakReference(Listener listener) {
-        logger.trace("Adding listener [{}] using a weak reference", listener);
-        synchronized (weakListeners) {
-            weakListeners.add(listener);
+    void add(Listener listener) {
+        logger.trace("Adding listener [{}]", listener);
+        final TargetReference targetReference = listener.getTargetReference();
+        if (targetReference != null) {
+            targetReference.owner = this;
+        }
+        synchronized (this) {
+            if (removedListeners.contains(listener)) {
+                // A marked listener cannot be revived, so it has to leave the snapshot first
+                rebuild(l -> false);
+            }
+            final Registry newRegistry = registry.with(listener);
+            if (newRegistry != registry) {
+                registry = newRegistry;
+                index(listener);
+            }
+            reportListenerCount();
         }
     }
 
     /**
-     * Removes a {@link org.vaadin.spring.events.internal.ListenerCollection.Listener} previously added by 
+     * Removes {@link org.vaadin.spring.events.internal.ListenerCollection.Listener}s previously added by
      * {@link #add(org.vaadin.spring.events.internal.ListenerCollection.Listener)}.
-     * If no listener definition is found in the collection, nothing happens.
+     * Listeners that are not in the collection are ignored.
      *
-     * @param listener the listener to remove, never {@code null}.
+     * @param listeners the listeners to remove, never {@code null}.
      * @see #add(org.vaadin.spring.events.internal.ListenerCollection.Listener)
      */
-    void remove(Listener listener) {
-        logger.trace("Removing listener [{}]", listener);
-        synchronized (listeners) {
-            listeners.remove(listener);
+    void remove(Listener... listeners) {
+        synchronized (this) {
+            for (Listener listener : listeners) {
+                if (unindex(listener)) {
+                    markRemoved(listener);
+                }
+            }
+            rebuildIfWorthwhile();
+            reportListenerCount();
         }
-        synchronized (weakListeners) {
-            weakListeners.remove(listener);
+    }
+
+    /**
+     * Removes all {@link org.vaadin.spring.events.internal.ListenerCollection.Listener}s whose
+     * {@link Listener#getListenerTarget() target} is the specified object. Only the listeners of that target are
+     * visited.
+     *
+     * @param target the target of the listeners to remove, never {@code null}.
+     */
+    void removeByTarget(Object target) {
+        synchronized (this) {
+            final Listener[] candidates = targetIndex.get(System.identityHashCode(target));
+            if (candidates == null) {
+                return;
+            }
+            for (Listener listener : candidates) {
+                if (getTarget(listener) == target) {
+                    unindex(listener);
+                    markRemoved(listener);
+                }
+            }
+            rebuildIfWorthwhile();
+            reportListenerCount();
         }
     }
 
     /**
      * Removes all {@link org.vaadin.spring.events.internal.ListenerCollection.Listener}s that pass the specified filter
      * and that were previously added by
-     * {@link #add(org.vaadin.spring.events.internal.ListenerCollection.Listener)}.
+     * {@link #add(org.vaadin.spring.events.internal.ListenerCollection.Listener)}. This visits every listener in the
+     * collection; prefer {@link #remove(Listener...)} or {@link #removeByTarget(Object)} where possible.
      *
      * @param filter the filter that specifies which listeners to remove, never {@code null}.
      */
     void removeAll(ListenerFilter filter) {
-        synchronized (listeners) {
-            removeFilteredListenersFromSet(filter, listeners);
-        }
-        synchronized (weakListeners) {
-            removeFilteredListenersFromSet(filter, weakListeners);
+        synchronized (this) {
+            rebuild(filter);
+            reportListenerCount();
         }
     }
 
     /**
-     * Removes all {@link org.vaadin.spring.events.internal.ListenerCollection.Listener}s from the collection.
+     * Removes all {@link org.vaadin.spring.events.internal.ListenerCollection.Listener}s from the collection. The
+     * listeners are {@link Listener#markRemoved() marked}, so that they stop supporting events that are already being
+     * published.
      */
     void clear() {
-        synchronized (listeners) {
-            listeners.clear();
+        synchronized (this) {
+            for (TopicIndex group : registry.groups.values()) {
+                for (Listener listener : group.getListeners()) {
+                    listener.markRemoved();
+                }
+            }
+            registry = Registry.EMPTY;
+            targetIndex.clear();
+            removedListeners.clear();
+            removedPropagatingListenerCount = 0;
+            reportListenerCount();
+        }
+    }
+
+    private void markRemoved(Listener listener) {
+        logger.trace("Removing listener [{}]", listener);
+        if (listener.getTargetReference() != null) {
+            listener.getTargetReference().owner = null;
+        }
+        if (listener.markRemoved()) {
+            removedListeners.add(listener);
+            if (listener.isIncludingPropagatingEvents()) {
+                removedPropagatingListenerCount++;
+            }
+        } else {
+            registry = registry.without(l -> l == listener, this::unindex);
+        }
+    }
+
+    private void rebuildIfWorthwhile() {
+        final int removed = removedListeners.size();
+        if (removed >= MIN_REMOVED_LISTENERS_TO_REBUILD && removed >= registry.size / 4) {
+            rebuild(l -> false);
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot without the marked listeners, the listeners whose target has been garbage collected
+     * and the listeners that pass the specified filter.
+     */
+    private void rebuild(ListenerFilter filter) {
+        final Set<Listener> removed = removedListeners;
+        registry = registry.without(l -> removed.contains(l) || filter.passes(l), this::unindex);
+        removed.clear();
+        removedPropagatingListenerCount = 0;
+    }
+
+    private void index(Listener listener) {
+        final Integer key = getTargetKey(listener);
+        final Listener[] listeners = targetIndex.get(key);
+        if (listeners == null) {
+            targetIndex.put(key, new Listener[]{listener});
+        } else {
+            final Listener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+            newListeners[listeners.length] = listener;
+            targetIndex.put(key, newListeners);
+        }
+    }
+
+    /**
+     * @return true if the listener was in the index, false otherwise.
+     */
+    private boolean unindex(Listener listener) {
+        final Integer key = getTargetKey(listener);
+        final Listener[] listeners = targetIndex.get(key);
+        if (listeners == null) {
+            return false;
         }
-        synchronized (weakListeners) {
-            weakListeners.clear();
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                if (listeners.length == 1) {
+                    targetIndex.remove(key);
+                } else {
+                    final Listener[] newListeners = new Listener[listeners.length - 1];
+                    System.arraycopy(listeners, 0, newListeners, 0, i);
+                    System.arraycopy(listeners, i + 1, newListeners, i, newListeners.length - i);
+                    targetIndex.put(key, newListeners);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object getTarget(Listener listener) {
+        final Object target = listener.getListenerTarget();
+        return target == null ? listener : target;
+    }
+
+    /**
+     * Gets the key of the listener in the target index. The key of a weakly referenced target is remembered by its
+     * reference, so that the listener can still be found after the target has been garbage collected.
+     */
+    private static Integer getTargetKey(Listener listener) {
+        final TargetReference targetReference = listener.getTargetReference();
+        return targetReference != null ? targetReference.targetHash : System.identityHashCode(getTarget(listener));
+    }
+
+    /**
+     * Removes the listeners whose {@link Listener#getTargetReference() weakly referenced target} has been garbage
+     * collected. This is cheap if no targets have been collected.
+     *
+     * @return true if any listeners were removed, false otherwise.
+     */
+    boolean expungeStaleListeners() {
+        pollReferenceQueue();
+        // Only write the shared counter if there is something to expunge
+        final int reclaimed = reclaimedTargets.get() == 0 ? 0 : reclaimedTargets.getAndSet(0);
+        if (reclaimed == 0) {
+            return false;
+        }
+        logger.debug("Removing listeners of {} garbage collected targets", reclaimed);
+        reclaimedListenerCount.addAndGet(reclaimed);
+        synchronized (this) {
+            final Registry oldRegistry = registry;
+            rebuild(l -> false);
+            reportListenerCount();
+            return registry != oldRegistry;
+        }
+    }
+
+    /**
+     * Gets the number of weakly referenced listener targets that have been garbage collected while subscribed to this
+     * collection. A target that was subscribed with multiple listeners, such as an object with multiple listener
+     * methods, is counted once.
+     */
+    long getReclaimedListenerCount() {
+        pollReferenceQueue();
+        return reclaimedListenerCount.get() + reclaimedTargets.get();
+    }
+
+    private static void pollReferenceQueue() {
+        Reference<?> reference;
+        while ((reference = REFERENCE_QUEUE.poll()) != null) {
+            final ListenerCollection owner = ((TargetReference) reference).owner;
+            if (owner != null) {
+                owner.reclaimedTargets.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the collection contains any listeners that are
+     * {@link Listener#isIncludingPropagatingEvents() interested in propagated events}.
+     */
+    boolean hasPropagatingListeners() {
+        synchronized (this) {
+            return registry.propagatingListenerCount > removedPropagatingListenerCount;
         }
     }
 
@@ -148,44 +540,380 @@ class ListenerCollection implements Serializable {
      * {@link org.vaadin.spring.events.internal.ListenerCollection.Listener}s that support it.
      *
      * @param event the event to publish, never {@code null}.
-     * @see org.vaadin.spring.events.internal.ListenerCollection.Listener#publish(org.vaadin.spring.events.Event)
-     * @see org.vaadin.spring.events.internal.ListenerCollection.Listener#supports(org.vaadin.spring.events.Event)
+     * @see org.vaadin.spring.events.internal.ListenerCollection.Listener#publish(LazyEvent)
+     * @see org.vaadin.spring.events.internal.ListenerCollection.Listener#supports(LazyEvent)
      */
-    public void publish(Event<?> event) {
-        Set<Listener> interestedListeners = new HashSet<Listener>();
-        synchronized (listeners) {
-            addSupportedListenersToSet(listeners, interestedListeners, event);
-        }
-        synchronized (weakListeners) {
-            addSupportedListenersToSet(weakListeners, interestedListeners, event);
+    public void publish(LazyEvent event) {
+        publish(event, null);
+    }
+
+    /**
+     * Publishes the specified {@code event} to all
+     * {@link org.vaadin.spring.events.internal.ListenerCollection.Listener}s that support it. If a failure handler is
+     * specified, listeners that throw an exception are reported to it and the event is still published to the
+     * remaining listeners. Otherwise, the exception is thrown and the event is not published to the remaining
+     * listeners.
+     *
+     * @param event          the event to publish, never {@code null}.
+     * @param failureHandler the handler to report failing listeners to, or {@code null} to throw the exception of the
+     *                       first failing listener.
+     * @return the number of listeners that the event was published to.
+     */
+    public int publish(LazyEvent event, FailureHandler failureHandler) {
+        final Registry registry = this.registry;
+        final String topic = event.getTopic();
+        int published = 0;
+        for (Class<?> payloadType : registry.payloadTypeIndex.get(event.getPayload().getClass())) {
+            final TopicIndex group = registry.groups.get(payloadType);
+            published += publishIfSupported(group.getAnyTopicListeners(), event, failureHandler);
+            published += publishIfSupported(group.getExactTopicListeners(topic), event, failureHandler);
+            TopicIndex.PrefixNode node = group.getPrefixTopicRoot();
+            int i = 0;
+            while (node != null) {
+                published += publishIfSupported(node.getListeners(), event, failureHandler);
+                node = i < topic.length() ? node.getChild(topic.charAt(i++)) : null;
+            }
+            published += publishIfSupported(group.getCustomTopicListeners(), event, failureHandler);
         }
-        if (interestedListeners.isEmpty()) {
+        if (published == 0 && logger.isDebugEnabled()) {
             logger.debug("No listeners supported event [{}]", event);
+        }
+        return published;
+    }
+
+    /**
+     * Publishes the specified {@code events}, in order, to all
+     * {@link org.vaadin.spring.events.internal.ListenerCollection.Listener}s that support them. This has the same
+     * effect as calling {@link #publish(LazyEvent, FailureHandler)} for each event, except that:
+     * <ul>
+     * <li>The listeners that may support an event are only looked up once per payload class and topic.</li>
+     * <li>{@link Listener#isBatchListener() Batch listeners} receive all the events they support with a single call
+     * of {@link Listener#publishBatch(List, FailureHandler)}, after the other listeners have received all the events.
+     * If a batch listener fails, it is reported to the failure handler together with the first event of the
+     * batch.</li>
+     * </ul>
+     *
+     * @param events         the events to publish, never {@code null}.
+     * @param failureHandler the handler to report failing listeners to, or {@code null} to throw the exception of the
+     *                       first failing listener.
+     * @return the number of times that an event was published to a listener.
+     */
+    public int publishAll(List<Event<?>> events, FailureHandler failureHandler) {
+        if (events.size() == 1) {
+            return publish(LazyEvent.of(events.get(0)), failureHandler);
+        }
+        final Registry registry = this.registry;
+        final Map<Map.Entry<Class<?>, String>, Listener[]> plans = new HashMap<Map.Entry<Class<?>, String>, Listener[]>();
+        final Map<Listener, List<Event<?>>> batches = new LinkedHashMap<Listener, List<Event<?>>>();
+        int unsupported = 0;
+        int deliveries = 0;
+        for (Event<?> event : events) {
+            final Map.Entry<Class<?>, String> planKey =
+                new AbstractMap.SimpleImmutableEntry<Class<?>, String>(event.getPayload().getClass(), event.getTopic());
+            Listener[] plan = plans.get(planKey);
+            if (plan == null) {
+                plan = registry.getCandidates(event);
+                plans.put(planKey, plan);
+            }
+            final LazyEvent lazyEvent = LazyEvent.of(event);
+            boolean published = false;
+            for (Listener listener : plan) {
+                if (listener.supports(lazyEvent)) {
+                    if (listener.isBatchListener()) {
+                        List<Event<?>> batch = batches.get(listener);
+                        if (batch == null) {
+                            batch = new ArrayList<Event<?>>();
+                            batches.put(listener, batch);
+                        }
+                        batch.add(event);
+                    } else {
+                        publish(listener, lazyEvent, failureHandler);
+                    }
+                    published = true;
+                    deliveries++;
+                }
+            }
+            if (!published) {
+                unsupported++;
+            }
+        }
+        for (Map.Entry<Listener, List<Event<?>>> batch : batches.entrySet()) {
+            final Listener listener = batch.getKey();
+            if (logger.isTraceEnabled()) {
+                logger.trace("Publishing batch of {} events to listener [{}]", batch.getValue().size(), listener);
+            }
+            if (failureHandler == null) {
+                listener.publishBatch(batch.getValue(), null);
+            } else {
+                try {
+                    listener.publishBatch(batch.getValue(), failureHandler);
+                } catch (RuntimeException e) {
+                    failureHandler.onFailure(listener, batch.getValue().get(0), e);
+                }
+            }
+        }
+        if (unsupported > 0 && logger.isDebugEnabled()) {
+            logger.debug("No listeners supported {} of {} events", unsupported, events.size());
+        }
+        return deliveries;
+    }
+
+    private int publishIfSupported(Listener[] listeners, LazyEvent event, FailureHandler failureHandler) {
+        int published = 0;
+        for (Listener listener : listeners) {
+            if (listener.supports(event)) {
+                publish(listener, event, failureHandler);
+                published++;
+            }
+        }
+        return published;
+    }
+
+    private void publish(Listener listener, LazyEvent event, FailureHandler failureHandler) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Publishing event [{}] to listener [{}]", event, listener);
+        }
+        if (failureHandler == null) {
+            listener.publish(event);
         } else {
-            for (Listener listener : interestedListeners) {
-                logger.trace("Publishing event [{}] to listener [{}]", event, listener);
-                listener.publish(event);
+            try {
+                listener.publish(event, failureHandler);
+            } catch (RuntimeException e) {
+                failureHandler.onFailure(listener, event.getEvent(), e);
             }
         }
     }
 
-    private <T> void addSupportedListenersToSet(Set<Listener> candidateListeners, Set<Listener> selectedListeners,
-        Event<T> event) {
-        for (Listener candidateListener : candidateListeners) {
-            if (candidateListener.supports(event)) {
-                logger.trace("Listener [{}] supports event [{}]", candidateListener, event);
-                selectedListeners.add(candidateListener);
+    /**
+     * Gets the listeners in the collection, except for the removed listeners and the listeners whose target has been
+     * garbage collected.
+     *
+     * @return a new list of listeners, never {@code null}.
+     */
+    List<Listener> getListeners() {
+        final List<Listener> listeners = new ArrayList<Listener>();
+        synchronized (this) {
+            for (TopicIndex group : registry.groups.values()) {
+                for (Listener listener : group.getListeners()) {
+                    if (!isStale(listener) && !removedListeners.contains(listener)) {
+                        listeners.add(listener);
+                    }
+                }
+            }
+        }
+        return listeners;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.defaultWriteObject();
+        final List<Listener> listeners = getListeners();
+        oos.writeObject(listeners.toArray(new Listener[listeners.size()]));
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        reclaimedTargets = new AtomicInteger();
+        reclaimedListenerCount = new AtomicLong();
+        targetIndex = new HashMap<Integer, Listener[]>();
+        removedListeners = Collections.newSetFromMap(new IdentityHashMap<Listener, Boolean>());
+        registry = Registry.EMPTY;
+        // Every deserialized weak listener references its target on its own, so share one reference per target
+        final Map<Object, TargetReference> targetReferences = new IdentityHashMap<Object, TargetReference>();
+        for (Listener listener : (Listener[]) ois.readObject()) {
+            final TargetReference targetReference = listener.getTargetReference();
+            final Object target = targetReference == null ? null : targetReference.get();
+            if (target != null) {
+                final TargetReference sharedReference = targetReferences.putIfAbsent(target, targetReference);
+                if (sharedReference != null && sharedReference != targetReference) {
+                    listener.setTargetReference(sharedReference);
+                }
             }
+            add(listener);
         }
     }
 
-    private void removeFilteredListenersFromSet(ListenerFilter filter, Set<Listener> listenerSet) {
-        for (Iterator<Listener> it = listenerSet.iterator(); it.hasNext();) {
-            Listener listener = it.next();
-            if (filter.passes(listener)) {
-                logger.trace("Removing listener [{}]", listener);
-                it.remove();
+    private static boolean isStale(Listener listener) {
+        final TargetReference targetReference = listener.getTargetReference();
+        return targetReference != null && targetReference.get() == null;
+    }
+
+    /**
+     * Weak reference to the target object of a listener, for subscriptions that should not prevent the target from
+     * being garbage collected. All target references are registered with the same {@link ReferenceQueue}, which is
+     * polled whenever a collection publishes an event or changes. A reclaimed reference marks the collection that
+     * owns it, which then removes the stale listeners the next time it publishes an event or changes.
+     */
+    static final class TargetReference extends WeakReference<Object> {
+
+        private volatile ListenerCollection owner;
+
+        private final int targetHash;
+
+        /**
+         * @param target the target object of the listener, never {@code null}.
+         */
+        TargetReference(Object target) {
+            super(target, REFERENCE_QUEUE);
+            targetHash = System.identityHashCode(target);
+        }
+    }
+
+    /**
+     * An immutable snapshot of the listeners in the collection.
+     */
+    private static final class Registry {
+
+        static final Registry EMPTY = new Registry(Collections.<Class<?>, TopicIndex>emptyMap(), PayloadTypeIndex.EMPTY, 0);
+
+        final Map<Class<?>, TopicIndex> groups;
+
+        final PayloadTypeIndex payloadTypeIndex;
+
+        final int propagatingListenerCount;
+
+        final int size;
+
+        Registry(Map<Class<?>, TopicIndex> groups, PayloadTypeIndex payloadTypeIndex, int propagatingListenerCount) {
+            this.groups = groups;
+            this.payloadTypeIndex = payloadTypeIndex;
+            this.propagatingListenerCount = propagatingListenerCount;
+            int size = 0;
+            for (TopicIndex group : groups.values()) {
+                size += group.getListeners().length;
+            }
+            this.size = size;
+        }
+
+        /**
+         * Gets the listeners that may support the specified event, in the order {@link #publish(LazyEvent)} visits
+         * them. The listeners still have to be asked whether they {@link Listener#supports(LazyEvent) support} the
+         * event, but the result only depends on the payload class and topic of the event.
+         */
+        Listener[] getCandidates(Event<?> event) {
+            final String topic = event.getTopic();
+            final List<Listener> candidates = new ArrayList<Listener>();
+            for (Class<?> payloadType : payloadTypeIndex.get(event.getPayload().getClass())) {
+                final TopicIndex group = groups.get(payloadType);
+                Collections.addAll(candidates, group.getAnyTopicListeners());
+                Collections.addAll(candidates, group.getExactTopicListeners(topic));
+                TopicIndex.PrefixNode node = group.getPrefixTopicRoot();
+                int i = 0;
+                while (node != null) {
+                    Collections.addAll(candidates, node.getListeners());
+                    node = i < topic.length() ? node.getChild(topic.charAt(i++)) : null;
+                }
+                Collections.addAll(candidates, group.getCustomTopicListeners());
+            }
+            return candidates.toArray(TopicIndex.NO_LISTENERS);
+        }
+
+        /**
+         * Returns a registry that also contains the specified listener, unless the listener is already in the
+         * registry.
+         */
+        Registry with(Listener listener) {
+            final TopicIndex group = groups.get(listener.getPayloadType());
+            if (group != null) {
+                for (Listener existing : group.getListeners()) {
+                    if (existing == listener) {
+                        return this;
+                    }
+                }
+            }
+            final Map<Class<?>, TopicIndex> newGroups = new HashMap<Class<?>, TopicIndex>(groups);
+            newGroups.put(listener.getPayloadType(), (group == null ? TopicIndex.EMPTY : group).with(listener));
+            return new Registry(newGroups, group == null ? new PayloadTypeIndex(newGroups.keySet()) : payloadTypeIndex,
+                propagatingListenerCount + (listener.isIncludingPropagatingEvents() ? 1 : 0));
+        }
+
+        /**
+         * Returns a registry without the listeners that pass the filter and without the listeners whose weakly
+         * referenced target has been garbage collected, or this registry if nothing would be removed.
+         *
+         * @param removalHandler called for every removed listener, may be {@code null}.
+         */
+        Registry without(ListenerFilter filter, Consumer<Listener> removalHandler) {
+            Map<Class<?>, TopicIndex> newGroups = null;
+            boolean payloadTypesChanged = false;
+            int removedPropagatingListeners = 0;
+            for (Map.Entry<Class<?>, TopicIndex> entry : groups.entrySet()) {
+                final Listener[] listeners = entry.getValue().getListeners();
+                final List<Listener> remainingListeners = new ArrayList<Listener>(listeners.length);
+                for (Listener listener : listeners) {
+                    if (!isStale(listener) && !filter.passes(listener)) {
+                        remainingListeners.add(listener);
+                    } else {
+                        if (listener.getTargetReference() != null) {
+                            listener.getTargetReference().owner = null;
+                        }
+                        if (listener.isIncludingPropagatingEvents()) {
+                            removedPropagatingListeners++;
+                        }
+                        if (removalHandler != null) {
+                            removalHandler.accept(listener);
+                        }
+                    }
+                }
+                if (remainingListeners.size() != listeners.length) {
+                    if (newGroups == null) {
+                        newGroups = new HashMap<Class<?>, TopicIndex>(groups);
+                    }
+                    if (remainingListeners.isEmpty()) {
+                        newGroups.remove(entry.getKey());
+                        payloadTypesChanged = true;
+                    } else {
+                        newGroups.put(entry.getKey(), new TopicIndex(remainingListeners.toArray(TopicIndex.NO_LISTENERS)));
+                    }
+                }
+            }
+            if (newGroups == null) {
+                return this;
+            }
+            return new Registry(newGroups,
+                payloadTypesChanged ? new PayloadTypeIndex(newGroups.keySet()) : payloadTypeIndex,
+                propagatingListenerCount - removedPropagatingListeners);
+        }
+    }
+
+    /**
+     * Cache that resolves, for every payload class that has been published, the registered payload types that
+     * accept it. An index is immutable; when the set of registered payload types changes, the index is discarded
+     * and a new one is built. Every collection has indexes of its own, so they are backed by a plain map rather than
+     * a {@link ClassValue}, which would install an entry in every published payload class.
+     */
+    private static final class PayloadTypeIndex {
+
+        static final PayloadTypeIndex EMPTY = new PayloadTypeIndex(Collections.<Class<?>>emptySet());
+
+        private final Class<?>[] payloadTypes;
+
+        private final ConcurrentMap<Class<?>, Class<?>[]> acceptingTypes = new ConcurrentHashMap<Class<?>, Class<?>[]>();
+
+        PayloadTypeIndex(Set<Class<?>> payloadTypes) {
+            this.payloadTypes = payloadTypes.toArray(new Class<?>[payloadTypes.size()]);
+        }
+
+        Class<?>[] get(Class<?> payloadClass) {
+            if (payloadTypes.length == 0) {
+                // Also keeps the shared empty index from holding on to the payload classes
+                return payloadTypes;
+            }
+            Class<?>[] types = acceptingTypes.get(payloadClass);
+            if (types == null) {
+                types = computeAcceptingTypes(payloadClass);
+                acceptingTypes.putIfAbsent(payloadClass, types);
+            }
+            return types;
+        }
+
+        private Class<?>[] computeAcceptingTypes(Class<?> payloadClass) {
+            List<Class<?>> accepting = new ArrayList<Class<?>>(payloadTypes.length);
+            for (Class<?> payloadType : payloadTypes) {
+                if (payloadType.isAssignableFrom(payloadClass)) {
+                    accepting.add(payloadType);
+                }
             }
+            return accepting.toArray(new Class<?>[accepting.size()]);
         }
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.vaadin.spring.events.LatencyHistogram;
+import org.vaadin.spring.events.ListenerLatencyStatistics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latencies of a single listener, recorded while the event bus that the listener is subscribed to
+ * {@link ScopedEventBus#setListenerLatencyTracking(boolean) tracks listener latencies}. Intended only for internal use
+ * by the framework.
+ */
+final class ListenerLatency {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private static final boolean cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicLong slowInvocationCount = new AtomicLong();
+    private final AtomicLong totalCpuTime = new AtomicLong();
+
+    /**
+     * Gets the CPU time of the current thread.
+     *
+     * @return the CPU time in nanoseconds, or -1 if it cannot be measured.
+     */
+    static long currentThreadCpuTime() {
+        return cpuTimeSupported ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Records an invocation of the listener.
+     *
+     * @param latency       the wall clock time of the invocation in nanoseconds.
+     * @param cpuTimeStart  the CPU time of the thread before the invocation, or -1 if it was not measured.
+     * @param cpuTimeEnd    the CPU time of the thread after the invocation, or -1 if it was not measured.
+     * @param slowThreshold the latency above which the invocation is slow in nanoseconds, or 0 if no invocation is
+     *                      slow.
+     * @return true if the invocation was slow, false otherwise.
+     */
+    boolean record(long latency, long cpuTimeStart, long cpuTimeEnd, long slowThreshold) {
+        histogram.record(latency);
+        if (cpuTimeStart >= 0 && cpuTimeEnd >= 0) {
+            totalCpuTime.addAndGet(cpuTimeEnd - cpuTimeStart);
+        }
+        if (slowThreshold > 0 && latency > slowThreshold) {
+            slowInvocationCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a snapshot of the latencies.
+     */
+    ListenerLatencyStatistics getStatistics(Object listener, Class<?> payloadType, String listenerMethod) {
+        return new ListenerLatencyStatistics(listener, payloadType, listenerMethod, histogram.copy(),
+            slowInvocationCount.get(), totalCpuTime.get());
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBusListenerMethodFilter;
+import org.vaadin.spring.events.EventScope;
+import org.vaadin.spring.events.NoEventBusListenerMethodFilter;
+import org.vaadin.spring.events.TopicFilter;
+import org.vaadin.spring.events.annotation.EventBusListenerMethod;
+import org.vaadin.spring.events.annotation.EventBusListenerTopic;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.WeakHashMap;
+
+/**
+ * Immutable description of a method annotated with {@link org.vaadin.spring.events.annotation.EventBusListenerMethod}.
+ * All the information that is needed to decide whether the method is interested in an event, and to invoke it, is
+ * resolved once when the descriptor is created. Checking and publishing an event therefore requires neither
+ * reflection nor any allocations. Intended only for internal use by the framework.
+ * <p>
+ * Descriptors only depend on the listener class, so they are discovered once per class by
+ * {@link #forListenerClass(Class)} and then shared by all subscriptions of instances of that class.
+ * Note that the {@link EventBusListenerMethodFilter} and {@link TopicFilter} instances are created once per
+ * descriptor and then shared by all events and subscriptions, so they should be stateless.
+ * <p>
+ * If the annotation processor has generated a {@link GeneratedListenerAdapter} for a listener class, the descriptors
+ * are taken from the adapter, which neither scans the class nor invokes the methods through reflection.
+ */
+final class ListenerMethodDescriptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListenerMethodDescriptor.class);
+
+    private static final ClassValue<ListenerMethodDescriptor[]> DESCRIPTORS = new ClassValue<ListenerMethodDescriptor[]>() {
+        @Override
+        protected ListenerMethodDescriptor[] computeValue(Class<?> listenerClass) {
+            final GeneratedListenerAdapter adapter = findAdapter(listenerClass);
+            if (adapter != null) {
+                return adapter.getDescriptors();
+            }
+            final List<ListenerMethodDescriptor> descriptors = new ArrayList<ListenerMethodDescriptor>();
+            ClassUtils.visitClassHierarchy(clazz -> {
+                for (Method m : clazz.getDeclaredMethods()) {
+                    if (m.isAnnotationPresent(EventBusListenerMethod.class)) {
+                        if (m.getParameterTypes().length == 1) {
+                            descriptors.add(new ListenerMethodDescriptor(m));
+                        } else {
+                            throw new IllegalArgumentException(
+                                "Listener method " + m.getName() + " does not have the required signature");
+                        }
+                    }
+                }
+            }, listenerClass);
+            return descriptors.toArray(new ListenerMethodDescriptor[descriptors.size()]);
+        }
+    };
+
+    /**
+     * The class names of the generated adapters by class loader and listener class name. Only names are cached, as
+     * anything that refers to a class of the class loader would prevent it from being garbage collected. The adapter of
+     * a listener class is kept with the {@link #DESCRIPTORS descriptors} of that class instead.
+     */
+    private static final Map<ClassLoader, Map<String, String>> ADAPTER_NAMES =
+        new WeakHashMap<ClassLoader, Map<String, String>>();
+
+    private final Class<?> declaringClass;
+    private final String name;
+    private final Class<?> parameterType;
+    private final ListenerMethodInvoker invoker;
+    private final Class<?> payloadType;
+    private final boolean payloadMethod;
+    private final boolean batchMethod;
+    private final EventScope scope;
+    private final Class<?>[] sources;
+    private final EventBusListenerMethodFilter filter;
+    private final TopicFilter topicFilter;
+    private final String topic;
+
+    /**
+     * @param method the listener method, must be annotated with {@link EventBusListenerMethod} and have exactly
+     *               one parameter.
+     * @throws IllegalArgumentException if the method is a batch method that does not take a {@link List}.
+     */
+    ListenerMethodDescriptor(Method method) {
+        declaringClass = method.getDeclaringClass();
+        name = method.getName();
+        this.parameterType = method.getParameterTypes()[0];
+        EventBusListenerMethod annotation = method.getAnnotation(EventBusListenerMethod.class);
+        batchMethod = annotation.batch();
+
+        Type parameterType = method.getGenericParameterTypes()[0];
+        if (batchMethod) {
+            if (method.getParameterTypes()[0] != List.class || !(parameterType instanceof ParameterizedType)) {
+                throw new IllegalArgumentException(
+                    "Batch listener method " + method.getName() + " does not take a parameterized List");
+            }
+            parameterType = ((ParameterizedType) parameterType).getActualTypeArguments()[0];
+        }
+        if (rawType(parameterType) == Event.class) {
+            ParameterizedType type = (ParameterizedType) parameterType;
+            payloadType = rawType(type.getActualTypeArguments()[0]);
+            payloadMethod = false;
+        } else {
+            payloadType = batchMethod ? rawType(parameterType) : method.getParameterTypes()[0];
+            payloadMethod = true;
+        }
+
+        scope = annotation.scope();
+        sources = annotation.source().clone();
+        filter = annotation.filter() == NoEventBusListenerMethodFilter.class ? null
+            : BeanUtils.instantiateClass(annotation.filter());
+
+        EventBusListenerTopic topicAnnotation = method.getAnnotation(EventBusListenerTopic.class);
+        if (topicAnnotation != null) {
+            topicFilter = BeanUtils.instantiateClass(topicAnnotation.filter());
+            topic = topicAnnotation.topic();
+        } else {
+            topicFilter = null;
+            topic = null;
+        }
+
+        invoker = ListenerMethodInvoker.of(method);
+    }
+
+    /**
+     * Creates a descriptor from the metadata of a {@link GeneratedListenerAdapter}.
+     *
+     * @see GeneratedListenerAdapter#addMethod(Class, String, Class, Class, boolean, boolean, EventScope, Class[],
+     * EventBusListenerMethodFilter, TopicFilter, String, GeneratedListenerAdapter.Invoker)
+     */
+    ListenerMethodDescriptor(Class<?> declaringClass, String name, Class<?> parameterType, Class<?> payloadType,
+                             boolean payloadMethod, boolean batchMethod, EventScope scope, Class<?>[] sources,
+                             EventBusListenerMethodFilter filter, TopicFilter topicFilter, String topic,
+                             GeneratedListenerAdapter.Invoker invoker) {
+        this.declaringClass = declaringClass;
+        this.name = name;
+        this.parameterType = parameterType;
+        this.payloadType = payloadType;
+        this.payloadMethod = payloadMethod;
+        this.batchMethod = batchMethod;
+        this.scope = scope;
+        this.sources = sources.clone();
+        this.filter = filter;
+        this.topicFilter = topicFilter;
+        this.topic = topic;
+        if (invoker != null) {
+            this.invoker = ListenerMethodInvoker.of(invoker, declaringClass, name);
+        } else {
+            try {
+                this.invoker = ListenerMethodInvoker.of(declaringClass.getDeclaredMethod(name, parameterType));
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("Generated adapter refers to missing listener method " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Finds the adapter generated for the specified listener class. The adapters of a class loader are discovered the
+     * first time a class of that class loader is looked up, and the adapter of a listener class is created the first
+     * time that class is looked up.
+     *
+     * @return the adapter, or {@code null} if no adapter has been generated for the class.
+     */
+    private static GeneratedListenerAdapter findAdapter(Class<?> listenerClass) {
+        final ClassLoader classLoader = listenerClass.getClassLoader();
+        if (classLoader == null) {
+            return null;
+        }
+        final String adapterName = getAdapterNames(classLoader).get(listenerClass.getName());
+        if (adapterName == null) {
+            return null;
+        }
+        try {
+            final GeneratedListenerAdapter adapter = Class.forName(adapterName, true, classLoader)
+                .asSubclass(GeneratedListenerAdapter.class).getDeclaredConstructor().newInstance();
+            // A class of the same name may have been loaded by another class loader
+            return adapter.getListenerClass() == listenerClass ? adapter : null;
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            logger.warn("Could not load generated listener adapter {}, falling back to reflection", adapterName, e);
+            return null;
+        }
+    }
+
+    private static Map<String, String> getAdapterNames(ClassLoader classLoader) {
+        synchronized (ADAPTER_NAMES) {
+            Map<String, String> adapterNames = ADAPTER_NAMES.get(classLoader);
+            if (adapterNames == null) {
+                adapterNames = new HashMap<String, String>();
+                final Iterator<GeneratedListenerAdapter> iterator =
+                    ServiceLoader.load(GeneratedListenerAdapter.class, classLoader).iterator();
+                while (true) {
+                    try {
+                        if (!iterator.hasNext()) {
+                            break;
+                        }
+                        final GeneratedListenerAdapter adapter = iterator.next();
+                        adapterNames.put(adapter.getListenerClass().getName(), adapter.getClass().getName());
+                    } catch (ServiceConfigurationError e) {
+                        // For example an adapter of a class that has been removed without a clean build
+                        logger.warn("Could not load generated listener adapter, falling back to reflection", e);
+                    }
+                }
+                ADAPTER_NAMES.put(classLoader, adapterNames);
+            }
+            return adapterNames;
+        }
+    }
+
+    /**
+     * Gets the descriptors of all the methods annotated with {@link EventBusListenerMethod} in the specified
+     * listener class and its superclasses. The descriptors are discovered the first time a class is looked up
+     * and cached for as long as the class is loaded.
+     *
+     * @param listenerClass the class of the listener, never {@code null}.
+     * @return an array of descriptors that must not be modified, never {@code null}.
+     * @throws IllegalArgumentException if an annotated method does not have the required signature.
+     */
+    static ListenerMethodDescriptor[] forListenerClass(Class<?> listenerClass) {
+        return DESCRIPTORS.get(listenerClass);
+    }
+
+    /**
+     * Looks up the descriptor of a listener method by its signature from the descriptors of its declaring class,
+     * which are cached like in {@link #forListenerClass(Class)}. Used to resolve listener methods again when
+     * listeners are deserialized.
+     *
+     * @param declaringClass the class that declares the listener method, never {@code null}.
+     * @param name           the name of the listener method, never {@code null}.
+     * @param parameterType  the type of the single parameter of the listener method, never {@code null}.
+     * @return the descriptor, or {@code null} if the class declares no such listener method.
+     */
+    static ListenerMethodDescriptor forMethod(Class<?> declaringClass, String name, Class<?> parameterType) {
+        for (ListenerMethodDescriptor descriptor : DESCRIPTORS.get(declaringClass)) {
+            if (descriptor.declaringClass == declaringClass && descriptor.name.equals(name)
+                && descriptor.parameterType == parameterType) {
+                return descriptor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the class that declares the listener method.
+     */
+    Class<?> getDeclaringClass() {
+        return declaringClass;
+    }
+
+    /**
+     * Gets the name of the listener method.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the type of the single parameter of the listener method.
+     */
+    Class<?> getParameterType() {
+        return parameterType;
+    }
+
+    /**
+     * Gets the payload type of the listener method.
+     */
+    Class<?> getPayloadType() {
+        return payloadType;
+    }
+
+    /**
+     * Returns true if the listener method takes the payload as its parameter, false if it takes the
+     * {@link Event}.
+     */
+    boolean isPayloadMethod() {
+        return payloadMethod;
+    }
+
+    /**
+     * Returns true if the listener method receives events in batches, i.e. takes a {@link List} of payloads or events
+     * as its parameter.
+     */
+    boolean isBatchMethod() {
+        return batchMethod;
+    }
+
+    /**
+     * Gets the topic declared by the {@link EventBusListenerTopic} annotation, or {@code null} if the method has
+     * no such annotation.
+     */
+    String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Gets the topic filter declared by the {@link EventBusListenerTopic} annotation, or {@code null} if the method
+     * has no such annotation.
+     */
+    TopicFilter getTopicFilter() {
+        return topicFilter;
+    }
+
+    /**
+     * Checks the scope, source and {@link EventBusListenerMethodFilter} declared by the
+     * {@link EventBusListenerMethod} annotation against the specified event.
+     */
+    boolean isInterestedIn(LazyEvent event) {
+        return (scope == EventScope.UNDEFINED || scope == event.getScope())
+            && isFromSource(event.getSource())
+            && (filter == null || filter.filter(event.getEvent()));
+    }
+
+    /**
+     * Checks the {@link EventBusListenerTopic} annotation against the topic of the specified event. If the method has
+     * no such annotation, it is only interested in events without a topic.
+     */
+    boolean isInTopic(LazyEvent event) {
+        if (topicFilter == null) {
+            return event.getTopic().isEmpty();
+        }
+        return topicFilter.validTopic(event.getTopic(), topic);
+    }
+
+    /**
+     * Invokes the listener method on the specified target. The event is only materialized if the listener method
+     * takes the {@link Event}.
+     *
+     * @throws Throwable any exception thrown by the listener method.
+     */
+    void invoke(Object target, LazyEvent event) throws Throwable {
+        final Object argument = payloadMethod ? event.getPayload() : event.getEvent();
+        invoker.invoke(target, batchMethod ? Collections.singletonList(argument) : argument);
+    }
+
+    /**
+     * Invokes the listener method on the specified target with a batch of events. If the listener method is not a
+     * batch method, it is invoked once for every event.
+     *
+     * @throws Throwable any exception thrown by the listener method.
+     */
+    void invokeBatch(Object target, List<Event<?>> events) throws Throwable {
+        if (!batchMethod) {
+            for (Event<?> event : events) {
+                invoke(target, LazyEvent.of(event));
+            }
+        } else if (payloadMethod) {
+            final List<Object> payloads = new ArrayList<Object>(events.size());
+            for (Event<?> event : events) {
+                payloads.add(event.getPayload());
+            }
+            invoker.invoke(target, Collections.unmodifiableList(payloads));
+        } else {
+            invoker.invoke(target, Collections.unmodifiableList(events));
+        }
+    }
+
+    private Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        throw new IllegalArgumentException("Could not resolve the payload type of listener method " + name);
+    }
+
+    private boolean isFromSource(Object source) {
+        if (sources.length == 0) {
+            return true;
+        }
+        final Class<?> sourceClass = source.getClass();
+        for (Class<?> candidate : sources) {
+            if (candidate.isAssignableFrom(sourceClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[method=%s.%s(%s), payloadType=%s, scope=%s, topic=%s, batch=%s]",
+            getClass().getSimpleName(), declaringClass.getName(), name, parameterType.getName(), payloadType.getName(),
+            scope, topic, batchMethod);
+    }
+}
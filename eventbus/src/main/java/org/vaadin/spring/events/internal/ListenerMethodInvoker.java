@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invokes a single listener method. Invokers are bound once, when a listener is subscribed, so that publishing an
+ * event does not have to go through {@link Method#invoke(Object, Object...)}. Use {@link #of(Method)} to create
+ * the fastest invoker that is available for a particular method:
+ * <ol>
+ * <li>Public methods of public classes that are visible to the event bus get an invoker generated by the
+ * {@link LambdaMetafactory}, which the JIT compiler can inline like any ordinary method call.</li>
+ * <li>Other methods are invoked through a {@link MethodHandle}.</li>
+ * <li>If neither is possible, for example because a security manager or the module system denies access,
+ * the invoker falls back to reflection.</li>
+ * </ol>
+ * Intended only for internal use by the framework.
+ */
+abstract class ListenerMethodInvoker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListenerMethodInvoker.class);
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Method method;
+
+    private ListenerMethodInvoker(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * Functional interface implemented by the invokers generated by the {@link LambdaMetafactory}.
+     */
+    interface GeneratedInvoker {
+        void invoke(Object target, Object argument);
+    }
+
+    /**
+     * Creates an invoker for the specified listener method.
+     *
+     * @param method the listener method, must have exactly one parameter and must not be {@code null}.
+     * @return the invoker, never {@code null}.
+     */
+    static ListenerMethodInvoker of(Method method) {
+        if (isEligibleForGeneratedInvoker(method)) {
+            try {
+                return new LambdaInvoker(method);
+            } catch (Throwable e) {
+                logger.debug("Could not generate invoker for listener method [{}], falling back to a method handle",
+                    method, e);
+            }
+        }
+        try {
+            return new MethodHandleInvoker(method);
+        } catch (RuntimeException | IllegalAccessException e) {
+            logger.debug("Could not create method handle for listener method [{}], falling back to reflection",
+                method, e);
+        }
+        return new ReflectiveInvoker(method);
+    }
+
+    /**
+     * Creates an invoker that calls a listener method through a {@link GeneratedListenerAdapter}.
+     *
+     * @param invoker        the invoker of the generated adapter, never {@code null}.
+     * @param declaringClass the class that declares the listener method, never {@code null}.
+     * @param name           the name of the listener method, never {@code null}.
+     * @return the invoker, never {@code null}.
+     */
+    static ListenerMethodInvoker of(GeneratedListenerAdapter.Invoker invoker, Class<?> declaringClass, String name) {
+        return new AdapterInvoker(invoker, declaringClass, name);
+    }
+
+    private static boolean isEligibleForGeneratedInvoker(Method method) {
+        final Class<?> declaringClass = method.getDeclaringClass();
+        final Class<?> parameterType = method.getParameterTypes()[0];
+        return Modifier.isPublic(method.getModifiers())
+            && !Modifier.isStatic(method.getModifiers())
+            && Modifier.isPublic(declaringClass.getModifiers())
+            && !parameterType.isPrimitive()
+            && Modifier.isPublic(parameterType.getModifiers())
+            && isVisibleToEventBus(declaringClass)
+            && isVisibleToEventBus(parameterType);
+    }
+
+    private static boolean isVisibleToEventBus(Class<?> clazz) {
+        // The generated class is defined in the class loader of the event bus, so it must be able to see the class.
+        try {
+            return Class.forName(clazz.getName(), false, ListenerMethodInvoker.class.getClassLoader()) == clazz;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the listener method that this invoker invokes.
+     *
+     * @return the method, or {@code null} if the method is called by a {@link GeneratedListenerAdapter}.
+     */
+    Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Invokes the listener method.
+     *
+     * @param target   the object to invoke the method on, never {@code null}.
+     * @param argument the single argument of the method.
+     * @throws Throwable any exception thrown by the listener method itself.
+     */
+    abstract void invoke(Object target, Object argument) throws Throwable;
+
+    @Override
+    public String toString() {
+        return String.format("%s[method=%s]", getClass().getSimpleName(), method);
+    }
+
+    private static final class AdapterInvoker extends ListenerMethodInvoker {
+
+        private final GeneratedListenerAdapter.Invoker invoker;
+        private final String description;
+
+        AdapterInvoker(GeneratedListenerAdapter.Invoker invoker, Class<?> declaringClass, String name) {
+            super(null);
+            this.invoker = invoker;
+            this.description = declaringClass.getName() + "." + name;
+        }
+
+        @Override
+        void invoke(Object target, Object argument) throws Throwable {
+            invoker.invoke(target, argument);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[method=%s]", getClass().getSimpleName(), description);
+        }
+    }
+
+    private static final class LambdaInvoker extends ListenerMethodInvoker {
+
+        private final GeneratedInvoker invoker;
+
+        LambdaInvoker(Method method) throws Throwable {
+            super(method);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final MethodHandle handle = lookup.unreflect(method);
+            final CallSite callSite = LambdaMetafactory.metafactory(lookup,
+                "invoke",
+                MethodType.methodType(GeneratedInvoker.class),
+                INVOKER_TYPE,
+                handle,
+                MethodType.methodType(void.class, method.getDeclaringClass(), method.getParameterTypes()[0]));
+            invoker = (GeneratedInvoker) callSite.getTarget().invoke();
+        }
+
+        @Override
+        void invoke(Object target, Object argument) {
+            invoker.invoke(target, argument);
+        }
+    }
+
+    private static final class MethodHandleInvoker extends ListenerMethodInvoker {
+
+        private final MethodHandle handle;
+
+        MethodHandleInvoker(Method method) throws IllegalAccessException {
+            super(method);
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            if (Modifier.isStatic(method.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            this.handle = handle.asType(INVOKER_TYPE);
+        }
+
+        @Override
+        void invoke(Object target, Object argument) throws Throwable {
+            handle.invokeExact(target, argument);
+        }
+    }
+
+    private static final class ReflectiveInvoker extends ListenerMethodInvoker {
+
+        ReflectiveInvoker(Method method) {
+            super(method);
+            try {
+                method.setAccessible(true);
+            } catch (RuntimeException e) {
+                logger.debug("Could not make listener method [{}] accessible", method, e);
+            }
+        }
+
+        @Override
+        void invoke(Object target, Object argument) throws Throwable {
+            try {
+                getMethod().invoke(target, argument);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Could not access listener method " + getMethod().getName());
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
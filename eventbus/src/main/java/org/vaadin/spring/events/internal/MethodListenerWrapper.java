@@ -15,134 +15,128 @@
  */
 package org.vaadin.spring.events.internal;
 
-import org.vaadin.spring.events.*;
-import org.vaadin.spring.events.annotation.EventBusListenerMethod;
-import org.vaadin.spring.events.annotation.EventBusListenerTopic;
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBus;
+import org.vaadin.spring.events.ExactTopicFilter;
+import org.vaadin.spring.events.HierachyTopicFilter;
+import org.vaadin.spring.events.TopicFilter;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
+import java.util.List;
 
 /**
  * Implementation of {@link org.vaadin.spring.events.internal.AbstractListenerWrapper} that wraps an object
  * that contains a method annotated with {@link org.vaadin.spring.events.annotation.EventBusListenerMethod}. If the object
  * contains multiple listener methods, multiple instances of this class should be created.
+ * <p>
+ * The annotations of the listener method are resolved into a {@link ListenerMethodDescriptor}, which is shared by
+ * all wrappers of the same listener method, so {@link #supports(LazyEvent)} and {@link #publish(LazyEvent)} do not
+ * use reflection and a wrapper only holds its subscription specific state. Likewise, only the declaring class, name
+ * and parameter type of the listener method are serialized, and the descriptor is looked up again from the cache
+ * when the wrapper is deserialized.
  *
  * @author Petter Holmström (petter@vaadin.com)
  */
 class MethodListenerWrapper extends AbstractListenerWrapper {
 
     private static final long serialVersionUID = -3624543380547361337L;
-    private final Class<?> payloadType;
-    private final boolean payloadMethod;
-    private transient Method listenerMethod;
-    private final String topic;
+    private transient ListenerMethodDescriptor descriptor;
 
-    MethodListenerWrapper(EventBus owningEventBus, Object listenerTarget, String topic, boolean includingPropagatingEvents, Method listenerMethod) {
-        super(owningEventBus, listenerTarget, topic, includingPropagatingEvents);
-        this.topic = topic;
-        if (listenerMethod.getParameterTypes()[0] == Event.class) {
-            ParameterizedType type = (ParameterizedType) listenerMethod.getGenericParameterTypes()[0];
-            payloadType = (Class<?>) type.getActualTypeArguments()[0];
-            payloadMethod = false;
-        } else {
-            payloadType = listenerMethod.getParameterTypes()[0];
-            payloadMethod = true;
-        }
-        this.listenerMethod = listenerMethod;
+    MethodListenerWrapper(EventBus owningEventBus, Object listenerTarget, ListenerCollection.TargetReference targetReference, String topic, boolean includingPropagatingEvents, ListenerMethodDescriptor descriptor) {
+        super(owningEventBus, listenerTarget, targetReference, topic, includingPropagatingEvents);
+        this.descriptor = descriptor;
     }
 
     private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
         ois.defaultReadObject();
-        // TODO Read listener method info and look up method
+        final Class<?> declaringClass = (Class<?>) ois.readObject();
+        final String name = ois.readUTF();
+        final Class<?> parameterType = (Class<?>) ois.readObject();
+        descriptor = ListenerMethodDescriptor.forMethod(declaringClass, name, parameterType);
+        if (descriptor == null) {
+            throw new InvalidObjectException("Could not find listener method " + declaringClass.getName() + "."
+                + name + "(" + parameterType.getName() + ")");
+        }
     }
 
     private void writeObject(ObjectOutputStream oos) throws IOException {
         oos.defaultWriteObject();
-        // TODO Write listener method info
+        oos.writeObject(descriptor.getDeclaringClass());
+        oos.writeUTF(descriptor.getName());
+        oos.writeObject(descriptor.getParameterType());
     }
 
     @Override
     public Class<?> getPayloadType() {
-        return payloadType;
+        return descriptor.getPayloadType();
     }
 
     @Override
-    public void publish(Event<?> event) {
-        listenerMethod.setAccessible(true);
-        try {
-            if (payloadMethod) {
-                listenerMethod.invoke(getListenerTarget(), event.getPayload());
-            } else {
-                listenerMethod.invoke(getListenerTarget(), event);
-            }
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException("Could not access listener method " + listenerMethod.getName());
-        } catch (InvocationTargetException e) {
-            Throwable targetException = e.getTargetException();
-            if (targetException instanceof RuntimeException) {
-                throw (RuntimeException) targetException;
-            } else {
-                throw new RuntimeException("A checked exception occurred while invoking listener method " + listenerMethod.getName(), targetException);
-            }
+    public ListenerCollection.TopicMatching getTopicMatching() {
+        final TopicFilter topicFilter = descriptor.getTopicFilter();
+        if (super.getTopic() != null || topicFilter == null || topicFilter.getClass() == ExactTopicFilter.class) {
+            return ListenerCollection.TopicMatching.EXACT;
+        } else if (topicFilter.getClass() == HierachyTopicFilter.class) {
+            return ListenerCollection.TopicMatching.PREFIX;
+        } else {
+            return ListenerCollection.TopicMatching.CUSTOM;
         }
     }
 
+    /**
+     * Gets the topic that the listener was subscribed to. If it was subscribed without a topic, the topic of the
+     * {@link org.vaadin.spring.events.annotation.EventBusListenerTopic} annotation is returned instead, or the
+     * empty string if the listener method has no such annotation.
+     */
     @Override
-    public boolean supports(Event<?> event) {
-        boolean supports = super.supports(event);
-        try {
-            if (listenerMethod.isAnnotationPresent(EventBusListenerMethod.class)) {
-                supports = supports && isInterestedListenerMethod(event);
-            }
-
-            if (topic != null) {
-                return supports;
-            }
-
-            if (listenerMethod.isAnnotationPresent(EventBusListenerTopic.class) && supports) {
-                supports = isInTopic(event);
-            } else if (!event.getTopic().isEmpty()) {
-                supports = false;
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("A checked exception occurred while invoking listener method " + listenerMethod.getName(), e);
+    public String getTopic() {
+        if (super.getTopic() != null) {
+            return super.getTopic();
         }
-        return supports;
+        return descriptor.getTopicFilter() == null ? "" : descriptor.getTopic();
     }
 
-    private boolean isInterestedListenerMethod(Event<?> event) throws InstantiationException, IllegalAccessException {
-        EventBusListenerMethod annotation = listenerMethod.getAnnotation(EventBusListenerMethod.class);
-        EventBusListenerMethodFilter filter = annotation.filter().newInstance();
-        EventScope scope = annotation.scope();
-        if (scope.equals(EventScope.UNDEFINED)) {
-            scope = event.getScope();
+    @Override
+    void invoke(Object target, LazyEvent event) {
+        try {
+            descriptor.invoke(target, event);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("A checked exception occurred while invoking listener method " + descriptor.getName(), e);
         }
-        return filter.filter(event)
-                && event.getScope().equals(scope) && isFromSource(event, annotation.source());
     }
 
-    private boolean isFromSource(Event<?> event, Class<?>[] sources) {
-        if (sources.length == 0) {
-            return true;
-        }
+    @Override
+    String getListenerMethodName() {
+        return descriptor.getName();
+    }
 
-        boolean result = false;
+    @Override
+    public boolean isBatchListener() {
+        return descriptor.isBatchMethod();
+    }
 
-        for (int i = 0; i < sources.length && !result; i++) {
-            result |= sources[i].isAssignableFrom(event.getSource().getClass());
+    @Override
+    void invokeBatch(Object target, List<Event<?>> events) {
+        try {
+            descriptor.invokeBatch(target, events);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("A checked exception occurred while invoking listener method " + descriptor.getName(), e);
         }
-
-        return result;
     }
 
-    private boolean isInTopic(Event<?> event) throws InstantiationException, IllegalAccessException {
-        EventBusListenerTopic annotation = listenerMethod.getAnnotation(EventBusListenerTopic.class);
-        TopicFilter filter = annotation.filter().newInstance();
-        return filter.validTopic(event.getTopic(), annotation.topic());
+    @Override
+    public boolean supports(LazyEvent event) {
+        if (!super.supports(event) || !descriptor.isInterestedIn(event)) {
+            return false;
+        }
+        // A topic given when subscribing overrides the topic of the listener method
+        return super.getTopic() != null || descriptor.isInTopic(event);
     }
-
 }
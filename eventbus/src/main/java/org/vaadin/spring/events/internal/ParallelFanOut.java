@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Applies an action to a number of targets in parallel and waits until the action has been applied to all of them.
+ * Intended only for internal use by the framework.
+ * <p>
+ * The targets are split into chunks that are claimed one at a time by the calling thread and by tasks submitted to
+ * an executor. The calling thread keeps claiming chunks until there are none left, so the work gets done even if the
+ * executor is saturated or rejects the tasks, and the calling thread never waits for a chunk that has not been
+ * started. Within a chunk, the action is applied to the targets in order.
+ * <p>
+ * Because the method only returns once the action has been applied to every target, the action is applied to any
+ * single target in the same order as the calls of {@link #run(Object[], Consumer)}.
+ */
+final class ParallelFanOut {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelFanOut.class);
+
+    /**
+     * The number of chunks per thread. More chunks than threads lets threads that finish early take over work from
+     * threads that are slowed down by expensive targets.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final Executor executor;
+    private final int parallelism;
+
+    /**
+     * @param executor the executor to run the chunks on in addition to the calling thread, never {@code null}.
+     */
+    ParallelFanOut(Executor executor) {
+        this.executor = executor;
+        this.parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+            : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Applies the action to all targets and waits until it is done. If the action throws an exception for some
+     * targets, it is still applied to the remaining targets, after which the first exception is thrown with the
+     * others added as suppressed exceptions.
+     *
+     * @param targets the targets, never {@code null}.
+     * @param action  the action to apply to each target, never {@code null}.
+     */
+    <T> void run(T[] targets, Consumer<? super T> action) {
+        final int chunkCount = Math.min(targets.length, Math.max(1, parallelism * CHUNKS_PER_THREAD));
+        final int chunkSize = (targets.length + chunkCount - 1) / chunkCount;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(chunkCount);
+        final RuntimeException[] failure = new RuntimeException[1];
+
+        final Runnable worker = () -> {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                try {
+                    final int end = Math.min(targets.length, (chunk + 1) * chunkSize);
+                    for (int i = chunk * chunkSize; i < end; i++) {
+                        try {
+                            action.accept(targets[i]);
+                        } catch (RuntimeException e) {
+                            synchronized (failure) {
+                                if (failure[0] == null) {
+                                    failure[0] = e;
+                                } else {
+                                    failure[0].addSuppressed(e);
+                                }
+                            }
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+
+        final int helpers = Math.min(parallelism, chunkCount) - 1;
+        for (int i = 0; i < helpers; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Executor rejected fan-out task, continuing on the calling thread", e);
+                break;
+            }
+        }
+        worker.run();
+        awaitUninterruptibly(done);
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
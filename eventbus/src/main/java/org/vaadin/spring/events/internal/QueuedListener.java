@@ -0,0 +1,404 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.ListenerQueueStatistics;
+import org.vaadin.spring.events.OverflowPolicy;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Listener that decouples the publisher of an event from another listener by means of a bounded queue. Publishing
+ * an event only adds it to the queue, and the events are taken from the queue and delivered to the other listener, in
+ * order, by a drain that the owning event bus runs on its executor or while holding the session lock. At most one
+ * drain runs at a time, so the other listener never receives events concurrently. What happens to an event when the
+ * queue is full is decided by the {@link OverflowPolicy}.
+ * <p>
+ * A listener that fails to handle a queued event does not prevent it from receiving the following events; the failure
+ * is logged instead. Queued events are not serialized. Intended only for internal use by the framework.
+ */
+final class QueuedListener implements ListenerCollection.Listener {
+
+    private static final long serialVersionUID = 2208547346271640185L;
+
+    private static final Logger logger = LoggerFactory.getLogger(QueuedListener.class);
+
+    private final ScopedEventBus owner;
+    private final ListenerCollection.Listener delegate;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    // The following fields are guarded by this
+    private transient ArrayDeque<Event<?>> queue = new ArrayDeque<Event<?>>();
+    private transient boolean scheduled;
+    private transient Thread drainingThread;
+    private transient boolean removed;
+    private transient long deliveredCount;
+    private transient long droppedCount;
+
+    /**
+     * @param owner          the event bus that runs the drains, never {@code null}.
+     * @param delegate       the listener to deliver the queued events to, never {@code null}.
+     * @param capacity       the maximum number of queued events, must be positive.
+     * @param overflowPolicy the policy that applies when the queue is full, never {@code null}.
+     */
+    QueuedListener(ScopedEventBus owner, ListenerCollection.Listener delegate, int capacity,
+                   OverflowPolicy overflowPolicy) {
+        this.owner = owner;
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        queue = new ArrayDeque<Event<?>>();
+    }
+
+    /**
+     * Gets the listener that the queued events are delivered to.
+     */
+    ListenerCollection.Listener getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Class<?> getPayloadType() {
+        return delegate.getPayloadType();
+    }
+
+    @Override
+    public ListenerCollection.TopicMatching getTopicMatching() {
+        return delegate.getTopicMatching();
+    }
+
+    @Override
+    public String getTopic() {
+        return delegate.getTopic();
+    }
+
+    @Override
+    public boolean supports(LazyEvent event) {
+        return delegate.supports(event);
+    }
+
+    @Override
+    public Object getListenerTarget() {
+        return delegate.getListenerTarget();
+    }
+
+    @Override
+    public ListenerCollection.TargetReference getTargetReference() {
+        return delegate.getTargetReference();
+    }
+
+    @Override
+    public void setTargetReference(ListenerCollection.TargetReference targetReference) {
+        delegate.setTargetReference(targetReference);
+    }
+
+    @Override
+    public boolean isIncludingPropagatingEvents() {
+        return delegate.isIncludingPropagatingEvents();
+    }
+
+    /**
+     * Marks the other listener as removed and discards the queued events.
+     */
+    @Override
+    public boolean markRemoved() {
+        synchronized (this) {
+            removed = true;
+            queue.clear();
+            notifyAll();
+        }
+        return delegate.markRemoved();
+    }
+
+    /**
+     * Returns true, so that a batch of events is queued at once.
+     */
+    @Override
+    public boolean isBatchListener() {
+        return true;
+    }
+
+    @Override
+    public void publish(LazyEvent event) {
+        enqueue(Collections.<Event<?>>singletonList(event.getEvent()));
+    }
+
+    @Override
+    public void publishBatch(List<Event<?>> events, ListenerCollection.FailureHandler failureHandler) {
+        enqueue(events);
+    }
+
+    private void enqueue(List<Event<?>> events) {
+        int offered = 0;
+        while (true) {
+            Offer offer = Offer.QUEUED;
+            Event<?> oldest = null;
+            synchronized (this) {
+                while (offered < events.size() && (offer = offer(events.get(offered))) == Offer.QUEUED) {
+                    offered++;
+                }
+                if (offer == Offer.REMOVED) {
+                    return;
+                } else if (offer == Offer.QUEUED) {
+                    if (scheduled || queue.isEmpty()) {
+                        return;
+                    }
+                    scheduled = true;
+                } else if (offer == Offer.DELIVER_OLDEST) {
+                    oldest = queue.poll();
+                    drainingThread = Thread.currentThread();
+                }
+            }
+            // The drain may run right away, and the other listener must never be called while holding the lock
+            if (oldest != null) {
+                deliverInline(oldest);
+            } else {
+                schedule();
+                if (offer == Offer.QUEUED) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void schedule() {
+        try {
+            owner.drainListenerQueue(this::drain);
+        } catch (RuntimeException e) {
+            logger.debug("Could not schedule drain of listener [{}], discarding queued events", delegate, e);
+            synchronized (this) {
+                droppedCount += queue.size();
+                queue.clear();
+                scheduled = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Adds an event to the queue according to the overflow policy. Must be called while holding the lock of this
+     * listener.
+     *
+     * @return whether the event has been queued or what has to be done, without holding the lock, before it can be.
+     */
+    private Offer offer(Event<?> event) {
+        if (removed) {
+            return Offer.REMOVED;
+        }
+        if (overflowPolicy == OverflowPolicy.COALESCE_LATEST && dropSameKind(event)) {
+            queue.add(event);
+            return Offer.QUEUED;
+        }
+        while (queue.size() >= capacity) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    droppedCount++;
+                    return Offer.QUEUED;
+                case BLOCK:
+                    if (drainingThread == Thread.currentThread()) {
+                        // Waiting for itself would deadlock, so the queue exceeds its capacity this once
+                        queue.add(event);
+                        return Offer.QUEUED;
+                    }
+                    if (!scheduled) {
+                        // The events of a batch are not scheduled until the whole batch has been queued
+                        scheduled = true;
+                        return Offer.SCHEDULE;
+                    }
+                    if (drainingThread == null && owner.holdsDeliveryLock()) {
+                        // The drain needs the lock that this thread holds, so the oldest event is delivered right here
+                        return Offer.DELIVER_OLDEST;
+                    }
+                    awaitRoom();
+                    if (removed) {
+                        return Offer.REMOVED;
+                    }
+                    break;
+                default:
+                    // DROP_OLDEST, and COALESCE_LATEST when no event of the same kind is queued
+                    queue.poll();
+                    droppedCount++;
+            }
+        }
+        queue.add(event);
+        return Offer.QUEUED;
+    }
+
+    private boolean dropSameKind(Event<?> event) {
+        final Iterator<Event<?>> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            final Event<?> queued = iterator.next();
+            if (queued.getPayload().getClass() == event.getPayload().getClass()
+                && queued.getTopic().equals(event.getTopic())) {
+                iterator.remove();
+                droppedCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until the scheduled drain has taken an event from the full queue. Must be called while holding the lock
+     * of this listener.
+     */
+    private void awaitRoom() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for room in the queue of listener " + delegate, e);
+        }
+    }
+
+    /**
+     * Delivers the oldest event, which has been taken from the full queue, on the publishing thread. The publishing
+     * thread counts as the draining thread meanwhile, so that the other listener cannot block on its own queue.
+     */
+    private void deliverInline(Event<?> oldest) {
+        try {
+            deliver(Collections.<Event<?>>singletonList(oldest));
+        } finally {
+            synchronized (this) {
+                drainingThread = null;
+                notifyAll();
+            }
+        }
+    }
+
+    private void drain() {
+        final Thread currentThread = Thread.currentThread();
+        try {
+            while (true) {
+                final List<Event<?>> events;
+                synchronized (this) {
+                    while (drainingThread != null && drainingThread != currentThread) {
+                        // The publisher is delivering the oldest event itself, and the other listener must not be
+                        // called concurrently even if the drain is not held up by the session lock
+                        awaitInlineDelivery();
+                    }
+                    if (queue.isEmpty()) {
+                        scheduled = false;
+                        return;
+                    }
+                    if (delegate.isBatchListener()) {
+                        events = new ArrayList<Event<?>>(queue);
+                        queue.clear();
+                    } else {
+                        events = Collections.<Event<?>>singletonList(queue.poll());
+                    }
+                    drainingThread = currentThread;
+                    notifyAll();
+                }
+                deliver(events);
+            }
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                scheduled = false;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                if (drainingThread == currentThread) {
+                    drainingThread = null;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until the publishing thread has delivered the oldest event of the full queue. Must be called while holding
+     * the lock of this listener.
+     */
+    private void awaitInlineDelivery() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the delivery to listener " + delegate, e);
+        }
+    }
+
+    /**
+     * Delivers events that have been taken from the queue to the other listener. Must not be called by more than one
+     * thread at a time.
+     */
+    private void deliver(List<Event<?>> events) {
+        try {
+            if (delegate.isBatchListener()) {
+                delegate.publishBatch(events, null);
+            } else {
+                delegate.publish(LazyEvent.of(events.get(0)));
+            }
+        } catch (RuntimeException e) {
+            logger.error("Listener [{}] failed to handle queued event [{}]", delegate, events.get(0), e);
+        }
+        synchronized (this) {
+            deliveredCount += events.size();
+        }
+    }
+
+    /**
+     * Gets the current state of the queue.
+     */
+    synchronized ListenerQueueStatistics getStatistics() {
+        return new ListenerQueueStatistics(delegate.getListenerTarget(), delegate.getPayloadType(), capacity,
+            overflowPolicy, queue.size(), deliveredCount, droppedCount);
+    }
+
+    /**
+     * Outcome of offering an event to the queue.
+     */
+    private enum Offer {
+        /**
+         * The event has been queued or dropped according to the overflow policy.
+         */
+        QUEUED,
+        /**
+         * The listener has been removed, so the event has been discarded.
+         */
+        REMOVED,
+        /**
+         * The queue is full and the drain has to be scheduled before the event can be queued.
+         */
+        SCHEDULE,
+        /**
+         * The queue is full and the oldest event has to be delivered by the publishing thread before the event can be
+         * queued.
+         */
+        DELIVER_OLDEST
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[delegate=%s, capacity=%d, overflowPolicy=%s]", getClass().getSimpleName(), delegate,
+            capacity, overflowPolicy);
+    }
+}
@@ -15,6 +15,10 @@
  */
 package org.vaadin.spring.events.internal;
 
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.shared.Registration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aop.framework.Advised;
@@ -22,42 +26,147 @@ import org.springframework.aop.support.AopUtils;
 import org.vaadin.spring.events.Event;
 import org.vaadin.spring.events.EventBus;
 import org.vaadin.spring.events.EventBusListener;
+import org.vaadin.spring.events.EventBusMetrics;
+import org.vaadin.spring.events.EventDeliveryException;
 import org.vaadin.spring.events.EventScope;
-import org.vaadin.spring.events.annotation.EventBusListenerMethod;
+import org.vaadin.spring.events.ListenerLatencyStatistics;
+import org.vaadin.spring.events.ListenerQueueStatistics;
+import org.vaadin.spring.events.OverflowPolicy;
 
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
-import java.lang.reflect.Method;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 /**
  * Implementation of {@link org.vaadin.spring.events.EventBus} that publishes events with one specific
  * {@link org.vaadin.spring.events.EventScope}.
  * A scoped event bus can also have a parent event bus, in which case all events published on the parent bus will
- * propagate to the scoped event bus as well.
+ * propagate to the scoped event bus as well. To keep broadcasts cheap, a scoped event bus is only attached to its
+ * parent while it has listeners that are interested in propagated events, or child event buses of its own.
+ * <p>
+ * When a scoped event bus is serialized together with its session, its child event buses and the attachment to its
+ * parent are not serialized; a deserialized event bus attaches itself to its parent again once the whole object graph
+ * has been read. The {@link DefaultApplicationEventBus application event bus} is serialized as a reference to the live
+ * instance, so that serializing a session neither copies the application event bus nor its listeners. If that
+ * instance is not available when the session is read, the event bus binds to it once it has been created.
  *
  * @author Petter Holmström (petter@vaadin.com)
  */
 public abstract class ScopedEventBus implements EventBus, Serializable {
 
     private static final long serialVersionUID = -582697574672947883L;
-    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private static final ParentListener[] NO_CHILDREN = new ParentListener[0];
+    private static final Logger logger = LoggerFactory.getLogger(ScopedEventBus.class);
     private final EventScope eventScope;
 
     private final ListenerCollection listeners = new ListenerCollection();
 
-    private EventBus parentEventBus;
-    private EventBusListener<Object> parentListener = new EventBusListener<Object>() {
+    private volatile EventBus parentEventBus;
+    private final ParentListener parentListener = new ParentListener();
+    private transient Registration parentRegistration;
+    private transient volatile ParentListener[] children = NO_CHILDREN;
+    private volatile int parallelFanOutThreshold = Integer.MAX_VALUE;
+    private volatile int listenerQueueCapacity;
+    private volatile OverflowPolicy overflowPolicy;
+    private volatile boolean listenerLatencyTracking;
+    private volatile long slowListenerThresholdNanos;
+    private transient Executor executor;
+    private transient AccessDelivery accessDelivery;
+    private transient ScheduledExecutorService scheduler;
+    private transient volatile EventCoalescer coalescer;
+    private transient volatile List<Consumer<? super Event<?>>> publishObservers;
+    private transient volatile List<Runnable> listenerObservers;
+    private transient volatile EventBusMetrics metrics;
+
+    /**
+     * Listener that propagates the events of the parent event bus to this event bus. If the parent is a
+     * {@code ScopedEventBus}, the listener is registered as a child of the parent, which propagates its events to all
+     * children after its own listeners have received them, so that the failures of the listeners of this event bus
+     * can be reported when events are published asynchronously and the children can be served in parallel.
+     * Otherwise, it is subscribed to the parent like any other {@link EventBusListener}.
+     */
+    private class ParentListener implements ListenerCollection.Listener, EventBusListener<Object> {
 
         private static final long serialVersionUID = -8276470908536582989L;
 
+        ScopedEventBus getEventBus() {
+            return ScopedEventBus.this;
+        }
+
+        @Override
+        public Class<?> getPayloadType() {
+            return Object.class;
+        }
+
+        @Override
+        public ListenerCollection.TopicMatching getTopicMatching() {
+            return ListenerCollection.TopicMatching.ANY;
+        }
+
+        @Override
+        public String getTopic() {
+            return null;
+        }
+
+        @Override
+        public boolean supports(LazyEvent event) {
+            return true;
+        }
+
         @Override
-        public void onEvent(final Event<Object> event) {
-            logger.debug("Propagating event [{}] from parent event bus [{}] to event bus [{}]", event, parentEventBus,
-                    ScopedEventBus.this);
-            listeners.publish(event);
+        public void publish(LazyEvent event) {
+            publish(event, null);
         }
 
-    };
+        @Override
+        public void publish(LazyEvent event, ListenerCollection.FailureHandler failureHandler) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Propagating event [{}] from parent event bus [{}] to event bus [{}]", event,
+                        parentEventBus, ScopedEventBus.this);
+            }
+            deliver(event, failureHandler);
+        }
+
+        @Override
+        public boolean isBatchListener() {
+            return true;
+        }
+
+        @Override
+        public void publishBatch(List<Event<?>> events, ListenerCollection.FailureHandler failureHandler) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Propagating {} events from parent event bus [{}] to event bus [{}]", events.size(),
+                        parentEventBus, ScopedEventBus.this);
+            }
+            deliverAll(events, failureHandler);
+        }
+
+        @Override
+        public void onEvent(Event<Object> event) {
+            publish(LazyEvent.of(event));
+        }
+    }
 
     /**
      * @param scope the scope of the events that this event bus handles.
@@ -85,16 +194,668 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
                 }
             }
             logger.debug("Using parent event bus [{}]", this.parentEventBus);
-            this.parentEventBus.subscribe(parentListener);
         }
     }
 
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        children = NO_CHILDREN;
+        // The parent may not have been completely read yet, so attach to it once the whole graph has been read
+        ois.registerValidation(() -> {
+            resolveParent();
+            if (parentEventBus != null && !(parentEventBus instanceof ScopedEventBus)
+                && !(parentEventBus instanceof UnresolvedApplicationEventBus)) {
+                // The listener may have been serialized as a subscriber of the parent
+                parentEventBus.unsubscribe(parentListener);
+            }
+            updateParentSubscription();
+        }, 0);
+    }
+
     @PreDestroy
     void destroy() {
         logger.trace("Destroying event bus [{}] and removing all listeners", this);
         listeners.clear();
+        children = NO_CHILDREN;
+        if (accessDelivery != null) {
+            accessDelivery.clear();
+        }
+        if (coalescer != null) {
+            coalescer.clear();
+        }
+        updateParentSubscription();
+    }
+
+    /**
+     * Sets the executor that invokes the listeners of events published with
+     * {@link #publishAsync(String, Object, Object)}.
+     *
+     * @param executor the executor, or {@code null} to use {@link ForkJoinPool#commonPool()}.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the executor that invokes the listeners of events published with
+     * {@link #publishAsync(String, Object, Object)}.
+     *
+     * @return the executor, never {@code null}.
+     * @see #setExecutor(Executor)
+     */
+    public Executor getExecutor() {
+        return executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+
+    /**
+     * Sets the number of child event buses from which on the events of this event bus are propagated to the child
+     * event buses in parallel, by the {@link #getExecutor() executor} of this event bus and the publishing thread.
+     * Publishing still returns only after all child event buses have received the event, so every child event bus
+     * receives the events in the order they were published.
+     * <p>
+     * This is mainly useful for the application event bus, whose children are the event buses of all sessions. By
+     * default, events are always propagated to the child event buses one at a time by the publishing thread.
+     *
+     * @param threshold the minimum number of child event buses for parallel propagation, or
+     *                  {@link Integer#MAX_VALUE} to never propagate in parallel.
+     */
+    public void setParallelFanOutThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("The parallel fan-out threshold must be positive");
+        }
+        this.parallelFanOutThreshold = threshold;
+    }
+
+    /**
+     * Gets the number of child event buses from which on events are propagated to them in parallel.
+     *
+     * @see #setParallelFanOutThreshold(int)
+     */
+    public int getParallelFanOutThreshold() {
+        return parallelFanOutThreshold;
+    }
+
+    /**
+     * Sets the metrics that record the events published on this event bus, the time it takes to dispatch them to the
+     * listeners and the number of listeners. Metrics are not serialized with the event bus.
+     *
+     * @param metrics the metrics, or {@code null} to not record any metrics.
+     */
+    public void setMetrics(EventBusMetrics metrics) {
+        this.metrics = metrics;
+        listeners.setMetrics(eventScope, metrics);
+    }
+
+    /**
+     * Gets the metrics of this event bus.
+     *
+     * @return the metrics, or {@code null} if no metrics are recorded.
+     * @see #setMetrics(EventBusMetrics)
+     */
+    public EventBusMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gives every listener that is subscribed to this event bus a queue of its own, which holds at most the specified
+     * number of events. Publishing an event then only adds it to the queues of the listeners that support it, and the
+     * listeners receive their events from their queue, in order, by the {@link #getExecutor() executor} of this event
+     * bus or, if the event bus delivers its events while holding the session lock, by access commands. A slow listener
+     * therefore neither slows down the publishers nor the other listeners, and its backlog is bounded by the
+     * capacity of its queue. What happens to an event when a queue is full is decided by the overflow policy.
+     * <p>
+     * Events are delivered to queued listeners after the publishing method has returned, so the future returned by
+     * {@link #publishAsync(String, Object, Object)} completes once the event has been queued, and a listener that
+     * fails to handle a queued event is logged. The {@link OverflowPolicy#BLOCK} policy should only be used if the
+     * publishing threads are not the threads of the executor. Queued events are not serialized with the event bus.
+     * <p>
+     * Listener queues must be configured before any listeners are subscribed.
+     *
+     * @param capacity       the maximum number of events in the queue of a listener, or {@code 0} to deliver the events
+     *                       to the listeners directly.
+     * @param overflowPolicy the policy that applies when the queue of a listener is full, must not be {@code null} if
+     *                       {@code capacity} is positive.
+     * @throws IllegalStateException if listeners have already been subscribed to this event bus.
+     * @see #getListenerQueueStatistics()
+     */
+    public void setListenerQueues(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The listener queue capacity must not be negative");
+        }
+        if (capacity > 0 && overflowPolicy == null) {
+            throw new IllegalArgumentException("The overflow policy must not be null");
+        }
+        if (!listeners.getListeners().isEmpty()) {
+            throw new IllegalStateException("Listener queues must be configured before listeners are subscribed");
+        }
+        this.overflowPolicy = capacity > 0 ? overflowPolicy : null;
+        this.listenerQueueCapacity = capacity;
+    }
+
+    /**
+     * Gets the maximum number of events in the queue of a listener.
+     *
+     * @return the capacity, or {@code 0} if the listeners do not have queues.
+     * @see #setListenerQueues(int, OverflowPolicy)
+     */
+    public int getListenerQueueCapacity() {
+        return listenerQueueCapacity;
+    }
+
+    /**
+     * Gets the policy that applies when the queue of a listener is full.
+     *
+     * @return the overflow policy, or {@code null} if the listeners do not have queues.
+     * @see #setListenerQueues(int, OverflowPolicy)
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Gets the current state of the queues of the listeners that are subscribed to this event bus, for sizing the
+     * queues.
+     *
+     * @return a list of statistics, one for every queue, or an empty list if the listeners do not have queues.
+     * @see #setListenerQueues(int, OverflowPolicy)
+     */
+    public List<ListenerQueueStatistics> getListenerQueueStatistics() {
+        final List<ListenerQueueStatistics> statistics = new ArrayList<ListenerQueueStatistics>();
+        for (ListenerCollection.Listener listener : listeners.getListeners()) {
+            if (listener instanceof QueuedListener) {
+                statistics.add(((QueuedListener) listener).getStatistics());
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Enables or disables the tracking of the latencies of the listeners that are subscribed to this event bus. While
+     * tracking is enabled, every listener records the wall clock time and, if the virtual machine supports it, the
+     * CPU time of its invocations. Listeners with a queue record the time it takes to handle the events taken from
+     * the queue. Tracking can be enabled and disabled at any time; the recorded latencies are kept until the
+     * listeners are unsubscribed.
+     *
+     * @param tracking true to track the latencies, false to stop tracking them.
+     * @see #getListenerLatencyStatistics()
+     * @see #setSlowListenerThreshold(long, TimeUnit)
+     */
+    public void setListenerLatencyTracking(boolean tracking) {
+        this.listenerLatencyTracking = tracking;
+    }
+
+    /**
+     * Checks whether this event bus tracks the latencies of its listeners.
+     *
+     * @see #setListenerLatencyTracking(boolean)
+     */
+    public boolean isListenerLatencyTracking() {
+        return listenerLatencyTracking;
+    }
+
+    /**
+     * Sets the latency above which an invocation of a listener is considered slow. While
+     * {@link #setListenerLatencyTracking(boolean) latency tracking} is enabled, slow invocations are logged as
+     * warnings and counted in the {@link #getListenerLatencyStatistics() statistics} of the listener.
+     *
+     * @param threshold the threshold, or {@code 0} to consider no invocation slow.
+     * @param unit      the time unit of the threshold, never {@code null}.
+     */
+    public void setSlowListenerThreshold(long threshold, TimeUnit unit) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The slow listener threshold must not be negative");
+        }
+        this.slowListenerThresholdNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * Gets the latency above which an invocation of a listener is considered slow.
+     *
+     * @param unit the time unit to return the threshold in, never {@code null}.
+     * @return the threshold, or {@code 0} if no invocation is considered slow.
+     * @see #setSlowListenerThreshold(long, TimeUnit)
+     */
+    public long getSlowListenerThreshold(TimeUnit unit) {
+        return unit.convert(slowListenerThresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the latencies of the listeners that are subscribed to this event bus and have been invoked while
+     * latency tracking was enabled.
+     *
+     * @return a list of statistics, one for every listener method or {@link EventBusListener}, never {@code null}.
+     * @see #setListenerLatencyTracking(boolean)
+     */
+    public List<ListenerLatencyStatistics> getListenerLatencyStatistics() {
+        final List<ListenerLatencyStatistics> statistics = new ArrayList<ListenerLatencyStatistics>();
+        for (ListenerCollection.Listener listener : listeners.getListeners()) {
+            if (listener instanceof QueuedListener) {
+                listener = ((QueuedListener) listener).getDelegate();
+            }
+            if (listener instanceof AbstractListenerWrapper) {
+                final ListenerLatencyStatistics latency = ((AbstractListenerWrapper) listener).getLatencyStatistics();
+                if (latency != null) {
+                    statistics.add(latency);
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Checks whether the invocations of the listeners must be measured, either for the metrics or for latency
+     * tracking.
+     */
+    boolean isInstrumentingListeners() {
+        return metrics != null || listenerLatencyTracking;
+    }
+
+    /**
+     * Runs the drain of a listener queue by the executor, or while holding the session lock if this event bus
+     * delivers its events while holding the lock.
+     *
+     * @throws RuntimeException if the drain could not be scheduled.
+     */
+    void drainListenerQueue(Command drain) {
+        final AccessDelivery delivery = accessDelivery;
+        if (delivery != null) {
+            delivery.run(drain);
+            return;
+        }
+        try {
+            getExecutor().execute(drain::execute);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Could not drain listener queue by the executor, draining it on the publishing thread", e);
+            drain.execute();
+        }
+    }
+
+    /**
+     * Checks whether this event bus delivers its events while holding the session lock, and the current thread holds
+     * the lock. If so, a drain scheduled by {@link #drainListenerQueue(Command)} cannot start before the lock is
+     * released, so a full listener queue delivers its oldest event on the current thread instead of waiting for the
+     * drain. The queue does not rely on this for mutual exclusion: a drain that starts anyway waits for that delivery
+     * to finish.
+     */
+    boolean holdsDeliveryLock() {
+        final AccessDelivery delivery = accessDelivery;
+        return delivery != null && delivery.holdsLock();
+    }
+
+    private synchronized void addChild(ParentListener child) {
+        final ParentListener[] newChildren = Arrays.copyOf(children, children.length + 1);
+        newChildren[children.length] = child;
+        children = newChildren;
+        updateParentSubscription();
+    }
+
+    private synchronized void removeChild(ParentListener child) {
+        final List<ParentListener> newChildren = new ArrayList<ParentListener>(Arrays.asList(children));
+        if (newChildren.remove(child)) {
+            children = newChildren.toArray(NO_CHILDREN);
+            updateParentSubscription();
+        }
+    }
+
+    /**
+     * Attaches this event bus to its parent if it has listeners that are interested in propagated events or child
+     * event buses of its own, and detaches it otherwise. Must be called whenever either of these changes.
+     */
+    private synchronized void updateParentSubscription() {
+        final boolean wasAttached = parentRegistration != null;
         if (parentEventBus != null) {
-            parentEventBus.unsubscribe(parentListener);
+            final boolean interested = listeners.hasPropagatingListeners() || children.length > 0;
+            if (interested && !resolveParent()) {
+                logger.debug("Deferring the attachment of event bus [{}] until its application event bus is available",
+                        this);
+                DefaultApplicationEventBus.bindLater(this);
+            } else if (interested && parentRegistration == null) {
+                logger.debug("Attaching event bus [{}] to parent event bus [{}]", this, parentEventBus);
+                parentRegistration = attachToParent();
+            } else if (!interested && parentRegistration != null) {
+                logger.debug("Detaching event bus [{}] from parent event bus [{}]", this, parentEventBus);
+                parentRegistration.remove();
+                parentRegistration = null;
+            }
+        }
+        notifyListenerObservers(wasAttached || parentRegistration != null);
+    }
+
+    /**
+     * Replaces a parent event bus that could not be resolved when this event bus was deserialized with the live
+     * application event bus, if it is available now.
+     *
+     * @return true if the parent event bus is resolved, false if it is still unresolved.
+     */
+    private boolean resolveParent() {
+        final EventBus parent = parentEventBus;
+        if (parent instanceof UnresolvedApplicationEventBus) {
+            final DefaultApplicationEventBus resolved = ((UnresolvedApplicationEventBus) parent).tryResolve();
+            if (resolved == null) {
+                return false;
+            }
+            parentEventBus = resolved;
+        }
+        return true;
+    }
+
+    private void notifyListenerObservers(boolean notifyParent) {
+        final List<Runnable> observers = listenerObservers;
+        if (observers != null) {
+            for (Runnable observer : observers) {
+                observer.run();
+            }
+        }
+        // The listeners of an attached event bus receive the events of the parent, so they count as its listeners too
+        if (notifyParent && parentEventBus instanceof ScopedEventBus) {
+            ((ScopedEventBus) parentEventBus).notifyListenerObservers(true);
+        }
+    }
+
+    private Registration attachToParent() {
+        final EventBus parent = parentEventBus;
+        final ParentListener listener = parentListener;
+        if (parent instanceof ScopedEventBus) {
+            ((ScopedEventBus) parent).addChild(listener);
+            return () -> ((ScopedEventBus) parent).removeChild(listener);
+        } else {
+            return parent.subscribeWithRegistration(listener);
+        }
+    }
+
+    /**
+     * Checks whether this event bus is currently attached to its parent event bus, i.e. receives the events published
+     * on the parent.
+     */
+    boolean isAttachedToParent() {
+        synchronized (this) {
+            return parentRegistration != null;
+        }
+    }
+
+    private void propagate(Consumer<ParentListener> propagation) {
+        final ParentListener[] children = this.children;
+        if (children.length >= parallelFanOutThreshold) {
+            logger.trace("Propagating event to {} child event buses in parallel", children.length);
+            new ParallelFanOut(getExecutor()).run(children, propagation);
+        } else {
+            for (ParentListener child : children) {
+                propagation.accept(child);
+            }
+        }
+    }
+
+    /**
+     * Sets the scheduler that times the windows of {@link #coalesce(String, Class, long, TimeUnit) coalesced} events.
+     *
+     * @param scheduler the scheduler, or {@code null} to use a shared scheduler with a single daemon thread.
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Gets the scheduler that times the windows of {@link #coalesce(String, Class, long, TimeUnit) coalesced} events.
+     *
+     * @return the scheduler, never {@code null}.
+     * @see #setScheduler(ScheduledExecutorService)
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler == null ? EventCoalescer.getDefaultScheduler() : scheduler;
+    }
+
+    /**
+     * Coalesces the matching events that are published on or propagated to this event bus. The first matching event
+     * opens a window of the specified length, and every further matching event with the same topic that arrives
+     * within the window replaces the pending one. When the window closes, only the latest event is delivered to the
+     * listeners, by the {@link #getExecutor() executor} of this event bus. This bounds the number of listener
+     * invocations for high-frequency events, such as progress updates, where only the latest value matters.
+     * <p>
+     * Coalesced events are delivered after the publishing method has returned, and a listener that fails to handle
+     * a coalesced event is logged. Coalescing rules are not serialized with the event bus.
+     *
+     * @param topic       the topic of the events to coalesce, or {@code null} to coalesce the events of every topic
+     *                    separately.
+     * @param payloadType the payload type of the events to coalesce, never {@code null}.
+     * @param window      the length of the window, must be positive.
+     * @param unit        the unit of {@code window}, never {@code null}.
+     * @return a registration that stops coalescing the events when removed, never {@code null}.
+     */
+    public Registration coalesce(String topic, Class<?> payloadType, long window, TimeUnit unit) {
+        logger.debug("Coalescing events with payload type [{}] in topic [{}] within {} {} on event bus [{}]",
+                payloadType.getName(), topic, window, unit, this);
+        final EventCoalescer.Rule rule = new EventCoalescer.Rule(topic, payloadType, window, unit);
+        synchronized (this) {
+            if (coalescer == null) {
+                coalescer = new EventCoalescer(event -> dispatch(LazyEvent.of(event), null));
+            }
+        }
+        coalescer.addRule(rule);
+        return () -> coalescer.removeRule(rule);
+    }
+
+    /**
+     * Observes the events that are published on this event bus, for example to forward them to other nodes of a
+     * cluster. The observer is invoked by the publishing thread before the event is delivered to the listeners, and
+     * only for events that are published on this event bus itself, not for the events propagated from its parent.
+     * The observer must return quickly and must not throw exceptions. Observers are not serialized with the event bus.
+     *
+     * @param observer the observer to invoke, never {@code null}.
+     * @return a registration that removes the observer, never {@code null}.
+     */
+    public Registration observePublishedEvents(Consumer<? super Event<?>> observer) {
+        synchronized (this) {
+            publishObservers = with(publishObservers, observer);
+        }
+        return () -> {
+            synchronized (ScopedEventBus.this) {
+                publishObservers = without(publishObservers, observer);
+            }
+        };
+    }
+
+    /**
+     * Observes the listeners of this event bus. The observer is invoked whenever a listener is subscribed to or
+     * unsubscribed from this event bus, or from any of the child event buses that events published on this event bus
+     * propagate to. The observer is invoked while holding the lock of the event bus, so it must return quickly and
+     * must not access the event bus. Observers are not serialized with the event bus.
+     *
+     * @param observer the observer to invoke, never {@code null}.
+     * @return a registration that removes the observer, never {@code null}.
+     * @see #collectListenerInterests(InterestCollector)
+     */
+    public Registration observeListeners(Runnable observer) {
+        synchronized (this) {
+            listenerObservers = with(listenerObservers, observer);
+        }
+        return () -> {
+            synchronized (ScopedEventBus.this) {
+                listenerObservers = without(listenerObservers, observer);
+            }
+        };
+    }
+
+    private static <T> List<T> with(List<T> observers, T observer) {
+        final List<T> newObservers = observers == null ? new ArrayList<T>() : new ArrayList<T>(observers);
+        newObservers.add(observer);
+        return newObservers;
+    }
+
+    private static <T> List<T> without(List<T> observers, T observer) {
+        if (observers == null) {
+            return null;
+        }
+        final List<T> newObservers = new ArrayList<T>(observers);
+        newObservers.remove(observer);
+        return newObservers.isEmpty() ? null : newObservers;
+    }
+
+    /**
+     * Collector of the payload types and topics that listeners are interested in.
+     *
+     * @see #collectListenerInterests(InterestCollector)
+     */
+    @FunctionalInterface
+    public interface InterestCollector {
+
+        /**
+         * Collects the interest of a listener.
+         *
+         * @param payloadType the payload type of the listener, never {@code null}.
+         * @param topic       the topic of the listener, or {@code null} if the listener is interested in events of
+         *                    any topic.
+         * @param prefix      true if the listener is interested in all topics that start with {@code topic}.
+         */
+        void collect(Class<?> payloadType, String topic, boolean prefix);
+    }
+
+    /**
+     * Collects the payload types and topics that the listeners of this event bus are interested in, including the
+     * listeners of the child event buses that receive the events published on this event bus. A listener that decides
+     * by itself which topics it supports is reported as interested in any topic.
+     *
+     * @param collector the collector to pass the interests to, never {@code null}.
+     * @see #observeListeners(Runnable)
+     */
+    public void collectListenerInterests(InterestCollector collector) {
+        collectListenerInterests(collector, false);
+    }
+
+    private void collectListenerInterests(InterestCollector collector, boolean propagatingOnly) {
+        for (ListenerCollection.Listener listener : listeners.getListeners()) {
+            if (propagatingOnly && !listener.isIncludingPropagatingEvents()) {
+                continue;
+            }
+            switch (listener.getTopicMatching()) {
+                case EXACT:
+                    collector.collect(listener.getPayloadType(), listener.getTopic(), false);
+                    break;
+                case PREFIX:
+                    collector.collect(listener.getPayloadType(), listener.getTopic(), true);
+                    break;
+                default:
+                    collector.collect(listener.getPayloadType(), null, false);
+            }
+        }
+        for (ParentListener child : children) {
+            child.getEventBus().collectListenerInterests(collector, true);
+        }
+    }
+
+    private void notifyPublishObservers(List<Consumer<? super Event<?>>> observers, Event<?> event) {
+        for (Consumer<? super Event<?>> observer : observers) {
+            observer.accept(event);
+        }
+    }
+
+    /**
+     * Makes this event bus deliver its events while holding the lock of a Vaadin session. Events published by a thread
+     * that does not hold the lock are queued and delivered in batches by the specified access method.
+     *
+     * @param access  runs a command while holding the lock, or {@code null} to deliver events on the publishing thread.
+     * @param hasLock checks whether the current thread holds the lock, must not be {@code null} if {@code access} is
+     *                not.
+     * @see AccessDelivery
+     */
+    void setAccessDelivery(Consumer<Command> access, BooleanSupplier hasLock) {
+        accessDelivery = access == null ? null : new AccessDelivery(this::publishNow, this::publishAllNow, access,
+                hasLock);
+    }
+
+    /**
+     * Checks whether this event bus delivers its events while holding the lock of a Vaadin session.
+     */
+    public boolean isAccessDeliveryEnabled() {
+        return accessDelivery != null;
+    }
+
+    private void deliver(LazyEvent event, ListenerCollection.FailureHandler failureHandler) {
+        if (!isCoalesced(event)) {
+            dispatch(event, failureHandler);
+        }
+    }
+
+    private boolean isCoalesced(LazyEvent event) {
+        final EventCoalescer coalescer = this.coalescer;
+        return coalescer != null && !coalescer.isEmpty() && coalescer.offer(event, getScheduler(), getExecutor());
+    }
+
+    private void dispatch(LazyEvent event, ListenerCollection.FailureHandler failureHandler) {
+        final AccessDelivery delivery = accessDelivery;
+        // Queued listeners are drained while holding the lock, so the events need not be queued for access as well
+        if (delivery == null || listenerQueueCapacity > 0) {
+            publishNow(event, failureHandler);
+        } else {
+            delivery.deliver(event, failureHandler);
+        }
+    }
+
+    private void publishNow(LazyEvent event, ListenerCollection.FailureHandler failureHandler) {
+        expungeStaleListeners();
+        final EventBusMetrics metrics = this.metrics;
+        if (metrics == null) {
+            listeners.publish(event, failureHandler);
+        } else {
+            final Class<?> payloadType = event.getPayload().getClass();
+            final boolean propagated = event.getEventBus() != this;
+            final Object context = metrics.dispatchStarted(eventScope, event.getTopic(), payloadType, propagated);
+            final long start = System.nanoTime();
+            final int listenerCount;
+            try {
+                listenerCount = listeners.publish(event, failureHandler);
+            } catch (RuntimeException | Error e) {
+                metrics.dispatchFinished(context, 0);
+                throw e;
+            }
+            metrics.eventDispatched(eventScope, event.getTopic(), payloadType, propagated, listenerCount,
+                    System.nanoTime() - start);
+            metrics.dispatchFinished(context, listenerCount);
+        }
+        final ParentListener[] children = this.children;
+        if (children.length >= parallelFanOutThreshold) {
+            // The child event buses are served by other threads, which must not share the reusable lazy event
+            final Event<?> shared = event.getEvent();
+            propagate(child -> child.publish(LazyEvent.of(shared), failureHandler));
+        } else {
+            for (ParentListener child : children) {
+                child.publish(event, failureHandler);
+            }
+        }
+    }
+
+    private void publishAllNow(List<Event<?>> events, ListenerCollection.FailureHandler failureHandler) {
+        expungeStaleListeners();
+        final EventBusMetrics metrics = this.metrics;
+        if (metrics == null) {
+            listeners.publishAll(events, failureHandler);
+        } else {
+            final long start = System.nanoTime();
+            final int deliveryCount = listeners.publishAll(events, failureHandler);
+            metrics.batchDispatched(eventScope, events.size(), events.get(0).getEventBus() != this, deliveryCount,
+                    System.nanoTime() - start);
+        }
+        propagate(child -> child.publishBatch(events, failureHandler));
+    }
+
+    private void deliverAll(List<Event<?>> events, ListenerCollection.FailureHandler failureHandler) {
+        final EventCoalescer coalescer = this.coalescer;
+        if (coalescer != null && !coalescer.isEmpty()) {
+            final List<Event<?>> uncoalesced = new ArrayList<Event<?>>(events.size());
+            for (Event<?> event : events) {
+                if (!isCoalesced(LazyEvent.of(event))) {
+                    uncoalesced.add(event);
+                }
+            }
+            if (uncoalesced.isEmpty()) {
+                return;
+            }
+            events = uncoalesced;
+        }
+        final AccessDelivery delivery = accessDelivery;
+        if (delivery == null || listenerQueueCapacity > 0) {
+            publishAllNow(events, failureHandler);
+        } else {
+            delivery.deliverAll(events, failureHandler);
         }
     }
 
@@ -110,9 +871,24 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
 
     @Override
     public <T> void publish(String topic, Object sender, T payload) {
-        logger.debug("Publishing payload [{}] from sender [{}] on event bus [{}] in topic  [{}]", payload, sender, this,
-                topic);
-        listeners.publish(new Event<T>(this, sender, payload, topic));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Publishing payload [{}] from sender [{}] on event bus [{}] in topic  [{}]", payload, sender,
+                    this, topic);
+        }
+        final LazyEvent event = LazyEvent.acquire(this, sender, payload, topic);
+        try {
+            final List<Consumer<? super Event<?>>> observers = publishObservers;
+            if (observers != null) {
+                notifyPublishObservers(observers, event.getEvent());
+            }
+            final EventBusMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.eventPublished(eventScope, topic, payload.getClass());
+            }
+            deliver(event, null);
+        } finally {
+            event.release();
+        }
     }
 
     @Override
@@ -123,8 +899,10 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
     @Override
     public <T> void publish(EventScope scope, String topic, Object sender, T payload)
             throws UnsupportedOperationException {
-        logger.debug("Trying to publish payload [{}] from sender [{}] using scope [{}] on event bus [{}] in topic [{}]",
-                payload, sender, scope, this, topic);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Trying to publish payload [{}] from sender [{}] using scope [{}] on event bus [{}] in topic [{}]",
+                    payload, sender, scope, this, topic);
+        }
 
         if (eventScope.equals(scope)) {
             publish(topic, sender, payload);
@@ -136,9 +914,126 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
         }
     }
 
+    @Override
+    public void publishAll(Object sender, Collection<?> payloads) {
+        publishAll("", sender, payloads);
+    }
+
+    @Override
+    public void publishAll(String topic, Object sender, Collection<?> payloads) {
+        logger.debug("Publishing {} payloads from sender [{}] on event bus [{}] in topic [{}]", payloads.size(), sender,
+                this, topic);
+        final List<Event<?>> events = new ArrayList<Event<?>>(payloads.size());
+        for (Object payload : payloads) {
+            events.add(new Event<Object>(this, sender, payload, topic));
+        }
+        final List<Consumer<? super Event<?>>> observers = publishObservers;
+        if (observers != null) {
+            for (Event<?> event : events) {
+                notifyPublishObservers(observers, event);
+            }
+        }
+        final EventBusMetrics metrics = this.metrics;
+        if (metrics != null) {
+            for (Event<?> event : events) {
+                metrics.eventPublished(eventScope, topic, event.getPayload().getClass());
+            }
+        }
+        if (!events.isEmpty()) {
+            deliverAll(events, null);
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<Void> publishAsync(Object sender, T payload) {
+        return publishAsync("", sender, payload);
+    }
+
+    @Override
+    public <T> CompletableFuture<Void> publishAsync(String topic, Object sender, T payload) {
+        logger.debug("Publishing payload [{}] asynchronously from sender [{}] on event bus [{}] in topic  [{}]", payload,
+                sender, this, topic);
+        final Event<T> event = new Event<T>(this, sender, payload, topic);
+        final List<Consumer<? super Event<?>>> observers = publishObservers;
+        if (observers != null) {
+            notifyPublishObservers(observers, event);
+        }
+        final EventBusMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.eventPublished(eventScope, topic, payload.getClass());
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        try {
+            getExecutor().execute(() -> {
+                final DeliveryFailures failures = new DeliveryFailures();
+                try {
+                    deliver(LazyEvent.of(event), failures);
+                } catch (RuntimeException | Error e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                failures.complete(future, event);
+            });
+        } catch (RuntimeException e) {
+            logger.error("Could not publish event [{}] asynchronously on event bus [{}]", event, this, e);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public <T> CompletableFuture<Void> publishAsync(EventScope scope, Object sender, T payload)
+            throws UnsupportedOperationException {
+        return publishAsync(scope, "", sender, payload);
+    }
+
+    @Override
+    public <T> CompletableFuture<Void> publishAsync(EventScope scope, String topic, Object sender, T payload)
+            throws UnsupportedOperationException {
+        logger.debug("Trying to publish payload [{}] asynchronously from sender [{}] using scope [{}] on event bus [{}] in topic [{}]",
+                payload, sender, scope, this, topic);
+
+        if (eventScope.equals(scope)) {
+            return publishAsync(topic, sender, payload);
+        } else if (parentEventBus != null) {
+            return parentEventBus.publishAsync(scope, topic, sender, payload);
+        } else {
+            logger.warn("Could not publish payload with scope [{}] on event bus [{}]", scope, this);
+            throw new UnsupportedOperationException("Could not publish event with scope " + scope);
+        }
+    }
+
+    /**
+     * Collects the failures of the listeners of an event that is published asynchronously.
+     */
+    private class DeliveryFailures implements ListenerCollection.FailureHandler {
+
+        private final List<Throwable> failures = new ArrayList<Throwable>();
+
+        @Override
+        public synchronized void onFailure(ListenerCollection.Listener listener, Event<?> event, RuntimeException exception) {
+            logger.warn("Listener [{}] failed to handle event [{}] published on event bus [{}]", listener, event,
+                    ScopedEventBus.this, exception);
+            failures.add(exception);
+        }
+
+        synchronized void complete(CompletableFuture<Void> future, Event<?> event) {
+            if (failures.isEmpty()) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(new EventDeliveryException(event, failures));
+            }
+        }
+    }
+
     @Override
     public <T> void subscribe(EventBusListener<T> listener) {
-        subscribe(listener, true);
+        subscribeWithRegistration(listener, true);
+    }
+
+    @Override
+    public <T> Registration subscribeWithRegistration(EventBusListener<T> listener) {
+        return subscribeWithRegistration(listener, true);
     }
 
     @Override
@@ -148,34 +1043,56 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
 
     @Override
     public <T> void subscribe(EventBusListener<T> listener, String topic) {
+        subscribeWithRegistration(listener, topic);
+    }
+
+    @Override
+    public <T> Registration subscribeWithRegistration(EventBusListener<T> listener, String topic) {
         logger.trace("Subscribing listener [{}] to event bus [{}]", listener, this);
-        listeners.add(new EventBusListenerWrapper(this, listener, topic, true));
+        expungeStaleListeners();
+        return register(new EventBusListenerWrapper(this, listener, null, topic, true));
     }
 
     @Override
     public <T> void subscribe(EventBusListener<T> listener, boolean includingPropagatingEvents) {
+        subscribeWithRegistration(listener, includingPropagatingEvents);
+    }
+
+    @Override
+    public <T> Registration subscribeWithRegistration(EventBusListener<T> listener,
+                                                      boolean includingPropagatingEvents) {
         logger.trace("Subscribing listener [{}] to event bus [{}], includingPropagatingEvents = {}", listener, this,
                 includingPropagatingEvents);
-        listeners.add(new EventBusListenerWrapper(this, listener, null, includingPropagatingEvents));
+        expungeStaleListeners();
+        return register(new EventBusListenerWrapper(this, listener, null, null, includingPropagatingEvents));
     }
 
     @Override
     public <T> void subscribeWithWeakReference(EventBusListener<T> listener, String topic) {
         logger.trace("Subscribing listener [{}] to event bus [{}] with weak reference",
                 listener, this);
-        listeners.addWithWeakReference(new EventBusListenerWrapper(this, listener, topic, true));
+        expungeStaleListeners();
+        register(new EventBusListenerWrapper(this, listener, new ListenerCollection.TargetReference(listener),
+                topic, true));
     }
 
     @Override
     public <T> void subscribeWithWeakReference(EventBusListener<T> listener, boolean includingPropagatingEvents) {
         logger.trace("Subscribing listener [{}] to event bus [{}] with weak reference, includingPropagatingEvents = {}",
                 listener, this, includingPropagatingEvents);
-        listeners.addWithWeakReference(new EventBusListenerWrapper(this, listener, null, includingPropagatingEvents));
+        expungeStaleListeners();
+        register(new EventBusListenerWrapper(this, listener, new ListenerCollection.TargetReference(listener),
+                null, includingPropagatingEvents));
     }
 
     @Override
     public void subscribe(Object listener) {
-        subscribe(listener, true);
+        subscribe(listener, null, true, false);
+    }
+
+    @Override
+    public Registration subscribeWithRegistration(Object listener) {
+        return subscribe(listener, null, true, false);
     }
 
     @Override
@@ -183,14 +1100,19 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
         subscribe(listener, topic, true, false);
     }
 
+    @Override
+    public Registration subscribeWithRegistration(Object listener, String topic) {
+        return subscribe(listener, topic, true, false);
+    }
+
     @Override
     public void subscribeWithWeakReference(Object listener, String topic) {
-        subscribe(listener, topic, true, false);
+        subscribe(listener, topic, true, true);
     }
 
     @Override
     public void subscribeWithWeakReference(Object listener) {
-        subscribeWithWeakReference(listener, true);
+        subscribe(listener, null, true, true);
     }
 
     @Override
@@ -198,41 +1120,56 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
         subscribe(listener, null, includingPropagatingEvents, false);
     }
 
+    @Override
+    public Registration subscribeWithRegistration(Object listener, boolean includingPropagatingEvents) {
+        return subscribe(listener, null, includingPropagatingEvents, false);
+    }
+
     @Override
     public void subscribeWithWeakReference(Object listener, boolean includingPropagatingEvents) {
         subscribe(listener, null, includingPropagatingEvents, true);
     }
 
-    private void subscribe(final Object listener, final String topic, final boolean includingPropagatingEvents,
-                           final boolean weakReference) {
+    private Registration subscribe(final Object listener, final String topic, final boolean includingPropagatingEvents,
+                                   final boolean weakReference) {
         logger.trace("Subscribing listener [{}] to event bus [{}], includingPropagatingEvents = {}, weakReference = {}",
                 listener, this, includingPropagatingEvents, weakReference);
 
-        final int[] foundMethods = new int[1];
-        ClassUtils.visitClassHierarchy(clazz -> {
-            for (Method m : clazz.getDeclaredMethods()) {
-                if (m.isAnnotationPresent(EventBusListenerMethod.class)) {
-                    if (m.getParameterTypes().length == 1) {
-                        logger.trace("Found listener method [{}] in listener [{}]", m.getName(), listener);
-                        MethodListenerWrapper l = new MethodListenerWrapper(ScopedEventBus.this, listener, topic,
-                                includingPropagatingEvents, m);
-                        if (weakReference) {
-                            listeners.addWithWeakReference(l);
-                        } else {
-                            listeners.add(l);
-                        }
-                        foundMethods[0]++;
-                    } else {
-                        throw new IllegalArgumentException(
-                                "Listener method " + m.getName() + " does not have the required signature");
-                    }
-                }
-            }
-        }, listener.getClass());
-
-        if (foundMethods[0] == 0) {
+        expungeStaleListeners();
+        final ListenerMethodDescriptor[] descriptors = ListenerMethodDescriptor.forListenerClass(listener.getClass());
+        if (descriptors.length == 0) {
             logger.warn("Listener [{}] did not contain a single listener method!", listener);
         }
+        // All listener methods of the target share the same reference, so that the target is only counted once
+        final ListenerCollection.TargetReference targetReference = weakReference && descriptors.length > 0
+                ? new ListenerCollection.TargetReference(listener) : null;
+        final ListenerCollection.Listener[] wrappers = new ListenerCollection.Listener[descriptors.length];
+        for (int i = 0; i < descriptors.length; i++) {
+            logger.trace("Found listener method [{}] in listener [{}]", descriptors[i].getName(), listener);
+            wrappers[i] = new MethodListenerWrapper(this, listener, targetReference, topic,
+                    includingPropagatingEvents, descriptors[i]);
+        }
+        return register(wrappers);
+    }
+
+    /**
+     * Adds the specified listeners, which make up a single subscription, to this event bus.
+     *
+     * @return a registration that removes exactly these listeners, without looking at any other listeners.
+     */
+    private Registration register(ListenerCollection.Listener... wrappers) {
+        final int capacity = listenerQueueCapacity;
+        for (int i = 0; i < wrappers.length; i++) {
+            if (capacity > 0) {
+                wrappers[i] = new QueuedListener(this, wrappers[i], capacity, overflowPolicy);
+            }
+            listeners.add(wrappers[i]);
+        }
+        updateParentSubscription();
+        return () -> {
+            listeners.remove(wrappers);
+            updateParentSubscription();
+        };
     }
 
     @Override
@@ -243,8 +1180,23 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
     @Override
     public void unsubscribe(final Object listener) {
         logger.trace("Unsubscribing listener [{}] from event bus [{}]", listener, this);
-        listeners.removeAll(l -> (l instanceof AbstractListenerWrapper)
-                && (((AbstractListenerWrapper) l).getListenerTarget() == listener));
+        listeners.removeByTarget(listener);
+        updateParentSubscription();
+    }
+
+    /**
+     * Gets the number of listeners subscribed with a weak reference that have been garbage collected without being
+     * unsubscribed. Their subscriptions are removed when an event is published or a listener is subscribed.
+     * A listener object with multiple listener methods is counted once.
+     */
+    public long getReclaimedListenerCount() {
+        return listeners.getReclaimedListenerCount();
+    }
+
+    private void expungeStaleListeners() {
+        if (listeners.expungeStaleListeners()) {
+            updateParentSubscription();
+        }
     }
 
     /**
@@ -254,6 +1206,7 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
      * @return the parent event bus, or {@code null} if this event bus has no parent.
      */
     protected EventBus getParentEventBus() {
+        resolveParent();
         return parentEventBus;
     }
 
@@ -268,8 +1221,314 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
      */
     public static class DefaultApplicationEventBus extends ScopedEventBus implements ApplicationEventBus {
 
+        private static final Map<String, WeakReference<DefaultApplicationEventBus>> INSTANCES =
+            new ConcurrentHashMap<String, WeakReference<DefaultApplicationEventBus>>();
+
+        private static final Set<ScopedEventBus> WAITING_EVENT_BUSES =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ScopedEventBus, Boolean>()));
+
+        private final String id = UUID.randomUUID().toString();
+
         public DefaultApplicationEventBus() {
             super(EventScope.APPLICATION);
+            INSTANCES.values().removeIf(instance -> instance.get() == null);
+            INSTANCES.put(id, new WeakReference<DefaultApplicationEventBus>(this));
+            bindWaitingEventBuses(this);
+        }
+
+        @Override
+        void destroy() {
+            super.destroy();
+            INSTANCES.remove(id);
+        }
+
+        private Object writeReplace() {
+            return new SerializedApplicationEventBus(id);
+        }
+
+        /**
+         * Finds the live instance with the specified id or, after a failover to another node, the only live instance
+         * of the web application.
+         *
+         * @return the instance, or {@code null} if there is no instance with the id and not exactly one live instance.
+         */
+        static DefaultApplicationEventBus find(String id) {
+            final WeakReference<DefaultApplicationEventBus> instance = INSTANCES.get(id);
+            DefaultApplicationEventBus eventBus = instance == null ? null : instance.get();
+            if (eventBus == null) {
+                final List<DefaultApplicationEventBus> live = new ArrayList<DefaultApplicationEventBus>(1);
+                for (WeakReference<DefaultApplicationEventBus> candidate : INSTANCES.values()) {
+                    final DefaultApplicationEventBus liveInstance = candidate.get();
+                    if (liveInstance != null) {
+                        live.add(liveInstance);
+                    }
+                }
+                eventBus = live.size() == 1 ? live.get(0) : null;
+            }
+            return eventBus;
+        }
+
+        /**
+         * Resolves a serialized application event bus to the live instance with the same id or, after a failover to
+         * another node, to the only live instance of the web application. Sessions are often restored before the
+         * application context has created its application event bus, so if the instance cannot be found, the event
+         * bus is resolved to a reference that binds to the live instance once it is available.
+         */
+        static ApplicationEventBus resolve(String id) {
+            final DefaultApplicationEventBus eventBus = find(id);
+            if (eventBus == null) {
+                logger.debug("Application event bus [{}] is not available yet, binding to it once it is", id);
+                return new UnresolvedApplicationEventBus(id);
+            }
+            return eventBus;
+        }
+
+        /**
+         * Binds the unresolved parent of the specified event bus to the next application event bus that is created.
+         */
+        static void bindLater(ScopedEventBus eventBus) {
+            WAITING_EVENT_BUSES.add(eventBus);
+        }
+
+        private static void bindWaitingEventBuses(DefaultApplicationEventBus created) {
+            final List<ScopedEventBus> waiting;
+            synchronized (WAITING_EVENT_BUSES) {
+                waiting = new ArrayList<ScopedEventBus>(WAITING_EVENT_BUSES);
+                WAITING_EVENT_BUSES.clear();
+            }
+            for (ScopedEventBus eventBus : waiting) {
+                final EventBus parent = eventBus.parentEventBus;
+                if (parent instanceof UnresolvedApplicationEventBus) {
+                    ((UnresolvedApplicationEventBus) parent).bind(created);
+                }
+                eventBus.updateParentSubscription();
+            }
+        }
+    }
+
+    /**
+     * Serialized form of a {@link DefaultApplicationEventBus}.
+     */
+    private static final class SerializedApplicationEventBus implements Serializable {
+
+        private static final long serialVersionUID = 2369816094571562830L;
+
+        private final String id;
+
+        SerializedApplicationEventBus(String id) {
+            this.id = id;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return DefaultApplicationEventBus.resolve(id);
+        }
+    }
+
+    /**
+     * Reference to an application event bus that could not be resolved when it was deserialized, because no or
+     * several application event buses were live. The reference binds to the live instance when it is first used, or to
+     * the next application event bus that is created while a deserialized event bus waits to attach to it; until then,
+     * using it throws an {@link IllegalStateException}.
+     */
+    private static final class UnresolvedApplicationEventBus implements ApplicationEventBus, Serializable {
+
+        private static final long serialVersionUID = -6406530930218367725L;
+
+        private final String id;
+
+        private transient volatile DefaultApplicationEventBus target;
+
+        UnresolvedApplicationEventBus(String id) {
+            this.id = id;
+        }
+
+        DefaultApplicationEventBus tryResolve() {
+            DefaultApplicationEventBus eventBus = target;
+            if (eventBus == null) {
+                eventBus = DefaultApplicationEventBus.find(id);
+                target = eventBus;
+            }
+            return eventBus;
+        }
+
+        void bind(DefaultApplicationEventBus eventBus) {
+            if (target == null) {
+                target = eventBus;
+            }
+        }
+
+        private DefaultApplicationEventBus target() {
+            final DefaultApplicationEventBus eventBus = tryResolve();
+            if (eventBus == null) {
+                throw new IllegalStateException("Application event bus " + id + " is not available");
+            }
+            return eventBus;
+        }
+
+        private Object writeReplace() {
+            final DefaultApplicationEventBus eventBus = target;
+            return eventBus == null ? new SerializedApplicationEventBus(id) : eventBus.writeReplace();
+        }
+
+        @Override
+        public <T> void publish(Object sender, T payload) {
+            target().publish(sender, payload);
+        }
+
+        @Override
+        public <T> void publish(String topic, Object sender, T payload) {
+            target().publish(topic, sender, payload);
+        }
+
+        @Override
+        public <T> void publish(EventScope scope, Object sender, T payload) {
+            target().publish(scope, sender, payload);
+        }
+
+        @Override
+        public <T> void publish(EventScope scope, String topic, Object sender, T payload) {
+            target().publish(scope, topic, sender, payload);
+        }
+
+        @Override
+        public <T> CompletableFuture<Void> publishAsync(Object sender, T payload) {
+            return target().publishAsync(sender, payload);
+        }
+
+        @Override
+        public <T> CompletableFuture<Void> publishAsync(String topic, Object sender, T payload) {
+            return target().publishAsync(topic, sender, payload);
+        }
+
+        @Override
+        public <T> CompletableFuture<Void> publishAsync(EventScope scope, Object sender, T payload) {
+            return target().publishAsync(scope, sender, payload);
+        }
+
+        @Override
+        public <T> CompletableFuture<Void> publishAsync(EventScope scope, String topic, Object sender, T payload) {
+            return target().publishAsync(scope, topic, sender, payload);
+        }
+
+        @Override
+        public void publishAll(Object sender, Collection<?> payloads) {
+            target().publishAll(sender, payloads);
+        }
+
+        @Override
+        public void publishAll(String topic, Object sender, Collection<?> payloads) {
+            target().publishAll(topic, sender, payloads);
+        }
+
+        @Override
+        public EventScope getScope() {
+            return EventScope.APPLICATION;
+        }
+
+        @Override
+        public <T> void subscribe(EventBusListener<T> listener) {
+            target().subscribe(listener);
+        }
+
+        @Override
+        public <T> void subscribeWithWeakReference(EventBusListener<T> listener) {
+            target().subscribeWithWeakReference(listener);
+        }
+
+        @Override
+        public <T> void subscribe(EventBusListener<T> listener, String topic) {
+            target().subscribe(listener, topic);
+        }
+
+        @Override
+        public <T> void subscribeWithWeakReference(EventBusListener<T> listener, String topic) {
+            target().subscribeWithWeakReference(listener, topic);
+        }
+
+        @Override
+        public <T> void subscribe(EventBusListener<T> listener, boolean includingPropagatingEvents) {
+            target().subscribe(listener, includingPropagatingEvents);
+        }
+
+        @Override
+        public <T> void subscribeWithWeakReference(EventBusListener<T> listener, boolean includingPropagatingEvents) {
+            target().subscribeWithWeakReference(listener, includingPropagatingEvents);
+        }
+
+        @Override
+        public void subscribe(Object listener) {
+            target().subscribe(listener);
+        }
+
+        @Override
+        public void subscribeWithWeakReference(Object listener) {
+            target().subscribeWithWeakReference(listener);
+        }
+
+        @Override
+        public void subscribe(Object listener, String topic) {
+            target().subscribe(listener, topic);
+        }
+
+        @Override
+        public void subscribeWithWeakReference(Object listener, String topic) {
+            target().subscribeWithWeakReference(listener, topic);
+        }
+
+        @Override
+        public void subscribe(Object listener, boolean includingPropagatingEvents) {
+            target().subscribe(listener, includingPropagatingEvents);
+        }
+
+        @Override
+        public void subscribeWithWeakReference(Object listener, boolean includingPropagatingEvents) {
+            target().subscribeWithWeakReference(listener, includingPropagatingEvents);
+        }
+
+        @Override
+        public <T> Registration subscribeWithRegistration(EventBusListener<T> listener) {
+            return target().subscribeWithRegistration(listener);
+        }
+
+        @Override
+        public <T> Registration subscribeWithRegistration(EventBusListener<T> listener, String topic) {
+            return target().subscribeWithRegistration(listener, topic);
+        }
+
+        @Override
+        public <T> Registration subscribeWithRegistration(EventBusListener<T> listener,
+                                                          boolean includingPropagatingEvents) {
+            return target().subscribeWithRegistration(listener, includingPropagatingEvents);
+        }
+
+        @Override
+        public Registration subscribeWithRegistration(Object listener) {
+            return target().subscribeWithRegistration(listener);
+        }
+
+        @Override
+        public Registration subscribeWithRegistration(Object listener, String topic) {
+            return target().subscribeWithRegistration(listener, topic);
+        }
+
+        @Override
+        public Registration subscribeWithRegistration(Object listener, boolean includingPropagatingEvents) {
+            return target().subscribeWithRegistration(listener, includingPropagatingEvents);
+        }
+
+        @Override
+        public <T> void unsubscribe(EventBusListener<T> listener) {
+            target().unsubscribe(listener);
+        }
+
+        @Override
+        public void unsubscribe(Object listener) {
+            target().unsubscribe(listener);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[id=%s, target=%s]", getClass().getSimpleName(), id, target);
         }
     }
 
@@ -278,9 +1537,33 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
      */
     public static class DefaultSessionEventBus extends ScopedEventBus implements SessionEventBus {
 
+        private VaadinSession accessSession;
+
         public DefaultSessionEventBus(ApplicationEventBus parentEventBus) {
             super(EventScope.SESSION, parentEventBus);
         }
+
+        private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+            ois.defaultReadObject();
+            setAccessSession(accessSession);
+        }
+
+        /**
+         * Makes this event bus deliver its events while holding the lock of the specified session. Events published
+         * or propagated by background threads are then delivered by {@link VaadinSession#access(Command)}, with all
+         * the events that are pending at the same time delivered by a single command.
+         *
+         * @param session the session to deliver the events in, or {@code null} to deliver events on the publishing
+         *                thread.
+         */
+        public void setAccessSession(VaadinSession session) {
+            accessSession = session;
+            if (session == null) {
+                setAccessDelivery(null, null);
+            } else {
+                setAccessDelivery(session::access, session::hasLock);
+            }
+        }
     }
 
     /**
@@ -288,8 +1571,34 @@ public abstract class ScopedEventBus implements EventBus, Serializable {
      */
     public static class DefaultUIEventBus extends ScopedEventBus implements UIEventBus {
 
+        private UI accessUI;
+
         public DefaultUIEventBus(SessionEventBus parentEventBus) {
             super(EventScope.UI, parentEventBus);
         }
+
+        private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+            ois.defaultReadObject();
+            setAccessUI(accessUI);
+        }
+
+        /**
+         * Makes this event bus deliver its events while holding the lock of the session of the specified UI. Events
+         * published or propagated by background threads are then delivered by {@link UI#access(Command)}, with all
+         * the events that are pending at the same time delivered by a single command and thus a single push.
+         *
+         * @param ui the UI to deliver the events in, or {@code null} to deliver events on the publishing thread.
+         */
+        public void setAccessUI(UI ui) {
+            accessUI = ui;
+            if (ui == null) {
+                setAccessDelivery(null, null);
+            } else {
+                setAccessDelivery(ui::access, () -> {
+                    final VaadinSession session = ui.getSession();
+                    return session != null && session.hasLock();
+                });
+            }
+        }
     }
 }
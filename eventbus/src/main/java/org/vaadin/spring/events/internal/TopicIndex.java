@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.vaadin.spring.events.internal.ListenerCollection.Listener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable index that routes an event topic to the listeners that may be interested in it, based on the
+ * {@link ListenerCollection.TopicMatching} of each listener:
+ * <ul>
+ * <li>Listeners interested in any topic are always candidates.</li>
+ * <li>Listeners interested in an exact topic are looked up from a hash map.</li>
+ * <li>Listeners interested in a topic prefix are stored in a prefix trie. Only the nodes on the path of the event
+ * topic are visited.</li>
+ * <li>Listeners with a custom topic filter are always candidates.</li>
+ * </ul>
+ * The index only preselects candidates; {@link Listener#supports(LazyEvent)} still has the
+ * final say. Intended only for internal use by the framework.
+ */
+final class TopicIndex {
+
+    static final Listener[] NO_LISTENERS = new Listener[0];
+
+    static final TopicIndex EMPTY = new TopicIndex(NO_LISTENERS);
+
+    private final Listener[] listeners;
+    private final Listener[] anyTopicListeners;
+    private final Map<String, Listener[]> exactTopicListeners;
+    private final PrefixNode prefixTopicListeners;
+    private final Listener[] customTopicListeners;
+
+    /**
+     * @param listeners the listeners to index, never {@code null}.
+     */
+    TopicIndex(Listener[] listeners) {
+        this.listeners = listeners;
+        final List<Listener> anyTopic = new ArrayList<Listener>();
+        final List<Listener> customTopic = new ArrayList<Listener>();
+        final Map<String, List<Listener>> exactTopic = new HashMap<String, List<Listener>>();
+        final PrefixNodeBuilder prefixTopic = new PrefixNodeBuilder();
+        for (Listener listener : listeners) {
+            switch (listener.getTopicMatching()) {
+                case ANY:
+                    anyTopic.add(listener);
+                    break;
+                case EXACT:
+                    List<Listener> exact = exactTopic.get(listener.getTopic());
+                    if (exact == null) {
+                        exact = new ArrayList<Listener>();
+                        exactTopic.put(listener.getTopic(), exact);
+                    }
+                    exact.add(listener);
+                    break;
+                case PREFIX:
+                    prefixTopic.add(listener.getTopic(), listener);
+                    break;
+                default:
+                    customTopic.add(listener);
+            }
+        }
+        anyTopicListeners = anyTopic.toArray(NO_LISTENERS);
+        customTopicListeners = customTopic.toArray(NO_LISTENERS);
+        exactTopicListeners = new HashMap<String, Listener[]>(exactTopic.size() * 2);
+        for (Map.Entry<String, List<Listener>> entry : exactTopic.entrySet()) {
+            exactTopicListeners.put(entry.getKey(), entry.getValue().toArray(NO_LISTENERS));
+        }
+        prefixTopicListeners = prefixTopic.isEmpty() ? null : prefixTopic.build();
+    }
+
+    /**
+     * Gets all the listeners in the index, in the order they were added.
+     */
+    Listener[] getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Checks whether the index contains no listeners at all.
+     */
+    boolean isEmpty() {
+        return listeners.length == 0;
+    }
+
+    /**
+     * Gets the listeners that are interested in events of any topic.
+     */
+    Listener[] getAnyTopicListeners() {
+        return anyTopicListeners;
+    }
+
+    /**
+     * Gets the listeners that are interested in events of exactly the specified topic.
+     */
+    Listener[] getExactTopicListeners(String topic) {
+        final Listener[] exact = exactTopicListeners.get(topic);
+        return exact == null ? NO_LISTENERS : exact;
+    }
+
+    /**
+     * Gets the root node of the prefix trie, which contains the listeners whose topic prefix is the empty string.
+     *
+     * @return the root node, or {@code null} if there are no prefix listeners.
+     */
+    PrefixNode getPrefixTopicRoot() {
+        return prefixTopicListeners;
+    }
+
+    /**
+     * Gets the listeners with a custom topic filter.
+     */
+    Listener[] getCustomTopicListeners() {
+        return customTopicListeners;
+    }
+
+    /**
+     * Returns a new index that also contains the specified listener.
+     */
+    TopicIndex with(Listener listener) {
+        final Listener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        return new TopicIndex(newListeners);
+    }
+
+    /**
+     * A node in the prefix trie. Every node corresponds to one character of a topic prefix and holds the listeners
+     * whose topic prefix ends at that node. Nodes are immutable.
+     */
+    static final class PrefixNode {
+
+        private final char[] keys;
+        private final PrefixNode[] children;
+        private final Listener[] listeners;
+
+        private PrefixNode(char[] keys, PrefixNode[] children, Listener[] listeners) {
+            this.keys = keys;
+            this.children = children;
+            this.listeners = listeners;
+        }
+
+        /**
+         * Gets the listeners whose topic prefix ends at this node.
+         */
+        Listener[] getListeners() {
+            return listeners;
+        }
+
+        /**
+         * Gets the child node for the specified character.
+         *
+         * @return the child node, or {@code null} if there is no such node.
+         */
+        PrefixNode getChild(char key) {
+            final int index = Arrays.binarySearch(keys, key);
+            return index < 0 ? null : children[index];
+        }
+    }
+
+    private static final class PrefixNodeBuilder {
+
+        private final TreeMap<Character, PrefixNodeBuilder> children = new TreeMap<Character, PrefixNodeBuilder>();
+        private final List<Listener> listeners = new ArrayList<Listener>();
+
+        void add(String prefix, Listener listener) {
+            PrefixNodeBuilder node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                PrefixNodeBuilder child = node.children.get(prefix.charAt(i));
+                if (child == null) {
+                    child = new PrefixNodeBuilder();
+                    node.children.put(prefix.charAt(i), child);
+                }
+                node = child;
+            }
+            node.listeners.add(listener);
+        }
+
+        boolean isEmpty() {
+            return children.isEmpty() && listeners.isEmpty();
+        }
+
+        PrefixNode build() {
+            final char[] keys = new char[children.size()];
+            final PrefixNode[] nodes = new PrefixNode[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, PrefixNodeBuilder> child : children.entrySet()) {
+                keys[i] = child.getKey();
+                nodes[i] = child.getValue().build();
+                i++;
+            }
+            return new PrefixNode(keys, nodes, listeners.toArray(NO_LISTENERS));
+        }
+    }
+}
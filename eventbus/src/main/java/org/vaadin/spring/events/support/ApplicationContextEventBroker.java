@@ -18,27 +18,249 @@ package org.vaadin.spring.events.support;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.context.ApplicationEvent;
-import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.GenericApplicationListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.ResolvableType;
 import org.vaadin.spring.events.EventBus;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * An {@link org.springframework.context.ApplicationListener} that will forward all received events to an {@link org.vaadin.spring.events.EventBus}.
+ * <p>
+ * By default, every application event is forwarded synchronously. The events to forward can be narrowed down with
+ * {@link #setForwardedTypes(Class[])} and {@link #setIgnoredTypes(Class[])}. The broker reports the event types it
+ * is interested in through {@link #supportsEventType(ResolvableType)}, so the Spring event multicaster resolves the
+ * filters once per event type and does not invoke the broker for ignored events at all.
+ * <p>
+ * If an {@link #setExecutor(Executor) executor} is configured, the events are forwarded asynchronously so that the
+ * publishers of the application events do not wait for the event bus to dispatch them. The events are still
+ * forwarded in the order they were received. With {@link #setBatching(boolean) batching} enabled, the events that
+ * have piled up while the executor was busy are forwarded with {@link EventBus#publishAll(Object, java.util.Collection)}.
  *
  * @author Petter Holmström (petter@vaadin.com)
  */
-public class ApplicationContextEventBroker implements ApplicationListener<ApplicationEvent> {
+public class ApplicationContextEventBroker implements GenericApplicationListener {
+
+    private static final Class<?>[] NO_TYPES = new Class<?>[0];
 
     private Log logger = LogFactory.getLog(getClass());
 
     private final EventBus eventBus;
 
+    private final Queue<ApplicationEvent> pendingEvents = new ConcurrentLinkedQueue<ApplicationEvent>();
+
+    private final AtomicBoolean forwardingScheduled = new AtomicBoolean();
+
+    private volatile Class<?>[] forwardedTypes = NO_TYPES;
+
+    private volatile Class<?>[] ignoredTypes = NO_TYPES;
+
+    private volatile ClassValue<Boolean> forwarded = createForwardedTypeCache();
+
+    private volatile Executor executor;
+
+    private volatile boolean batching;
+
     public ApplicationContextEventBroker(EventBus eventBus) {
         this.eventBus = eventBus;
     }
 
+    /**
+     * Sets the types of the events to forward. An event is forwarded if its class, or the class of its payload in
+     * case of a {@link PayloadApplicationEvent}, is assignable to any of the specified types. If no types are
+     * specified, which is the default, all events are forwarded unless they are {@link #setIgnoredTypes(Class[])
+     * ignored}.
+     *
+     * @param forwardedTypes the event or payload types to forward.
+     */
+    public void setForwardedTypes(Class<?>... forwardedTypes) {
+        this.forwardedTypes = forwardedTypes == null ? NO_TYPES : forwardedTypes.clone();
+        this.forwarded = createForwardedTypeCache();
+    }
+
+    /**
+     * Sets the types of the events that are never forwarded, such as
+     * {@code org.springframework.web.context.support.ServletRequestHandledEvent}. The ignored types take precedence
+     * over the {@link #setForwardedTypes(Class[]) forwarded types}.
+     *
+     * @param ignoredTypes the event or payload types to ignore.
+     */
+    public void setIgnoredTypes(Class<?>... ignoredTypes) {
+        this.ignoredTypes = ignoredTypes == null ? NO_TYPES : ignoredTypes.clone();
+        this.forwarded = createForwardedTypeCache();
+    }
+
+    /**
+     * Sets the executor to forward the events with. If the executor is {@code null}, which is the default, the
+     * events are forwarded synchronously by the thread that published the application event.
+     *
+     * @param executor the executor to use, may be {@code null}.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets whether the events that are waiting to be forwarded by the {@link #setExecutor(Executor) executor}
+     * should be published on the event bus as a batch. Consecutive events with the same source are published with
+     * a single call to {@link EventBus#publishAll(Object, java.util.Collection)}. Batching is disabled by default
+     * and has no effect if the events are forwarded synchronously.
+     *
+     * @param batching true to publish the events in batches, false to publish them one by one.
+     */
+    public void setBatching(boolean batching) {
+        this.batching = batching;
+    }
+
+    @Override
+    public boolean supportsEventType(ResolvableType eventType) {
+        final Class<?> eventClass = eventType.resolve();
+        if (eventClass == null) {
+            return true;
+        }
+        if (PayloadApplicationEvent.class.isAssignableFrom(eventClass)) {
+            final Class<?> payloadClass = eventType.as(PayloadApplicationEvent.class).getGeneric().resolve();
+            // If the payload type cannot be resolved, the payload is checked when the event is received.
+            return payloadClass == null || forwarded.get(payloadClass);
+        }
+        return forwarded.get(eventClass);
+    }
+
+    @Override
+    public boolean supportsSourceType(Class<?> sourceType) {
+        return true;
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
     @Override
     public void onApplicationEvent(ApplicationEvent event) {
-        logger.debug(String.format("Propagating application event [%s] to event bus [%s]", event, this));
+        if (!isForwarded(event)) {
+            return;
+        }
+        final Executor executor = this.executor;
+        if (executor == null) {
+            forward(event);
+            return;
+        }
+        pendingEvents.add(event);
+        if (forwardingScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        forwardPendingEvents();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warn("Executor rejected forwarding of application events, forwarding them synchronously", e);
+                forwardPendingEvents();
+            }
+        }
+    }
+
+    private boolean isForwarded(ApplicationEvent event) {
+        if (event instanceof PayloadApplicationEvent) {
+            return forwarded.get(((PayloadApplicationEvent<?>) event).getPayload().getClass());
+        }
+        return forwarded.get(event.getClass());
+    }
+
+    private void forward(ApplicationEvent event) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Propagating application event [%s] to event bus [%s]", event, eventBus));
+        }
         eventBus.publish(event.getSource(), event);
     }
+
+    private void forwardPendingEvents() {
+        // Events added after the queue was found empty but before the flag was cleared would otherwise be stranded.
+        do {
+            try {
+                if (batching) {
+                    forwardPendingEventsInBatches();
+                } else {
+                    forwardPendingEventsOneByOne();
+                }
+            } finally {
+                forwardingScheduled.set(false);
+            }
+        } while (!pendingEvents.isEmpty() && forwardingScheduled.compareAndSet(false, true));
+    }
+
+    private void forwardPendingEventsOneByOne() {
+        ApplicationEvent event;
+        while ((event = pendingEvents.poll()) != null) {
+            try {
+                forward(event);
+            } catch (RuntimeException e) {
+                logger.error(String.format("Could not propagate application event [%s] to event bus [%s]", event,
+                    eventBus), e);
+            }
+        }
+    }
+
+    private void forwardPendingEventsInBatches() {
+        final List<ApplicationEvent> batch = new ArrayList<ApplicationEvent>();
+        ApplicationEvent event;
+        while ((event = pendingEvents.poll()) != null) {
+            if (!batch.isEmpty() && batch.get(0).getSource() != event.getSource()) {
+                forwardBatch(batch);
+                batch.clear();
+            }
+            batch.add(event);
+        }
+        if (!batch.isEmpty()) {
+            forwardBatch(batch);
+        }
+    }
+
+    private void forwardBatch(List<ApplicationEvent> batch) {
+        try {
+            if (batch.size() == 1) {
+                forward(batch.get(0));
+            } else {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format("Propagating %d application events to event bus [%s]", batch.size(),
+                        eventBus));
+                }
+                eventBus.publishAll(batch.get(0).getSource(), new ArrayList<ApplicationEvent>(batch));
+            }
+        } catch (RuntimeException e) {
+            logger.error(String.format("Could not propagate %d application event(s) to event bus [%s]", batch.size(),
+                eventBus), e);
+        }
+    }
+
+    private ClassValue<Boolean> createForwardedTypeCache() {
+        final Class<?>[] forwardedTypes = this.forwardedTypes;
+        final Class<?>[] ignoredTypes = this.ignoredTypes;
+        return new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                return (forwardedTypes.length == 0 || isAssignableToAny(type, forwardedTypes))
+                    && !isAssignableToAny(type, ignoredTypes);
+            }
+        };
+    }
+
+    private static boolean isAssignableToAny(Class<?> type, Class<?>[] candidates) {
+        for (Class<?> candidate : candidates) {
+            if (candidate.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.cluster;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBusListener;
+import org.vaadin.spring.events.internal.ScopedEventBus;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test case for {@link org.vaadin.spring.events.cluster.ClusterEventBridge}.
+ */
+public class ClusterEventBridgeTest {
+
+    private final List<ClusterEventBridge> bridges = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        for (ClusterEventBridge bridge : bridges) {
+            bridge.close();
+        }
+    }
+
+    static class RecordingListener implements EventBusListener<String> {
+
+        final List<Event<String>> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onEvent(Event<String> event) {
+            events.add(event);
+        }
+
+        List<String> getPayloads() {
+            final List<String> payloads = new ArrayList<>();
+            for (Event<String> event : events) {
+                payloads.add(event.getPayload());
+            }
+            return payloads;
+        }
+    }
+
+    static class NotSerializable {
+    }
+
+    @Test
+    public void testEventsAreForwardedToOtherNodesWithoutEcho() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus1 = new ScopedEventBus.DefaultApplicationEventBus();
+        ScopedEventBus.DefaultApplicationEventBus eventBus2 = new ScopedEventBus.DefaultApplicationEventBus();
+        TcpTransport transport1 = new TcpTransport(0);
+        TcpTransport transport2 = new TcpTransport(0);
+        ClusterEventBridge bridge1 = start(eventBus1, transport1);
+        ClusterEventBridge bridge2 = start(eventBus2, transport2);
+        transport1.addPeer(new InetSocketAddress("localhost", transport2.getLocalPort()));
+        transport2.addPeer(new InetSocketAddress("localhost", transport1.getLocalPort()));
+        RecordingListener listener1 = new RecordingListener();
+        RecordingListener listener2 = new RecordingListener();
+        eventBus1.subscribe(listener1);
+        eventBus2.subscribe(listener2);
+        await(() -> bridge1.isAnyNodeInterested(String.class, "") && bridge2.isAnyNodeInterested(String.class, ""));
+
+        eventBus1.publish(this, "Hello");
+        await(() -> listener2.events.size() == 1);
+        eventBus2.publish(this, "World");
+        await(() -> listener1.events.size() == 2);
+        eventBus1.publish(this, new NotSerializable());
+        eventBus1.publish(this, "!");
+        await(() -> listener2.events.size() == 3);
+
+        assertEquals(Arrays.asList("Hello", "World", "!"), listener1.getPayloads());
+        assertEquals(Arrays.asList("Hello", "World", "!"), listener2.getPayloads());
+        assertEquals(new RemoteNode(bridge1.getNodeId()), listener2.events.get(0).getSource());
+        assertSame(this, listener2.events.get(1).getSource());
+        assertEquals(new RemoteNode(bridge2.getNodeId()), listener1.events.get(1).getSource());
+    }
+
+    @Test
+    public void testOnlyApplicationEventBusCanBeBridged() {
+        ScopedEventBus.DefaultSessionEventBus eventBus = new ScopedEventBus.DefaultSessionEventBus(
+            new ScopedEventBus.DefaultApplicationEventBus());
+        assertThrows(IllegalArgumentException.class, () -> new ClusterEventBridge(eventBus, new TcpTransport(0)));
+    }
+
+    @Test
+    public void testCodecSerializesBatchOnceAndCompressesIt() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        FrameCodec codec = new FrameCodec(1024, getClass().getClassLoader(), className -> true);
+        UUID origin = UUID.randomUUID();
+        List<Event<?>> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(new Event<Object>(eventBus, this, "payload " + i % 10, "topic"));
+        }
+        byte[] single = codec.encode(origin, Collections.<UUID>emptyList(),
+            Collections.<Event<?>>singletonList(events.get(0)));
+        byte[] batch = codec.encode(origin, Collections.<UUID>emptyList(), events);
+
+        FrameCodec.Frame frame = codec.decode(batch);
+        List<FrameCodec.RemoteEvent> decoded = frame.decodeEvents();
+
+        assertTrue(batch.length < 10 * single.length, "Batch of " + batch.length + " bytes is not compact");
+        assertEquals(origin, frame.getOrigin());
+        assertEquals(100, decoded.size());
+        assertEquals("topic", decoded.get(42).getTopic());
+        assertEquals("payload 2", decoded.get(42).getPayload());
+    }
+
+    @Test
+    public void testCodecRejectsClassesNotAccepted() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        FrameCodec codec = new FrameCodec(1024, getClass().getClassLoader(), className -> !className.equals(
+            "java.util.ArrayList"));
+        byte[] frame = codec.encode(UUID.randomUUID(), Collections.<UUID>emptyList(), Collections.<Event<?>>singletonList(
+            new Event<Object>(eventBus, this, new ArrayList<String>(), "")));
+
+        assertThrows(java.io.InvalidClassException.class, () -> codec.decode(frame).decodeEvents());
+    }
+
+    @Test
+    public void testNodesAdvertiseTheirInterests() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        ScopedEventBus.DefaultSessionEventBus sessionEventBus = new ScopedEventBus.DefaultSessionEventBus(eventBus);
+        RecordingTransport transport = new RecordingTransport();
+        start(eventBus, transport);
+        RecordingListener listener = new RecordingListener();
+        sessionEventBus.subscribe(listener, "news");
+
+        await(() -> decodeInterests(transport.getLastFrame()).matches(String.class, "news"));
+        InterestSet interests = decodeInterests(transport.getLastFrame());
+        assertFalse(interests.matches(String.class, "weather"));
+        assertFalse(interests.matches(Integer.class, "news"));
+
+        sessionEventBus.unsubscribe(listener);
+        await(() -> decodeInterests(transport.getLastFrame()).isEmpty());
+    }
+
+    @Test
+    public void testOnlyEventsOfInterestAreSentToInterestedNodes() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        RecordingTransport transport = new RecordingTransport();
+        ClusterEventBridge bridge = start(eventBus, transport);
+        FrameCodec codec = new FrameCodec(1024, getClass().getClassLoader(), className -> true);
+        UUID interestedNode = UUID.randomUUID();
+        UUID uninterestedNode = UUID.randomUUID();
+        ScopedEventBus.DefaultApplicationEventBus remoteEventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        transport.receiver.receive(codec.encodeInterests(uninterestedNode, InterestSet.of(remoteEventBus)));
+        remoteEventBus.subscribe(new RecordingListener(), "news");
+        transport.receiver.receive(codec.encodeInterests(interestedNode, InterestSet.of(remoteEventBus)));
+        await(() -> bridge.isAnyNodeInterested(String.class, "news"));
+        int sent = transport.frames.size();
+
+        eventBus.publish("news", this, 42);
+        eventBus.publish("weather", this, "Sunny");
+        eventBus.publish("news", this, "Hello");
+        await(() -> transport.frames.size() > sent);
+
+        FrameCodec.Frame frame = codec.decode(transport.getLastFrame());
+        assertFalse(frame.isInterestFrame());
+        assertTrue(frame.isAddressedTo(interestedNode));
+        assertFalse(frame.isAddressedTo(uninterestedNode));
+        assertEquals("Hello", frame.decodeEvents().get(0).getPayload());
+        assertEquals(1, frame.getEntryCount());
+    }
+
+    @Test
+    public void testInterestsAreCollectedAtMostOncePerMinimumInterval() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        RecordingTransport transport = new RecordingTransport();
+        ClusterEventBridge bridge = new ClusterEventBridge(eventBus, transport);
+        bridge.setMinAdvertisementInterval(500, TimeUnit.MILLISECONDS);
+        bridge.start();
+        bridges.add(bridge);
+        await(() -> transport.frames.size() == 1);
+
+        for (int i = 0; i < 20; i++) {
+            eventBus.subscribe(new RecordingListener(), "topic" + i);
+            Thread.sleep(10);
+        }
+        await(() -> decodeInterests(transport.getLastFrame()).matches(String.class, "topic19"));
+
+        // The subscriptions are advertised together
+        assertEquals(2, transport.frames.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(decodeInterests(transport.getLastFrame()).matches(String.class, "topic" + i));
+        }
+    }
+
+    @Test
+    public void testInterestsOfSilentNodesExpire() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        RecordingTransport transport = new RecordingTransport();
+        ClusterEventBridge bridge = new ClusterEventBridge(eventBus, transport);
+        bridge.setInterestRefreshInterval(50, TimeUnit.MILLISECONDS);
+        bridge.start();
+        bridges.add(bridge);
+        ScopedEventBus.DefaultApplicationEventBus remoteEventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        remoteEventBus.subscribe(new RecordingListener(), "news");
+        FrameCodec codec = new FrameCodec(1024, getClass().getClassLoader(), className -> true);
+
+        transport.receiver.receive(codec.encodeInterests(UUID.randomUUID(), InterestSet.of(remoteEventBus)));
+        assertTrue(bridge.isAnyNodeInterested(String.class, "news"));
+
+        // The node leaves the cluster without a word
+        await(() -> !bridge.isAnyNodeInterested(String.class, "news"));
+    }
+
+    @Test
+    public void testBridgeDeserializesNoClassesByDefault() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        RecordingTransport transport = new RecordingTransport();
+        start(eventBus, transport);
+        List<Object> received = new CopyOnWriteArrayList<>();
+        eventBus.subscribe(new EventBusListener<Object>() {
+            @Override
+            public void onEvent(Event<Object> event) {
+                received.add(event.getPayload());
+            }
+        });
+        FrameCodec codec = new FrameCodec(1024, getClass().getClassLoader(), className -> true);
+        UUID remoteNode = UUID.randomUUID();
+
+        transport.receiver.receive(codec.encode(remoteNode, Collections.<UUID>emptyList(),
+            Collections.<Event<?>>singletonList(new Event<Object>(eventBus, this, 42, ""))));
+        transport.receiver.receive(codec.encode(remoteNode, Collections.<UUID>emptyList(),
+            Collections.<Event<?>>singletonList(new Event<Object>(eventBus, this, "Hello", ""))));
+
+        assertEquals(Collections.singletonList("Hello"), received);
+    }
+
+    @Test
+    public void testCodecLimitsDepthAndArrayLength() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        FrameCodec codec = new FrameCodec(1024, getClass().getClassLoader(), className -> true);
+        ArrayList<Object> nested = new ArrayList<>();
+        for (int i = 0; i < FrameCodec.MAX_DEPTH; i++) {
+            ArrayList<Object> parent = new ArrayList<>();
+            parent.add(nested);
+            nested = parent;
+        }
+        byte[] deep = codec.encode(UUID.randomUUID(), Collections.<UUID>emptyList(),
+            Collections.<Event<?>>singletonList(new Event<Object>(eventBus, this, nested, "")));
+        byte[] large = codec.encode(UUID.randomUUID(), Collections.<UUID>emptyList(),
+            Collections.<Event<?>>singletonList(new Event<Object>(eventBus, this,
+                new byte[FrameCodec.MAX_ARRAY_LENGTH + 1], "")));
+
+        assertThrows(java.io.InvalidClassException.class, () -> codec.decode(deep).decodeEvents());
+        assertThrows(java.io.InvalidClassException.class, () -> codec.decode(large).decodeEvents());
+    }
+
+    @Test
+    public void testCodecRejectsProxiesOfInterfacesNotAccepted() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        FrameCodec codec = new FrameCodec(1024, getClass().getClassLoader(), className -> !className.equals(
+            "java.lang.Runnable"));
+        Object proxy = Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Runnable.class},
+            new NoOpHandler());
+        byte[] frame = codec.encode(UUID.randomUUID(), Collections.<UUID>emptyList(),
+            Collections.<Event<?>>singletonList(new Event<Object>(eventBus, this, proxy, "")));
+
+        assertThrows(java.io.InvalidClassException.class, () -> codec.decode(frame).decodeEvents());
+    }
+
+    @Test
+    public void testTransportDoesNotBlockOnSlowPeer() throws Exception {
+        try (ServerSocket slowPeer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            TcpTransport transport = new TcpTransport(0);
+            transport.setMaxBufferedBytes(1024 * 1024);
+            transport.setWriteTimeout(200, TimeUnit.MILLISECONDS);
+            transport.addPeer(new InetSocketAddress(InetAddress.getLoopbackAddress(), slowPeer.getLocalPort()));
+            transport.start(frame -> {
+            });
+            try {
+                // The peer accepts the connection but never reads from it
+                long start = System.nanoTime();
+                for (int i = 0; i < 100; i++) {
+                    transport.send(new byte[512 * 1024], Collections.<UUID>emptyList());
+                }
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "Sending blocked");
+
+                try (Socket connection = slowPeer.accept()) {
+                    connection.setSoTimeout(10000);
+                    Thread.sleep(500);
+                    // The stalled write has timed out, so the connection ends after the data that was written
+                    InputStream in = connection.getInputStream();
+                    byte[] buffer = new byte[64 * 1024];
+                    try {
+                        while (in.read(buffer) != -1) {
+                            // Discard
+                        }
+                    } catch (SocketException e) {
+                        // Connection reset, which also shows that the transport closed the connection
+                    }
+                }
+            } finally {
+                transport.close();
+            }
+        }
+    }
+
+    @Test
+    public void testTransportOnlySendsFramesToThePeersOfTheRecipients() throws Exception {
+        ScopedEventBus.DefaultApplicationEventBus eventBus1 = new ScopedEventBus.DefaultApplicationEventBus();
+        ScopedEventBus.DefaultApplicationEventBus eventBus2 = new ScopedEventBus.DefaultApplicationEventBus();
+        TcpTransport transport1 = new TcpTransport(0);
+        TcpTransport transport2 = new TcpTransport(0);
+        TcpTransport transport3 = new TcpTransport(0);
+        ClusterEventBridge bridge1 = start(eventBus1, transport1);
+        start(eventBus2, transport2);
+        List<byte[]> received3 = new CopyOnWriteArrayList<>();
+        transport3.start(received3::add);
+        try {
+            transport1.addPeer(new InetSocketAddress("localhost", transport2.getLocalPort()));
+            transport1.addPeer(new InetSocketAddress("localhost", transport3.getLocalPort()));
+            transport2.addPeer(new InetSocketAddress("localhost", transport1.getLocalPort()));
+            transport3.addPeer(new InetSocketAddress("localhost", transport1.getLocalPort()));
+            RecordingListener listener2 = new RecordingListener();
+            eventBus2.subscribe(listener2);
+            // The third node is only interested in integers
+            ScopedEventBus.DefaultApplicationEventBus interests3 = new ScopedEventBus.DefaultApplicationEventBus();
+            interests3.subscribe(new EventBusListener<Integer>() {
+                @Override
+                public void onEvent(Event<Integer> event) {
+                }
+            });
+            FrameCodec codec = new FrameCodec(1024, getClass().getClassLoader(), className -> true);
+            transport3.send(codec.encodeInterests(UUID.randomUUID(), InterestSet.of(interests3)),
+                Collections.<UUID>emptyList());
+            await(() -> bridge1.isAnyNodeInterested(String.class, "")
+                && bridge1.isAnyNodeInterested(Integer.class, ""));
+
+            eventBus1.publish(this, "Hello");
+            await(() -> listener2.events.size() == 1);
+            // Published separately, as the second node does not accept integers and would discard the whole batch
+            eventBus1.publish(this, 42);
+            await(() -> countEventFrames(received3) == 1);
+
+            List<FrameCodec.RemoteEvent> events = null;
+            for (byte[] frame : received3) {
+                if (FrameCodec.getInterestOrigin(frame) == null) {
+                    events = codec.decode(frame).decodeEvents();
+                }
+            }
+            assertEquals(1, events.size());
+            assertEquals(42, events.get(0).getPayload());
+        } finally {
+            transport3.close();
+        }
+    }
+
+    private static int countEventFrames(List<byte[]> frames) {
+        int count = 0;
+        for (byte[] frame : frames) {
+            if (FrameCodec.getInterestOrigin(frame) == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static class NoOpHandler implements InvocationHandler, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return null;
+        }
+    }
+
+    static class RecordingTransport implements ClusterTransport {
+
+        final List<byte[]> frames = new CopyOnWriteArrayList<>();
+        final List<Collection<UUID>> recipients = new CopyOnWriteArrayList<>();
+        volatile Receiver receiver;
+
+        @Override
+        public void start(Receiver receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void send(byte[] frame, Collection<UUID> recipients) {
+            frames.add(frame);
+            this.recipients.add(recipients);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        byte[] getLastFrame() {
+            return frames.isEmpty() ? null : frames.get(frames.size() - 1);
+        }
+    }
+
+    private static InterestSet decodeInterests(byte[] frame) {
+        if (frame == null) {
+            return InterestSet.EMPTY;
+        }
+        try {
+            return new FrameCodec(1024, ClusterEventBridgeTest.class.getClassLoader(), className -> true)
+                .decode(frame).decodeInterests();
+        } catch (java.io.IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private ClusterEventBridge start(ScopedEventBus eventBus, ClusterTransport transport) throws Exception {
+        ClusterEventBridge bridge = new ClusterEventBridge(eventBus, transport);
+        bridge.start();
+        bridges.add(bridge);
+        return bridge;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - deadline < 0, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+}
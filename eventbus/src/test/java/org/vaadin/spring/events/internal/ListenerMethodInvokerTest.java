@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 The original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.spring.events.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test case for {@link org.vaadin.spring.events.internal.ListenerMethodInvoker}.
+ */
+public class ListenerMethodInvokerTest {
+
+    public static class PublicListener {
+
+        String received;
+
+        public String onPublicEvent(String payload) {
+            received = payload;
+            return "ignored";
+        }
+
+        private void onPrivateEvent(String payload) {
+            received = payload;
+        }
+
+        void onFailingEvent(String payload) throws IOException {
+            throw new IOException(payload);
+        }
+
+        static String staticReceived;
+
+        static void onStaticEvent(String payload) {
+            staticReceived = payload;
+        }
+    }
+
+    @Test
+    public void testPublicMethodUsesGeneratedInvoker() throws Throwable {
+        PublicListener listener = new PublicListener();
+        ListenerMethodInvoker invoker = ListenerMethodInvoker.of(
+            PublicListener.class.getDeclaredMethod("onPublicEvent", String.class));
+
+        invoker.invoke(listener, "Hello World");
+
+        assertEquals("LambdaInvoker", invoker.getClass().getSimpleName());
+        assertEquals("Hello World", listener.received);
+    }
+
+    @Test
+    public void testPrivateMethodUsesMethodHandle() throws Throwable {
+        PublicListener listener = new PublicListener();
+        ListenerMethodInvoker invoker = ListenerMethodInvoker.of(
+            PublicListener.class.getDeclaredMethod("onPrivateEvent", String.class));
+
+        invoker.invoke(listener, "Hello World");
+
+        assertEquals("MethodHandleInvoker", invoker.getClass().getSimpleName());
+        assertEquals("Hello World", listener.received);
+    }
+
+    @Test
+    public void testStaticMethod() throws Throwable {
+        ListenerMethodInvoker invoker = ListenerMethodInvoker.of(
+            PublicListener.class.getDeclaredMethod("onStaticEvent", String.class));
+
+        invoker.invoke(new PublicListener(), "Hello World");
+
+        assertEquals("Hello World", PublicListener.staticReceived);
+    }
+
+    @Test
+    public void testExceptionsArePropagatedUnwrapped() throws Throwable {
+        ListenerMethodInvoker invoker = ListenerMethodInvoker.of(
+            PublicListener.class.getDeclaredMethod("onFailingEvent", String.class));
+
+        IOException exception = assertThrows(IOException.class, () -> invoker.invoke(new PublicListener(), "fail"));
+        assertEquals("fail", exception.getMessage());
+    }
+}
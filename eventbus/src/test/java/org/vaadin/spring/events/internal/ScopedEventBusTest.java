@@ -15,18 +15,53 @@
  */
 package org.vaadin.spring.events.internal;
 
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.shared.Registration;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.slf4j.LoggerFactory;
 import org.vaadin.spring.events.Event;
+import org.vaadin.spring.events.EventBusBatchListener;
+import org.vaadin.spring.events.EventDeliveryException;
 import org.vaadin.spring.events.EventBusListener;
+import org.vaadin.spring.events.EventBusListenerMethodFilter;
+import org.vaadin.spring.events.EventBusMetrics;
 import org.vaadin.spring.events.EventScope;
 import org.vaadin.spring.events.HierachyTopicFilter;
+import org.vaadin.spring.events.LatencyHistogram;
+import org.vaadin.spring.events.ListenerLatencyStatistics;
+import org.vaadin.spring.events.ListenerQueueStatistics;
+import org.vaadin.spring.events.OverflowPolicy;
 import org.vaadin.spring.events.annotation.EventBusListenerMethod;
 import org.vaadin.spring.events.annotation.EventBusListenerTopic;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
 import static org.mockito.Mockito.*;
 
 /**
@@ -42,6 +77,9 @@ public class ScopedEventBusTest {
     interface StringListener extends EventBusListener<String> {
     }
 
+    interface CharSequenceListener extends EventBusListener<CharSequence> {
+    }
+
     static class MultipleListeners {
 
         Event<String> theStringEvent;
@@ -162,6 +200,153 @@ public class ScopedEventBusTest {
         }
     }
 
+    public static class LongPayloadFilter implements EventBusListenerMethodFilter {
+
+        @Override
+        public boolean filter(Event<?> event) {
+            return event.getPayload().toString().length() > 5;
+        }
+    }
+
+    static class FilteredListeners {
+
+        String filteredPayload;
+        String applicationScopedPayload;
+        String sourcePayload;
+
+        @EventBusListenerMethod(filter = LongPayloadFilter.class)
+        void onFilteredEvent(String payload) {
+            filteredPayload = payload;
+        }
+
+        @EventBusListenerMethod(scope = EventScope.APPLICATION)
+        void onApplicationScopedEvent(String payload) {
+            applicationScopedPayload = payload;
+        }
+
+        @EventBusListenerMethod(source = Integer.class)
+        void onEventFromSource(String payload) {
+            sourcePayload = payload;
+        }
+    }
+
+    static class HierarchyTopicListeners {
+
+        String rootPayload;
+        String aPayload;
+        String abPayload;
+        String acPayload;
+        String exactPayload;
+
+        @EventBusListenerTopic(topic = "", filter = HierachyTopicFilter.class)
+        @EventBusListenerMethod
+        void onRootEvent(String payload) {
+            rootPayload = payload;
+        }
+
+        @EventBusListenerTopic(topic = "a", filter = HierachyTopicFilter.class)
+        @EventBusListenerMethod
+        void onAEvent(String payload) {
+            aPayload = payload;
+        }
+
+        @EventBusListenerTopic(topic = "a.b", filter = HierachyTopicFilter.class)
+        @EventBusListenerMethod
+        void onABEvent(String payload) {
+            abPayload = payload;
+        }
+
+        @EventBusListenerTopic(topic = "a.c", filter = HierachyTopicFilter.class)
+        @EventBusListenerMethod
+        void onACEvent(String payload) {
+            acPayload = payload;
+        }
+
+        @EventBusListenerTopic(topic = "a.b")
+        @EventBusListenerMethod
+        void onExactEvent(String payload) {
+            exactPayload = payload;
+        }
+    }
+
+    static class BatchListeners {
+
+        List<List<String>> payloadBatches = new ArrayList<>();
+        List<List<Event<Integer>>> eventBatches = new ArrayList<>();
+        List<Object> payloads = new ArrayList<>();
+
+        @EventBusListenerMethod(batch = true)
+        void onStringBatch(List<String> payloads) {
+            payloadBatches.add(payloads);
+        }
+
+        @EventBusListenerMethod(batch = true)
+        void onIntegerBatch(List<Event<Integer>> events) {
+            eventBatches.add(events);
+        }
+
+        @EventBusListenerMethod
+        void onEvent(Object payload) {
+            payloads.add(payload);
+        }
+    }
+
+    public static class PayloadCountingListener {
+
+        long count;
+
+        @EventBusListenerMethod
+        public void onLong(Long payload) {
+            count++;
+        }
+    }
+
+    public static class SerializableListener implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        int count;
+
+        @EventBusListenerMethod
+        @EventBusListenerTopic(topic = "news", filter = HierachyTopicFilter.class)
+        public void onString(String payload) {
+            count++;
+        }
+    }
+
+    public static class SerializableMultipleListeners implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        int stringCount;
+        int integerCount;
+
+        @EventBusListenerMethod
+        public void onString(String payload) {
+            stringCount++;
+        }
+
+        @EventBusListenerMethod
+        public void onInteger(Integer payload) {
+            integerCount++;
+        }
+    }
+
+    public static class RecordingListener {
+
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+        volatile CountDownLatch gate;
+
+        @EventBusListenerMethod
+        public void onEvent(Event<String> event) throws InterruptedException {
+            if (gate != null) {
+                gate.await();
+            }
+            received.add(event.getPayload());
+        }
+    }
+
     static class InvalidListener1 {
 
         @EventBusListenerMethod
@@ -523,4 +708,903 @@ public class ScopedEventBusTest {
         System.gc();
         applicationEventBus.publish(this, "Hello World Application");
     }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testPublishToListenersOfSupertypeAddedAfterPreviousPublish() {
+        StringListener stringListener = mock(StringListener.class);
+        CharSequenceListener charSequenceListener = mock(CharSequenceListener.class);
+
+        applicationEventBus.subscribe(stringListener);
+        applicationEventBus.publish(this, "Hello World");
+        applicationEventBus.subscribe(charSequenceListener);
+        applicationEventBus.publish(this, "Hello Again");
+
+        ArgumentCaptor<Event> event = ArgumentCaptor.forClass(Event.class);
+        verify(stringListener, times(2)).onEvent(event.capture());
+        verify(charSequenceListener).onEvent(event.capture());
+        assertEquals("Hello Again", event.getValue().getPayload());
+
+        applicationEventBus.unsubscribe(charSequenceListener);
+        applicationEventBus.publish(this, "Hello Once More");
+        verify(stringListener, times(3)).onEvent(event.capture());
+        verify(charSequenceListener).onEvent(event.capture());
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testSubscribeAndUnsubscribeDuringPublish() {
+        StringListener lateListener = mock(StringListener.class);
+        StringListener subscribingListener = new StringListener() {
+            @Override
+            public void onEvent(Event<String> event) {
+                applicationEventBus.unsubscribe(this);
+                applicationEventBus.subscribe(lateListener);
+            }
+        };
+
+        applicationEventBus.subscribe(subscribingListener);
+        applicationEventBus.publish(this, "First");
+        applicationEventBus.publish(this, "Second");
+
+        ArgumentCaptor<Event> event = ArgumentCaptor.forClass(Event.class);
+        verify(lateListener).onEvent(event.capture());
+        assertEquals("Second", event.getValue().getPayload());
+    }
+
+    @Test
+    public void testListenerMethodFilterScopeAndSource() {
+        FilteredListeners listener = new FilteredListeners();
+
+        sessionEventBus.subscribe(listener);
+        sessionEventBus.publish(this, "Short");
+
+        assertNull(listener.filteredPayload);
+        assertNull(listener.applicationScopedPayload);
+        assertNull(listener.sourcePayload);
+
+        applicationEventBus.publish(1, "Hello World");
+
+        assertEquals("Hello World", listener.filteredPayload);
+        assertEquals("Hello World", listener.applicationScopedPayload);
+        assertEquals("Hello World", listener.sourcePayload);
+    }
+
+    @Test
+    public void testListenerMethodDescriptorsAreSharedPerClass() {
+        ListenerMethodDescriptor[] descriptors = ListenerMethodDescriptor.forListenerClass(MultipleListeners.class);
+
+        assertEquals(10, descriptors.length);
+        assertSame(descriptors, ListenerMethodDescriptor.forListenerClass(MultipleListeners.class));
+    }
+
+    @Test
+    public void testPublishWithHierarchicalTopics() {
+        HierarchyTopicListeners listener = new HierarchyTopicListeners();
+
+        applicationEventBus.subscribe(listener);
+        applicationEventBus.publish("a.b.c", this, "Hello World");
+
+        assertEquals("Hello World", listener.rootPayload);
+        assertEquals("Hello World", listener.aPayload);
+        assertEquals("Hello World", listener.abPayload);
+        assertNull(listener.acPayload);
+        assertNull(listener.exactPayload);
+
+        applicationEventBus.publish("a.b", this, "Exact");
+
+        assertEquals("Exact", listener.abPayload);
+        assertEquals("Exact", listener.exactPayload);
+        assertNull(listener.acPayload);
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testPublishAsync() throws Exception {
+        StringListener stringListener = mock(StringListener.class);
+
+        applicationEventBus.subscribe(stringListener);
+        sessionEventBus.publishAsync(EventScope.APPLICATION, this, "Hello World").get(10, TimeUnit.SECONDS);
+
+        ArgumentCaptor<Event> event = ArgumentCaptor.forClass(Event.class);
+        verify(stringListener).onEvent(event.capture());
+        assertEquals("Hello World", event.getValue().getPayload());
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testPublishAsyncReportsFailingListeners() {
+        StringListener stringListener = mock(StringListener.class);
+        StringListener childListener = mock(StringListener.class);
+        IllegalStateException failure = new IllegalStateException("Failing listener");
+
+        applicationEventBus.setExecutor(Runnable::run);
+        applicationEventBus.subscribe(new EventBusListener<String>() {
+            @Override
+            public void onEvent(Event<String> event) {
+                throw failure;
+            }
+        });
+        applicationEventBus.subscribe(stringListener);
+        sessionEventBus.subscribe(childListener, true);
+        CompletableFuture<Void> future = applicationEventBus.publishAsync(this, "Hello World");
+
+        ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        EventDeliveryException deliveryException = (EventDeliveryException) exception.getCause();
+        assertEquals("Hello World", deliveryException.getEvent().getPayload());
+        assertEquals(1, deliveryException.getFailures().size());
+        assertSame(failure, deliveryException.getFailures().get(0));
+        verify(stringListener).onEvent(any(Event.class));
+        verify(childListener).onEvent(any(Event.class));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testAccessDeliveryBatchesPendingEvents() {
+        List<Command> commands = new ArrayList<>();
+        UI ui = new UI() {
+            @Override
+            public Future<Void> access(Command command) {
+                commands.add(command);
+                return null;
+            }
+        };
+        ScopedEventBus.DefaultUIEventBus uiEventBus = new ScopedEventBus.DefaultUIEventBus(sessionEventBus);
+        uiEventBus.setAccessUI(ui);
+        StringListener stringListener = mock(StringListener.class);
+        uiEventBus.subscribe(stringListener);
+        uiEventBus.subscribe(new EventBusListener<String>() {
+            @Override
+            public void onEvent(Event<String> event) {
+                throw new IllegalStateException("Failing listener");
+            }
+        });
+
+        applicationEventBus.publish(this, "First");
+        sessionEventBus.publish(this, "Second");
+        uiEventBus.publish(this, "Third");
+
+        assertEquals(1, commands.size());
+        verify(stringListener, never()).onEvent(any(Event.class));
+
+        commands.get(0).execute();
+
+        ArgumentCaptor<Event> event = ArgumentCaptor.forClass(Event.class);
+        verify(stringListener, times(3)).onEvent(event.capture());
+        assertEquals("First", event.getAllValues().get(0).getPayload());
+        assertEquals("Second", event.getAllValues().get(1).getPayload());
+        assertEquals("Third", event.getAllValues().get(2).getPayload());
+
+        uiEventBus.publish(this, "Fourth");
+        assertEquals(2, commands.size());
+        uiEventBus.destroy();
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testPublishAll() {
+        BatchListeners listener = new BatchListeners();
+        List<List<Event<String>>> batches = new ArrayList<>();
+        StringListener stringListener = mock(StringListener.class);
+
+        applicationEventBus.subscribe(listener);
+        sessionEventBus.subscribe(stringListener);
+        sessionEventBus.subscribe(new EventBusBatchListener<String>() {
+            @Override
+            public void onEvents(List<Event<String>> events) {
+                batches.add(events);
+            }
+
+            @Override
+            public void onEvent(Event<String> event) {
+                batches.add(Arrays.asList(event));
+            }
+        });
+        applicationEventBus.publishAll(this, Arrays.asList("First", 1, "Second", 2L));
+
+        assertEquals(Arrays.asList("First", 1, "Second", 2L), listener.payloads);
+        assertEquals(1, listener.payloadBatches.size());
+        assertEquals(Arrays.asList("First", "Second"), listener.payloadBatches.get(0));
+        assertEquals(1, listener.eventBatches.size());
+        assertEquals(1, listener.eventBatches.get(0).size());
+        assertEquals(Integer.valueOf(1), listener.eventBatches.get(0).get(0).getPayload());
+
+        ArgumentCaptor<Event> event = ArgumentCaptor.forClass(Event.class);
+        verify(stringListener, times(2)).onEvent(event.capture());
+        assertEquals("First", event.getAllValues().get(0).getPayload());
+        assertEquals("Second", event.getAllValues().get(1).getPayload());
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+
+        applicationEventBus.publish(this, "Third");
+
+        assertEquals(2, listener.payloadBatches.size());
+        assertEquals(Arrays.asList("Third"), listener.payloadBatches.get(1));
+        assertEquals(2, batches.size());
+        assertEquals("Third", batches.get(1).get(0).getPayload());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        List<Object> payloads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivered = new CountDownLatch(1);
+        sessionEventBus.subscribe(new EventBusListener<Number>() {
+            @Override
+            public void onEvent(Event<Number> event) {
+                payloads.add(event.getPayload());
+                if (Integer.valueOf(4).equals(event.getPayload())) {
+                    delivered.countDown();
+                }
+            }
+        });
+        sessionEventBus.setExecutor(Runnable::run);
+        sessionEventBus.coalesce("progress", Integer.class, 100, TimeUnit.MILLISECONDS);
+
+        applicationEventBus.publish("progress", this, 1);
+        applicationEventBus.publish("progress", this, 2);
+        applicationEventBus.publish("progress", this, 3L);
+        applicationEventBus.publish("progress", this, 4);
+        applicationEventBus.publish("other", this, 5);
+
+        assertEquals(Arrays.asList(3L, 5), payloads);
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(3L, 5, 4), payloads);
+    }
+
+    @Test
+    public void testCoalescedEventsOfAKeyAreDeliveredInOrderByMultiThreadedExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Integer> payloads = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger latest = new AtomicInteger();
+            CountDownLatch firstStarted = new CountDownLatch(1);
+            CountDownLatch releaseFirst = new CountDownLatch(1);
+            CountDownLatch secondDelivered = new CountDownLatch(1);
+            sessionEventBus.subscribe(new EventBusListener<Integer>() {
+                @Override
+                public void onEvent(Event<Integer> event) {
+                    payloads.add(event.getPayload());
+                    if (event.getPayload() == 1) {
+                        firstStarted.countDown();
+                        try {
+                            releaseFirst.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    latest.set(event.getPayload());
+                    if (event.getPayload() == 2) {
+                        secondDelivered.countDown();
+                    }
+                }
+            });
+            sessionEventBus.setExecutor(executor);
+            sessionEventBus.coalesce("progress", Integer.class, 10, TimeUnit.MILLISECONDS);
+
+            sessionEventBus.publish("progress", this, 1);
+            assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+            sessionEventBus.publish("progress", this, 2);
+            // Gives the second window time to close while the first event is still being delivered
+            Thread.sleep(200);
+            assertEquals(Arrays.asList(1), payloads);
+
+            releaseFirst.countDown();
+            assertTrue(secondDelivered.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(1, 2), payloads);
+            assertEquals(2, latest.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelFanOutKeepsOrderPerChildBus() {
+        List<ScopedEventBus> childBuses = new ArrayList<>();
+        List<List<Integer>> received = new ArrayList<>();
+        applicationEventBus.setParallelFanOutThreshold(2);
+        for (int i = 0; i < 20; i++) {
+            ScopedEventBus childBus = new ScopedEventBus.DefaultSessionEventBus(applicationEventBus);
+            List<Integer> payloads = new ArrayList<>();
+            childBus.subscribe(new EventBusListener<Integer>() {
+                @Override
+                public void onEvent(Event<Integer> event) {
+                    payloads.add(event.getPayload());
+                }
+            });
+            childBuses.add(childBus);
+            received.add(payloads);
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            applicationEventBus.publish(this, i);
+            expected.add(i);
+        }
+
+        for (List<Integer> payloads : received) {
+            assertEquals(expected, payloads);
+        }
+        childBuses.forEach(ScopedEventBus::destroy);
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testChildEventBusOnlyAttachedWhileInterestedInPropagatedEvents() {
+        ScopedEventBus.DefaultUIEventBus uiEventBus = new ScopedEventBus.DefaultUIEventBus(sessionEventBus);
+        StringListener localListener = mock(StringListener.class);
+        StringListener propagatingListener = mock(StringListener.class);
+
+        uiEventBus.subscribe(localListener, false);
+        assertFalse(uiEventBus.isAttachedToParent());
+        assertFalse(sessionEventBus.isAttachedToParent());
+
+        uiEventBus.subscribe(propagatingListener);
+        assertTrue(uiEventBus.isAttachedToParent());
+        assertTrue(sessionEventBus.isAttachedToParent());
+
+        applicationEventBus.publish(this, "Hello World");
+        verify(propagatingListener).onEvent(any(Event.class));
+        verify(localListener, never()).onEvent(any(Event.class));
+
+        uiEventBus.unsubscribe(propagatingListener);
+        assertFalse(uiEventBus.isAttachedToParent());
+        assertFalse(sessionEventBus.isAttachedToParent());
+        uiEventBus.destroy();
+    }
+
+    @Test
+    public void testWeakSubscriptionsAreKeyedOnTheListenerTarget() throws Exception {
+        MultipleListeners listener = new MultipleListeners();
+        applicationEventBus.subscribeWithWeakReference(listener, "shouldSucceed");
+
+        System.gc();
+        applicationEventBus.publish("shouldSucceed", this, "Hello World");
+        assertEquals("Hello World", listener.theStringPayload);
+        assertEquals(0, applicationEventBus.getReclaimedListenerCount());
+
+        listener = null;
+        for (int i = 0; i < 50 && applicationEventBus.getReclaimedListenerCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        applicationEventBus.publish("shouldSucceed", this, "Hello Again");
+
+        assertEquals(1, applicationEventBus.getReclaimedListenerCount());
+    }
+
+    @Test
+    public void testPublishingToPayloadListenersDoesNotAllocate() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported(),
+            "Measuring allocated memory is not supported");
+        assumeFalse(LoggerFactory.getLogger(ScopedEventBus.class).isDebugEnabled(), "Debug logging allocates");
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        PayloadCountingListener listener = new PayloadCountingListener();
+        applicationEventBus.subscribe(listener);
+        Long payload = 42L;
+        for (int i = 0; i < 20000; i++) {
+            applicationEventBus.publish(this, payload);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = Long.MAX_VALUE;
+        // The publishing code may still be compiled during the first rounds, so the round that allocates least counts
+        for (int round = 0; round < 10; round++) {
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 10000; i++) {
+                applicationEventBus.publish(this, payload);
+            }
+            allocated = Math.min(allocated, allocations.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        assertEquals(120000, listener.count);
+        double bytesPerPublish = allocated / 10000.0;
+        assertTrue(bytesPerPublish < 1, "Allocated " + bytesPerPublish + " bytes per publish");
+    }
+
+    @Test
+    public void testRemovingRegistrationOnlyCancelsThatSubscription() {
+        PayloadCountingListener listener = new PayloadCountingListener();
+        Registration first = applicationEventBus.subscribeWithRegistration(listener, "first");
+        applicationEventBus.subscribe(listener, "second");
+        List<PayloadCountingListener> others = new ArrayList<>();
+        List<Registration> otherRegistrations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            PayloadCountingListener other = new PayloadCountingListener();
+            others.add(other);
+            otherRegistrations.add(applicationEventBus.subscribeWithRegistration(other, "first"));
+        }
+
+        first.remove();
+        first.remove();
+        applicationEventBus.publish("first", this, 1L);
+        applicationEventBus.publish("second", this, 1L);
+        assertEquals(1, listener.count);
+
+        // Removing many subscriptions rebuilds the listener snapshot, which must keep the remaining subscriptions
+        for (int i = 0; i < 50; i++) {
+            otherRegistrations.get(i).remove();
+        }
+        applicationEventBus.publish("first", this, 1L);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i < 50 ? 1 : 2, others.get(i).count);
+        }
+
+        applicationEventBus.unsubscribe(listener);
+        applicationEventBus.publish("second", this, 1L);
+        assertEquals(1, listener.count);
+    }
+
+    @Test
+    public void testRemovingRegistrationDetachesChildEventBus() {
+        StringListener listener = mock(StringListener.class);
+        Registration registration = sessionEventBus.subscribeWithRegistration(listener);
+        assertTrue(sessionEventBus.isAttachedToParent());
+
+        registration.remove();
+        assertFalse(sessionEventBus.isAttachedToParent());
+        applicationEventBus.publish(this, "Hello World");
+        verify(listener, never()).onEvent(any(Event.class));
+    }
+
+    @Test
+    public void testSerializedSessionEventBusReattachesToLiveApplicationEventBus() throws Exception {
+        StringListener applicationListener = mock(StringListener.class);
+        applicationEventBus.subscribe(applicationListener);
+        SerializableListener originalListener = new SerializableListener();
+        sessionEventBus.subscribe(originalListener);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(new Object[]{sessionEventBus, originalListener});
+        }
+        Object[] session;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            session = (Object[]) ois.readObject();
+        }
+        ScopedEventBus.DefaultSessionEventBus deserialized = (ScopedEventBus.DefaultSessionEventBus) session[0];
+        SerializableListener listener = (SerializableListener) session[1];
+        sessionEventBus.unsubscribe(originalListener);
+
+        // The application event bus and its non-serializable listeners are referenced, not copied
+        assertSame(applicationEventBus, deserialized.getParentEventBus());
+        assertTrue(deserialized.isAttachedToParent());
+
+        applicationEventBus.publish("news/sports", this, "Hello World");
+        assertEquals(1, listener.count);
+        verify(applicationListener).onEvent(any(Event.class));
+
+        deserialized.publish("weather", this, "Hello World");
+        assertEquals(1, listener.count);
+        deserialized.destroy();
+    }
+
+    @Test
+    public void testSerializedSessionEventBusBindsToApplicationEventBusCreatedAfterIt() throws Exception {
+        SerializableListener originalListener = new SerializableListener();
+        sessionEventBus.subscribe(originalListener);
+        byte[] bytes = serialize(sessionEventBus, originalListener);
+        sessionEventBus.unsubscribe(originalListener);
+        applicationEventBus.destroy();
+        // Let application event buses that other tests left behind be collected
+        for (int i = 0; i < 10 && ScopedEventBus.DefaultApplicationEventBus.find("") != null; i++) {
+            System.gc();
+        }
+
+        // No application event bus is live, e.g. because the session is restored before the application context
+        Object[] session = deserialize(bytes);
+        ScopedEventBus.DefaultSessionEventBus deserialized = (ScopedEventBus.DefaultSessionEventBus) session[0];
+        SerializableListener listener = (SerializableListener) session[1];
+        assertFalse(deserialized.isAttachedToParent());
+        deserialized.publish("news", this, "Hello World");
+        assertEquals(1, listener.count);
+
+        applicationEventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        assertTrue(deserialized.isAttachedToParent());
+        assertSame(applicationEventBus, deserialized.getParentEventBus());
+        applicationEventBus.publish("news", this, "Hello World");
+        assertEquals(2, listener.count);
+        deserialized.destroy();
+    }
+
+    @Test
+    public void testSerializedSessionEventBusWaitsForAmbiguousApplicationEventBus() throws Exception {
+        SerializableListener originalListener = new SerializableListener();
+        sessionEventBus.subscribe(originalListener);
+        byte[] bytes = serialize(sessionEventBus, originalListener);
+        sessionEventBus.unsubscribe(originalListener);
+        applicationEventBus.destroy();
+        ScopedEventBus.DefaultApplicationEventBus first = new ScopedEventBus.DefaultApplicationEventBus();
+        ScopedEventBus.DefaultApplicationEventBus second = new ScopedEventBus.DefaultApplicationEventBus();
+
+        // Two live application event buses, neither of which is the serialized one
+        Object[] session = deserialize(bytes);
+        ScopedEventBus.DefaultSessionEventBus deserialized = (ScopedEventBus.DefaultSessionEventBus) session[0];
+        SerializableListener listener = (SerializableListener) session[1];
+        assertFalse(deserialized.isAttachedToParent());
+        first.publish("news", this, "Hello World");
+        second.publish("news", this, "Hello World");
+        assertEquals(0, listener.count);
+        try {
+            deserialized.publish(EventScope.APPLICATION, "news", this, "Hello World");
+            fail("Publishing to an unresolved application event bus should fail");
+        } catch (IllegalStateException expected) {
+        }
+
+        applicationEventBus = new ScopedEventBus.DefaultApplicationEventBus();
+        assertTrue(deserialized.isAttachedToParent());
+        deserialized.publish(EventScope.APPLICATION, "news", this, "Hello World");
+        assertEquals(1, listener.count);
+        deserialized.destroy();
+        first.destroy();
+        second.destroy();
+    }
+
+    @Test
+    public void testDeserializedWeakListenersShareTheirTargetReference() throws Exception {
+        SerializableMultipleListeners originalListener = new SerializableMultipleListeners();
+        sessionEventBus.subscribeWithWeakReference(originalListener);
+        Object[] session = deserialize(serialize(sessionEventBus, originalListener));
+        sessionEventBus.unsubscribe(originalListener);
+        ScopedEventBus.DefaultSessionEventBus deserialized = (ScopedEventBus.DefaultSessionEventBus) session[0];
+        SerializableMultipleListeners listener = (SerializableMultipleListeners) session[1];
+        session = null;
+
+        deserialized.publish(this, "Hello World");
+        deserialized.publish(this, 1);
+        assertEquals(1, listener.stringCount);
+        assertEquals(1, listener.integerCount);
+
+        listener = null;
+        for (int i = 0; i < 50 && deserialized.getReclaimedListenerCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        deserialized.publish(this, "Hello Again");
+
+        // Both listener methods of the target are reclaimed together
+        assertEquals(1, deserialized.getReclaimedListenerCount());
+        deserialized.destroy();
+    }
+
+    private static byte[] serialize(Object... objects) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(objects);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object[] deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Object[]) ois.readObject();
+        }
+    }
+
+    @Test
+    public void testListenerQueueDropsOldestEvents() {
+        List<Runnable> drains = new ArrayList<Runnable>();
+        applicationEventBus.setExecutor(drains::add);
+        applicationEventBus.setListenerQueues(2, OverflowPolicy.DROP_OLDEST);
+        RecordingListener listener = new RecordingListener();
+        applicationEventBus.subscribe(listener);
+
+        applicationEventBus.publish(this, "1");
+        applicationEventBus.publish(this, "2");
+        applicationEventBus.publish(this, "3");
+        assertTrue(listener.received.isEmpty());
+        ListenerQueueStatistics statistics = applicationEventBus.getListenerQueueStatistics().get(0);
+        assertSame(listener, statistics.getListener());
+        assertEquals(2, statistics.getDepth());
+        assertEquals(1, statistics.getDroppedCount());
+
+        assertEquals(1, drains.size());
+        drains.get(0).run();
+        assertEquals(Arrays.asList("2", "3"), listener.received);
+        statistics = applicationEventBus.getListenerQueueStatistics().get(0);
+        assertEquals(0, statistics.getDepth());
+        assertEquals(2, statistics.getDeliveredCount());
+    }
+
+    @Test
+    public void testListenerQueueDropsNewestEvents() {
+        List<Runnable> drains = new ArrayList<Runnable>();
+        applicationEventBus.setExecutor(drains::add);
+        applicationEventBus.setListenerQueues(2, OverflowPolicy.DROP_NEWEST);
+        RecordingListener listener = new RecordingListener();
+        applicationEventBus.subscribe(listener);
+
+        applicationEventBus.publishAll(this, Arrays.asList("1", "2", "3"));
+        drains.get(0).run();
+        assertEquals(Arrays.asList("1", "2"), listener.received);
+        assertEquals(1, applicationEventBus.getListenerQueueStatistics().get(0).getDroppedCount());
+    }
+
+    @Test
+    public void testListenerQueueCoalescesLatestEventPerTopic() {
+        List<Runnable> drains = new ArrayList<Runnable>();
+        applicationEventBus.setExecutor(drains::add);
+        applicationEventBus.setListenerQueues(10, OverflowPolicy.COALESCE_LATEST);
+        List<String> received = new ArrayList<String>();
+        applicationEventBus.subscribe(new EventBusListener<String>() {
+            @Override
+            public void onEvent(Event<String> event) {
+                received.add(event.getPayload());
+            }
+        });
+
+        applicationEventBus.publish("progress/a", this, "a1");
+        applicationEventBus.publish("progress/b", this, "b1");
+        applicationEventBus.publish("progress/a", this, "a2");
+        drains.get(0).run();
+        assertEquals(Arrays.asList("b1", "a2"), received);
+        assertEquals(1, applicationEventBus.getListenerQueueStatistics().get(0).getDroppedCount());
+    }
+
+    @Test
+    public void testListenerQueueBlocksPublisherUntilSlowListenerCatchesUp() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            applicationEventBus.setExecutor(executor);
+            applicationEventBus.setListenerQueues(1, OverflowPolicy.BLOCK);
+            RecordingListener slowListener = new RecordingListener();
+            slowListener.gate = new CountDownLatch(1);
+            RecordingListener fastListener = new RecordingListener();
+            applicationEventBus.subscribe(slowListener);
+            applicationEventBus.subscribe(fastListener);
+
+            applicationEventBus.publish(this, "1");
+            // The slow listener is stuck with the first event, so the second one fills its queue
+            while (applicationEventBus.getListenerQueueStatistics().get(0).getDepth() > 0) {
+                Thread.sleep(1);
+            }
+            applicationEventBus.publish(this, "2");
+            CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> applicationEventBus.publish(this, "3"));
+            assertThrows(java.util.concurrent.TimeoutException.class, () -> blocked.get(100, TimeUnit.MILLISECONDS));
+
+            slowListener.gate.countDown();
+            blocked.get(5, TimeUnit.SECONDS);
+            while (slowListener.received.size() < 3 || fastListener.received.size() < 3) {
+                Thread.sleep(1);
+            }
+            assertEquals(Arrays.asList("1", "2", "3"), slowListener.received);
+            assertEquals(Arrays.asList("1", "2", "3"), fastListener.received);
+            for (ListenerQueueStatistics statistics : applicationEventBus.getListenerQueueStatistics()) {
+                assertEquals(0, statistics.getDroppedCount());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFullBlockingQueueDeliversOutsideTheListenerLockWhileHoldingTheSessionLock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Command> accesses = new ArrayList<Command>();
+            AtomicBoolean hasLock = new AtomicBoolean();
+            applicationEventBus.setAccessDelivery(accesses::add, hasLock::get);
+            applicationEventBus.setListenerQueues(1, OverflowPolicy.BLOCK);
+            List<Integer> depths = new ArrayList<Integer>();
+            applicationEventBus.subscribe(new EventBusListener<String>() {
+                @Override
+                public void onEvent(Event<String> event) {
+                    try {
+                        // Reading the queue from another thread needs the lock of the queued listener
+                        depths.add(executor.submit(() -> applicationEventBus.getListenerQueueStatistics().get(0)
+                            .getDepth()).get(5, TimeUnit.SECONDS));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+
+            applicationEventBus.publish(this, "1");
+            assertEquals(1, accesses.size());
+            // The drain cannot run before the session lock is released, so the publisher delivers the first event
+            hasLock.set(true);
+            applicationEventBus.publish(this, "2");
+            assertEquals(Collections.singletonList(0), depths);
+            assertEquals(1, applicationEventBus.getListenerQueueStatistics().get(0).getDepth());
+
+            accesses.get(0).execute();
+            assertEquals(Arrays.asList(0, 0), depths);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDrainWaitsForEventDeliveredByPublisherOfFullBlockingQueue() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Command> accesses = new ArrayList<Command>();
+            AtomicBoolean hasLock = new AtomicBoolean();
+            Thread publisher = Thread.currentThread();
+            // The drain runs on another thread that does not hold the lock that the publisher is reported to hold
+            applicationEventBus.setAccessDelivery(accesses::add,
+                () -> hasLock.get() && Thread.currentThread() == publisher);
+            applicationEventBus.setListenerQueues(2, OverflowPolicy.BLOCK);
+            List<String> payloads = Collections.synchronizedList(new ArrayList<String>());
+            AtomicInteger delivering = new AtomicInteger();
+            AtomicBoolean concurrent = new AtomicBoolean();
+            List<Future<?>> drains = new ArrayList<Future<?>>();
+            applicationEventBus.subscribe(new EventBusListener<String>() {
+                @Override
+                public void onEvent(Event<String> event) {
+                    if (delivering.incrementAndGet() > 1) {
+                        concurrent.set(true);
+                    }
+                    payloads.add(event.getPayload());
+                    if (event.getPayload().equals("1")) {
+                        drains.add(executor.submit(() -> accesses.get(0).execute()));
+                        try {
+                            drains.get(0).get(200, TimeUnit.MILLISECONDS);
+                        } catch (Exception e) {
+                            // The drain waits for this delivery to finish
+                        }
+                    }
+                    delivering.decrementAndGet();
+                }
+            });
+
+            applicationEventBus.publish(this, "1");
+            applicationEventBus.publish(this, "2");
+            hasLock.set(true);
+            applicationEventBus.publish(this, "3");
+            drains.get(0).get(5, TimeUnit.SECONDS);
+
+            assertFalse(concurrent.get());
+            assertEquals(Arrays.asList("1", "2", "3"), payloads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testListenerQueuesMustBeConfiguredBeforeSubscribing() {
+        applicationEventBus.subscribe(new RecordingListener());
+        assertThrows(IllegalStateException.class, () -> applicationEventBus.setListenerQueues(10, OverflowPolicy.BLOCK));
+    }
+
+    static class RecordingMetrics implements EventBusMetrics {
+
+        final List<String> records = Collections.synchronizedList(new ArrayList<String>());
+
+        volatile int listenerCount;
+
+        @Override
+        public void eventPublished(EventScope scope, String topic, Class<?> payloadType) {
+            records.add(String.format("published %s %s %s", scope, topic, payloadType.getSimpleName()));
+        }
+
+        @Override
+        public void eventDispatched(EventScope scope, String topic, Class<?> payloadType, boolean propagated,
+                                    int listenerCount, long durationNanos) {
+            assertTrue(durationNanos >= 0);
+            records.add(String.format("dispatched %s %s %s propagated=%s listeners=%d", scope, topic,
+                payloadType.getSimpleName(), propagated, listenerCount));
+        }
+
+        @Override
+        public void batchDispatched(EventScope scope, int eventCount, boolean propagated, int deliveryCount,
+                                    long durationNanos) {
+            records.add(String.format("batch %s events=%d propagated=%s deliveries=%d", scope, eventCount, propagated,
+                deliveryCount));
+        }
+
+        @Override
+        public void listenerCountChanged(EventScope scope, int delta) {
+            listenerCount += delta;
+        }
+    }
+
+    @Test
+    public void testMetricsAreRecorded() {
+        RecordingMetrics metrics = new RecordingMetrics();
+        applicationEventBus.setMetrics(metrics);
+        sessionEventBus.setMetrics(metrics);
+        RecordingListener applicationListener = new RecordingListener();
+        applicationEventBus.subscribe(applicationListener);
+        Registration registration = sessionEventBus.subscribeWithRegistration(new RecordingListener());
+        sessionEventBus.subscribe(new RecordingListener());
+        assertEquals(3, metrics.listenerCount);
+
+        applicationEventBus.publish("news", this, "Hello");
+        sessionEventBus.publishAll(this, Arrays.asList("a", "b"));
+
+        assertEquals(Arrays.asList(
+            "published APPLICATION news String",
+            "dispatched APPLICATION news String propagated=false listeners=0",
+            "dispatched SESSION news String propagated=true listeners=0",
+            "published SESSION  String",
+            "published SESSION  String",
+            "batch SESSION events=2 propagated=false deliveries=4"), metrics.records);
+
+        registration.remove();
+        applicationEventBus.unsubscribe(applicationListener);
+        assertEquals(1, metrics.listenerCount);
+        sessionEventBus.setMetrics(null);
+        assertEquals(0, metrics.listenerCount);
+    }
+
+    @Test
+    public void testDispatchesAndListenerInvocationsAreReportedToMetrics() {
+        final List<String> records = new ArrayList<String>();
+        applicationEventBus.setMetrics(new EventBusMetrics() {
+            @Override
+            public Object dispatchStarted(EventScope scope, String topic, Class<?> payloadType, boolean propagated) {
+                return String.format("dispatch %s %s %s", scope, topic, payloadType.getSimpleName());
+            }
+
+            @Override
+            public void dispatchFinished(Object context, int listenerCount) {
+                records.add(context + " listeners=" + listenerCount);
+            }
+
+            @Override
+            public Object listenerInvocationStarted(EventScope scope, String topic, Class<?> payloadType,
+                                                    Class<?> listenerClass, String listenerMethod) {
+                return String.format("invoke %s %s %s %s.%s", scope, topic, payloadType.getSimpleName(),
+                    listenerClass.getSimpleName(), listenerMethod);
+            }
+
+            @Override
+            public void listenerInvocationFinished(Object context) {
+                records.add((String) context);
+            }
+        });
+        applicationEventBus.subscribe(new RecordingListener());
+        applicationEventBus.publish(this, "Hello");
+        applicationEventBus.subscribe(new StringListener() {
+            @Override
+            public void onEvent(Event<String> event) {
+                throw new IllegalStateException("fail");
+            }
+        }, "news");
+
+        assertThrows(IllegalStateException.class, () -> applicationEventBus.publish("news", this, "Hello"));
+
+        assertEquals(Arrays.asList(
+            "invoke APPLICATION  String RecordingListener.onEvent",
+            "dispatch APPLICATION  String listeners=1",
+            "invoke APPLICATION news String .onEvent",
+            "dispatch APPLICATION news String listeners=0"), records);
+    }
+
+    public static class SleepingListener {
+
+        @EventBusListenerMethod
+        public void onEvent(String payload) throws InterruptedException {
+            Thread.sleep(payload.equals("slow") ? 50 : 0);
+        }
+    }
+
+    @Test
+    public void testListenerLatenciesAreTracked() {
+        SleepingListener listener = new SleepingListener();
+        applicationEventBus.subscribe(listener);
+        applicationEventBus.publish(this, "untracked");
+        assertTrue(applicationEventBus.getListenerLatencyStatistics().isEmpty());
+
+        applicationEventBus.setListenerLatencyTracking(true);
+        applicationEventBus.setSlowListenerThreshold(20, TimeUnit.MILLISECONDS);
+        applicationEventBus.publish(this, "fast");
+        applicationEventBus.publish(this, "slow");
+        applicationEventBus.publishAll(this, Arrays.asList("fast", "fast"));
+
+        List<ListenerLatencyStatistics> statistics = applicationEventBus.getListenerLatencyStatistics();
+        assertEquals(1, statistics.size());
+        assertSame(listener, statistics.get(0).getListener());
+        assertEquals("onEvent", statistics.get(0).getListenerMethod());
+        assertEquals(String.class, statistics.get(0).getPayloadType());
+        assertEquals(4, statistics.get(0).getInvocationCount());
+        assertEquals(1, statistics.get(0).getSlowInvocationCount());
+        assertTrue(statistics.get(0).getTotalCpuTime() >= 0);
+        LatencyHistogram histogram = statistics.get(0).getLatencyHistogram();
+        assertTrue(histogram.getMaxValue() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(histogram.getValueAtPercentile(50) < TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(histogram.getValueAtPercentile(100) >= histogram.getMaxValue() * 15 / 16);
+    }
 }
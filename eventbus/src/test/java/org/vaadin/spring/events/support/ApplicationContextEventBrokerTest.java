@@ -17,9 +17,19 @@ package org.vaadin.spring.events.support;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.context.ApplicationEvent;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.core.ResolvableType;
 import org.vaadin.spring.events.EventBus;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -45,4 +55,99 @@ public class ApplicationContextEventBrokerTest {
         verify(eventBus).publish("mySource", event);
     }
 
+    @Test
+    public void testIgnoredEventTypesAreNotForwarded() {
+        EventBus eventBus = mock(EventBus.class);
+        ApplicationContextEventBroker broker = new ApplicationContextEventBroker(eventBus);
+        broker.setIgnoredTypes(IgnoredEvent.class);
+        ApplicationEvent ignored = new IgnoredEvent("mySource");
+        ApplicationEvent forwarded = new ForwardedEvent("mySource");
+
+        broker.onApplicationEvent(ignored);
+        broker.onApplicationEvent(forwarded);
+
+        verify(eventBus, never()).publish("mySource", ignored);
+        verify(eventBus).publish("mySource", forwarded);
+        assertFalse(broker.supportsEventType(ResolvableType.forClass(IgnoredEvent.class)));
+        assertTrue(broker.supportsEventType(ResolvableType.forClass(ForwardedEvent.class)));
+    }
+
+    @Test
+    public void testOnlyForwardedPayloadTypesAreForwarded() {
+        EventBus eventBus = mock(EventBus.class);
+        ApplicationContextEventBroker broker = new ApplicationContextEventBroker(eventBus);
+        broker.setForwardedTypes(String.class);
+        ApplicationEvent stringEvent = new PayloadApplicationEvent<String>("mySource", "Hello World");
+        ApplicationEvent integerEvent = new PayloadApplicationEvent<Integer>("mySource", 42);
+
+        broker.onApplicationEvent(stringEvent);
+        broker.onApplicationEvent(integerEvent);
+        broker.onApplicationEvent(new ForwardedEvent("mySource"));
+
+        verify(eventBus).publish("mySource", stringEvent);
+        verify(eventBus, never()).publish("mySource", integerEvent);
+        assertTrue(broker.supportsEventType(
+            ResolvableType.forClassWithGenerics(PayloadApplicationEvent.class, String.class)));
+        assertFalse(broker.supportsEventType(
+            ResolvableType.forClassWithGenerics(PayloadApplicationEvent.class, Integer.class)));
+        assertFalse(broker.supportsEventType(ResolvableType.forClass(ForwardedEvent.class)));
+    }
+
+    @Test
+    public void testEventsAreForwardedAsynchronously() {
+        EventBus eventBus = mock(EventBus.class);
+        List<Runnable> tasks = new ArrayList<>();
+        ApplicationContextEventBroker broker = new ApplicationContextEventBroker(eventBus);
+        broker.setExecutor(tasks::add);
+        ApplicationEvent first = new ForwardedEvent("mySource");
+        ApplicationEvent second = new ForwardedEvent("mySource");
+
+        broker.onApplicationEvent(first);
+        broker.onApplicationEvent(second);
+
+        verify(eventBus, never()).publish("mySource", first);
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        verify(eventBus).publish("mySource", first);
+        verify(eventBus).publish("mySource", second);
+    }
+
+    @Test
+    public void testPendingEventsAreForwardedInBatchesPerSource() {
+        EventBus eventBus = mock(EventBus.class);
+        List<Runnable> tasks = new ArrayList<>();
+        ApplicationContextEventBroker broker = new ApplicationContextEventBroker(eventBus);
+        broker.setExecutor(tasks::add);
+        broker.setBatching(true);
+        ApplicationEvent first = new ForwardedEvent("mySource");
+        ApplicationEvent second = new ForwardedEvent("mySource");
+        ApplicationEvent third = new ForwardedEvent("otherSource");
+
+        broker.onApplicationEvent(first);
+        broker.onApplicationEvent(second);
+        broker.onApplicationEvent(third);
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+
+        verify(eventBus).publishAll("mySource", Arrays.asList(first, second));
+        verify(eventBus).publish("otherSource", third);
+    }
+
+    static class ForwardedEvent extends ApplicationEvent {
+
+        private static final long serialVersionUID = 1L;
+
+        ForwardedEvent(Object source) {
+            super(source);
+        }
+    }
+
+    static class IgnoredEvent extends ApplicationEvent {
+
+        private static final long serialVersionUID = 1L;
+
+        IgnoredEvent(Object source) {
+            super(source);
+        }
+    }
 }